@@ -0,0 +1,305 @@
+/*
+ * Copyright 2016 E.Hooijmeijer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.ctrlaltdev.harbinger.benchmark;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.springframework.mock.web.MockHttpServletRequest;
+
+/**
+ * Reads access logs in the common (or combined) log format, or as JSON lines
+ * with one flat object per request, into entries that can be replayed as
+ * mock requests. Lines that cannot be parsed are counted and skipped.
+ */
+final class AccessLog {
+
+    private static final Pattern CLF = Pattern
+            .compile("^(\\S+) \\S+ \\S+ \\[[^\\]]*\\] \"(\\S+) (\\S+)[^\"]*\" (\\d{3}) \\S+(?: \"[^\"]*\" \"([^\"]*)\")?.*$");
+
+    private static final String[] IP = { "remote_addr", "remoteAddr", "ip", "client" };
+    private static final String[] METHOD = { "method", "request_method" };
+    private static final String[] URI = { "uri", "request_uri", "url", "path" };
+    private static final String[] QUERY = { "query", "query_string", "args" };
+    private static final String[] STATUS = { "status", "status_code" };
+    private static final String[] USER_AGENT = { "user_agent", "userAgent", "http_user_agent" };
+
+    /**
+     * A logged request.
+     */
+    static final class Entry {
+        final String ip;
+        final String method;
+        final String path;
+        final String query;
+        final int status;
+        final String userAgent;
+
+        Entry(String ip, String method, String uri, String query, int status, String userAgent) {
+            int idx = uri.indexOf('?');
+            this.ip = ip;
+            this.method = method;
+            this.path = idx < 0 ? uri : uri.substring(0, idx);
+            this.query = idx < 0 ? query : uri.substring(idx + 1);
+            this.status = status;
+            this.userAgent = userAgent;
+        }
+
+        /**
+         * @return a new mock request with the parameters of the query string.
+         */
+        MockHttpServletRequest toRequest() {
+            MockHttpServletRequest request = new MockHttpServletRequest(method, path);
+            request.setRemoteAddr(ip);
+            if (userAgent != null) {
+                request.addHeader("User-Agent", userAgent);
+            }
+            if (query != null && !query.isEmpty()) {
+                request.setQueryString(query);
+                for (String pair : query.split("&")) {
+                    int eq = pair.indexOf('=');
+                    String name = decode(eq < 0 ? pair : pair.substring(0, eq));
+                    if (!name.isEmpty()) {
+                        request.addParameter(name, eq < 0 ? "" : decode(pair.substring(eq + 1)));
+                    }
+                }
+            }
+            return request;
+        }
+    }
+
+    private final List<Entry> entries = new ArrayList<>();
+    private int skipped;
+
+    private AccessLog() {
+    }
+
+    /**
+     * @param in the log, the format is determined per line.
+     * @return the parsed log.
+     */
+    static AccessLog read(BufferedReader in) throws IOException {
+        AccessLog log = new AccessLog();
+        String line = in.readLine();
+        while (line != null) {
+            line = line.trim();
+            if (!line.isEmpty()) {
+                Entry entry = line.startsWith("{") ? parseJson(line) : parseClf(line);
+                if (entry != null) {
+                    log.entries.add(entry);
+                } else {
+                    log.skipped++;
+                }
+            }
+            line = in.readLine();
+        }
+        return log;
+    }
+
+    List<Entry> getEntries() {
+        return entries;
+    }
+
+    int getSkipped() {
+        return skipped;
+    }
+
+    private static Entry parseClf(String line) {
+        Matcher m = CLF.matcher(line);
+        if (!m.matches()) {
+            return null;
+        }
+        String userAgent = m.group(5);
+        return new Entry(m.group(1), m.group(2), m.group(3), null, Integer.parseInt(m.group(4)),
+                "-".equals(userAgent) ? null : userAgent);
+    }
+
+    private static Entry parseJson(String line) {
+        Map<String, String> fields;
+        try {
+            fields = new Json(line).object();
+        } catch (IllegalArgumentException ex) {
+            return null;
+        }
+        String ip = field(fields, IP);
+        String uri = field(fields, URI);
+        String status = field(fields, STATUS);
+        if (ip == null || uri == null || status == null) {
+            return null;
+        }
+        String method = field(fields, METHOD);
+        try {
+            return new Entry(ip, method == null ? "GET" : method, uri, field(fields, QUERY), Integer.parseInt(status),
+                    field(fields, USER_AGENT));
+        } catch (NumberFormatException ex) {
+            return null;
+        }
+    }
+
+    private static String field(Map<String, String> fields, String[] names) {
+        for (String name : names) {
+            String value = fields.get(name);
+            if (value != null) {
+                return value;
+            }
+        }
+        return null;
+    }
+
+    private static String decode(String str) {
+        try {
+            return URLDecoder.decode(str, "UTF-8");
+        } catch (UnsupportedEncodingException | IllegalArgumentException ex) {
+            return str;
+        }
+    }
+
+    /**
+     * Minimal JSON reader for a single object, nested values are skipped and
+     * other values are kept as their text.
+     */
+    private static final class Json {
+        private final String str;
+        private int pos;
+
+        Json(String str) {
+            this.str = str;
+        }
+
+        Map<String, String> object() {
+            Map<String, String> result = new HashMap<>();
+            expect('{');
+            if (peek() == '}') {
+                pos++;
+                return result;
+            }
+            do {
+                String key = string();
+                expect(':');
+                result.put(key, value());
+            } while (accept(','));
+            expect('}');
+            return result;
+        }
+
+        private String value() {
+            char c = peek();
+            if (c == '"') {
+                return string();
+            } else if (c == '{' || c == '[') {
+                skipNested();
+                return null;
+            }
+            int start = pos;
+            while (pos < str.length() && ",}] \t".indexOf(str.charAt(pos)) < 0) {
+                pos++;
+            }
+            String text = str.substring(start, pos);
+            return "null".equals(text) ? null : text;
+        }
+
+        private void skipNested() {
+            int depth = 0;
+            do {
+                char c = next();
+                if (c == '"') {
+                    pos--;
+                    string();
+                } else if (c == '{' || c == '[') {
+                    depth++;
+                } else if (c == '}' || c == ']') {
+                    depth--;
+                }
+            } while (depth > 0);
+        }
+
+        private String string() {
+            expect('"');
+            StringBuilder sb = new StringBuilder();
+            char c = next();
+            while (c != '"') {
+                if (c == '\\') {
+                    c = next();
+                    switch (c) {
+                    case 'n':
+                        c = '\n';
+                        break;
+                    case 't':
+                        c = '\t';
+                        break;
+                    case 'r':
+                        c = '\r';
+                        break;
+                    case 'b':
+                        c = '\b';
+                        break;
+                    case 'f':
+                        c = '\f';
+                        break;
+                    case 'u':
+                        if (pos + 4 > str.length()) {
+                            throw new IllegalArgumentException("Bad escape at " + pos);
+                        }
+                        c = (char) Integer.parseInt(str.substring(pos, pos + 4), 16);
+                        pos += 4;
+                        break;
+                    default:
+                        break;
+                    }
+                }
+                sb.append(c);
+                c = next();
+            }
+            return sb.toString();
+        }
+
+        private boolean accept(char c) {
+            if (peek() == c) {
+                pos++;
+                return true;
+            }
+            return false;
+        }
+
+        private void expect(char c) {
+            if (!accept(c)) {
+                throw new IllegalArgumentException("Expected " + c + " at " + pos);
+            }
+        }
+
+        private char peek() {
+            while (pos < str.length() && Character.isWhitespace(str.charAt(pos))) {
+                pos++;
+            }
+            return pos < str.length() ? str.charAt(pos) : 0;
+        }
+
+        private char next() {
+            if (pos >= str.length()) {
+                throw new IllegalArgumentException("Unexpected end");
+            }
+            return str.charAt(pos++);
+        }
+    }
+}
@@ -0,0 +1,314 @@
+/*
+ * Copyright 2016 E.Hooijmeijer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.ctrlaltdev.harbinger.benchmark;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.LogManager;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import nl.ctrlaltdev.harbinger.DefaultHarbingerContext;
+import nl.ctrlaltdev.harbinger.evidence.Evidence;
+import nl.ctrlaltdev.harbinger.evidence.EvidenceCollector;
+import nl.ctrlaltdev.harbinger.filter.BlacklistFilter;
+import nl.ctrlaltdev.harbinger.filter.HttpEvidenceFilter;
+import nl.ctrlaltdev.harbinger.response.ResponseAction;
+import nl.ctrlaltdev.harbinger.response.ResponseDecider;
+import nl.ctrlaltdev.harbinger.response.SimpleResponseDecider;
+import nl.ctrlaltdev.harbinger.rule.DetectionRule;
+import nl.ctrlaltdev.harbinger.rule.DetectionRuleLoader;
+import nl.ctrlaltdev.harbinger.whitelist.WhiteList;
+import nl.ctrlaltdev.harbinger.whitelist.builder.WhiteListBuilder;
+import nl.ctrlaltdev.harbinger.whitelist.builder.WhiteListParser;
+
+/**
+ * Replays an access log through the BlacklistFilter and HttpEvidenceFilter,
+ * with mock requests and a chain that answers with the logged status, and
+ * reports the throughput, the time per request spent in the filters, the
+ * bytes allocated per request and what Harbinger detected and did.
+ * <p>
+ * Usage: AccessLogReplay &lt;log&gt; [--threads n] [--passes n] [--warmup n]
+ * [--rules file] [--whitelist file] [--log]
+ * <p>
+ * The log is in the common or combined log format, or JSON lines with (at
+ * least) remote_addr, uri and status. Warmup passes run on a separate
+ * context, so the measured passes start without evidence or blacklist.
+ * Harbinger logging is turned off unless --log is given.
+ */
+public final class AccessLogReplay {
+
+    private static final double[] PERCENTILES = { 50, 90, 99, 99.9 };
+
+    private final List<AccessLog.Entry> entries;
+    private final Set<DetectionRule> rules;
+    private final WhiteList whiteList;
+
+    private EvidenceCollector collector;
+    private DefaultHarbingerContext ctx;
+    private BlacklistFilter blacklistFilter;
+    private HttpEvidenceFilter evidenceFilter;
+    private final Map<String, LongAdder> detections = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> actions = new ConcurrentHashMap<>();
+
+    private AccessLogReplay(List<AccessLog.Entry> entries, Set<DetectionRule> rules, WhiteList whiteList) {
+        this.entries = entries;
+        this.rules = rules;
+        this.whiteList = whiteList;
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length == 0) {
+            System.err.println("Usage: AccessLogReplay <log> [--threads n] [--passes n] [--warmup n] [--rules file] [--whitelist file] [--log]");
+            System.exit(1);
+        }
+        int threads = 1;
+        int passes = 1;
+        int warmup = 1;
+        Set<DetectionRule> rules = null;
+        WhiteList whiteList = WhiteListBuilder.empty();
+        boolean log = false;
+        for (int t = 1; t < args.length; t++) {
+            switch (args[t]) {
+            case "--threads":
+                threads = Integer.parseInt(args[++t]);
+                break;
+            case "--passes":
+                passes = Integer.parseInt(args[++t]);
+                break;
+            case "--warmup":
+                warmup = Integer.parseInt(args[++t]);
+                break;
+            case "--rules":
+                try (BufferedReader in = Files.newBufferedReader(Paths.get(args[++t]), StandardCharsets.UTF_8)) {
+                    rules = new DetectionRuleLoader().load(in);
+                }
+                break;
+            case "--whitelist":
+                whiteList = new WhiteListParser().parse(new File(args[++t]));
+                break;
+            case "--log":
+                log = true;
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown option " + args[t]);
+            }
+        }
+        if (!log) {
+            LogManager.getLogger("nl.ctrlaltdev.harbinger").setLevel(Level.OFF);
+        }
+        AccessLog accessLog;
+        try (BufferedReader in = Files.newBufferedReader(Paths.get(args[0]), StandardCharsets.UTF_8)) {
+            accessLog = AccessLog.read(in);
+        }
+        System.out.printf("Read %d requests from %s, skipped %d lines.%n", accessLog.getEntries().size(), args[0], accessLog.getSkipped());
+        if (accessLog.getEntries().isEmpty()) {
+            return;
+        }
+        AccessLogReplay replay = new AccessLogReplay(accessLog.getEntries(), rules == null ? new DetectionRuleLoader().load() : rules,
+                whiteList);
+        if (warmup > 0) {
+            replay.run(threads, warmup);
+        }
+        replay.report(threads, replay.run(threads, passes));
+    }
+
+    /**
+     * A replaying thread, with chains that record how far each request got.
+     */
+    private final class Worker extends Thread {
+        private final AtomicInteger next;
+        private final long[] nanos;
+        private final com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) ManagementFactory
+                .getThreadMXBean();
+        private AccessLog.Entry entry;
+        private boolean reachedEvidence;
+        private boolean reachedApplication;
+        long allocated;
+        long blocked;
+        long rejected;
+
+        private final FilterChain application = new FilterChain() {
+            @Override
+            public void doFilter(ServletRequest request, ServletResponse response) {
+                reachedApplication = true;
+                ((HttpServletResponse) response).setStatus(entry.status);
+            }
+        };
+        private final FilterChain evidence = new FilterChain() {
+            @Override
+            public void doFilter(ServletRequest request, ServletResponse response) throws IOException, ServletException {
+                reachedEvidence = true;
+                evidenceFilter.doFilter(request, response, application);
+            }
+        };
+
+        Worker(int id, AtomicInteger next, long[] nanos) {
+            super("replay-" + id);
+            this.next = next;
+            this.nanos = nanos;
+        }
+
+        @Override
+        public void run() {
+            long id = getId();
+            int idx = next.getAndIncrement();
+            try {
+                while (idx < nanos.length) {
+                    entry = entries.get(idx % entries.size());
+                    MockHttpServletRequest request = entry.toRequest();
+                    MockHttpServletResponse response = new MockHttpServletResponse();
+                    reachedEvidence = false;
+                    reachedApplication = false;
+                    long bytes = threadBean.getThreadAllocatedBytes(id);
+                    long start = System.nanoTime();
+                    blacklistFilter.doFilter(request, response, evidence);
+                    nanos[idx] = System.nanoTime() - start;
+                    allocated += threadBean.getThreadAllocatedBytes(id) - bytes;
+                    if (!reachedEvidence) {
+                        blocked++;
+                    } else if (!reachedApplication) {
+                        rejected++;
+                    }
+                    idx = next.getAndIncrement();
+                }
+            } catch (IOException | ServletException ex) {
+                throw new IllegalStateException(ex);
+            }
+        }
+    }
+
+    /**
+     * result of a run.
+     */
+    private static final class Result {
+        long[] nanos;
+        long wallNanos;
+        long allocated;
+        long blocked;
+        long rejected;
+    }
+
+    private Result run(int threads, int passes) throws InterruptedException {
+        if (ctx != null) {
+            ctx.close();
+        }
+        collector = new EvidenceCollector(whiteList);
+        ResponseDecider decider = new CountingDecider(new SimpleResponseDecider(collector));
+        ctx = new DefaultHarbingerContext(rules, collector, decider);
+        blacklistFilter = new BlacklistFilter(ctx);
+        evidenceFilter = new HttpEvidenceFilter(ctx);
+        detections.clear();
+        actions.clear();
+
+        Result result = new Result();
+        result.nanos = new long[entries.size() * passes];
+        AtomicInteger next = new AtomicInteger();
+        Worker[] workers = new Worker[threads];
+        for (int t = 0; t < threads; t++) {
+            workers[t] = new Worker(t, next, result.nanos);
+        }
+        long start = System.nanoTime();
+        for (Worker w : workers) {
+            w.start();
+        }
+        for (Worker w : workers) {
+            w.join();
+            result.allocated += w.allocated;
+            result.blocked += w.blocked;
+            result.rejected += w.rejected;
+        }
+        result.wallNanos = System.nanoTime() - start;
+        return result;
+    }
+
+    private void report(int threads, Result result) {
+        long[] sorted = result.nanos.clone();
+        Arrays.sort(sorted);
+        int count = sorted.length;
+        System.out.printf("Replayed %d requests on %d thread(s) in %.1f ms: %.0f requests/s%n", count, threads, result.wallNanos / 1e6,
+                count / (result.wallNanos / 1e9));
+        StringBuilder sb = new StringBuilder("Time in filters (us):");
+        for (double p : PERCENTILES) {
+            long value = sorted[Math.min(count - 1, (int) Math.ceil(p / 100 * count) - 1)];
+            sb.append(String.format(" p%s=%.1f", p == Math.rint(p) ? String.valueOf((int) p) : String.valueOf(p), value / 1e3));
+        }
+        sb.append(String.format(" max=%.1f", sorted[count - 1] / 1e3));
+        System.out.println(sb);
+        System.out.printf("Allocated per request: %d bytes%n", result.allocated / count);
+        System.out.printf("Blocked by blacklist: %d, rejected by evidence filter: %d%n", result.blocked, result.rejected);
+        System.out.printf("Blacklisted: %d, evicted aggregations: %d%n", ctx.getBlacklist().size(), collector.getEvictions());
+        print("Detections", detections);
+        print("Actions", actions);
+    }
+
+    private static void print(String title, Map<String, LongAdder> counts) {
+        System.out.println(title + ":");
+        if (counts.isEmpty()) {
+            System.out.println("  none");
+        }
+        for (Map.Entry<String, LongAdder> e : new TreeMap<>(counts).entrySet()) {
+            System.out.printf("  %8d %s%n", e.getValue().sum(), e.getKey());
+        }
+    }
+
+    /**
+     * counts the detections by rule and the actions by type.
+     */
+    private final class CountingDecider implements ResponseDecider {
+        private final ResponseDecider delegate;
+
+        CountingDecider(ResponseDecider delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public ResponseAction decide(Evidence evidence) {
+            if (evidence.getRule() != null) {
+                detections.computeIfAbsent(evidence.getRule().getName(), (k) -> new LongAdder()).increment();
+            }
+            ResponseAction action = delegate.decide(evidence);
+            actions.computeIfAbsent(action.getClass().getSimpleName(), (k) -> new LongAdder()).increment();
+            return action;
+        }
+
+        @Override
+        public boolean isDecisionRequired(Evidence evidence) {
+            return delegate.isDecisionRequired(evidence);
+        }
+    }
+}
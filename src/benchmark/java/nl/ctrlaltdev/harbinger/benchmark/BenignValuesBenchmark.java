@@ -0,0 +1,94 @@
+/*
+ * Copyright 2016 E.Hooijmeijer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.ctrlaltdev.harbinger.benchmark;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import nl.ctrlaltdev.harbinger.rule.DetectionRule;
+import nl.ctrlaltdev.harbinger.rule.DetectionRuleLoader;
+import nl.ctrlaltdev.harbinger.rule.DetectionRuleSet;
+import nl.ctrlaltdev.harbinger.rule.Normalizer;
+
+/**
+ * Scans a corpus of 1000 normalized parameter values with the default rules:
+ * purely benign values, and benign values mixed with punctuated values and
+ * attacks. Scores are per value (operations per invocation).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@OperationsPerInvocation(BenignValuesBenchmark.SIZE)
+public class BenignValuesBenchmark {
+
+    static final int SIZE = 1000;
+
+    @Param({ "benign", "mixed" })
+    public String corpus;
+
+    private CharSequence[] values;
+    private List<DetectionRule> list;
+    private DetectionRuleSet set;
+
+    @Setup
+    public void setup() {
+        List<String> raw = "benign".equals(corpus) ? Corpus.benign(SIZE) : Corpus.mixed(SIZE);
+        values = new CharSequence[raw.size()];
+        for (int t = 0; t < values.length; t++) {
+            values[t] = Normalizer.normalize(raw.get(t));
+        }
+        set = new DetectionRuleSet(new DetectionRuleLoader().load());
+        list = set.getRules();
+    }
+
+    @Benchmark
+    public void loop(Blackhole bh) {
+        for (CharSequence value : values) {
+            DetectionRule found = null;
+            for (DetectionRule rule : list) {
+                if (rule.matches(value)) {
+                    found = rule;
+                    break;
+                }
+            }
+            bh.consume(found);
+        }
+    }
+
+    @Benchmark
+    public void ruleSet(Blackhole bh) {
+        for (CharSequence value : values) {
+            bh.consume(set.find(value));
+        }
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright 2016 E.Hooijmeijer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.ctrlaltdev.harbinger.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * Generated, reproducible corpora of (normalized) parameter values, modelled
+ * after what web applications typically receive.
+ */
+final class Corpus {
+
+    private static final String[] WORDS = { "amsterdam", "cheap", "flights", "to", "hotel", "review", "the", "best", "pizza", "near",
+            "me", "john", "doe", "jane", "smith", "order", "status", "invoice", "blue", "shoes", "size", "size", "返品", "straße" };
+    private static final String[] DOMAINS = { "example.com", "mail.example.org", "gmail.com", "company.nl" };
+    private static final String[] LOCALES = { "en_US", "nl_NL", "de-DE", "fr", "en" };
+
+    private Corpus() {
+    }
+
+    /**
+     * @return parameter values as entered or generated by benign clients:
+     *         identifiers, names, e-mail addresses, numbers, dates, search
+     *         phrases, tokens, ..
+     */
+    static List<String> benign(int size) {
+        Random random = new Random(42);
+        List<String> result = new ArrayList<>(size);
+        while (result.size() < size) {
+            switch (random.nextInt(10)) {
+            case 0:
+                result.add(String.valueOf(random.nextInt(100000)));
+                break;
+            case 1:
+                result.add(word(random) + "." + word(random) + "@" + DOMAINS[random.nextInt(DOMAINS.length)]);
+                break;
+            case 2:
+                result.add(new UUID(random.nextLong(), random.nextLong()).toString());
+                break;
+            case 3:
+                result.add(String.format("2016-%02d-%02d", 1 + random.nextInt(12), 1 + random.nextInt(28)));
+                break;
+            case 4:
+                result.add(LOCALES[random.nextInt(LOCALES.length)]);
+                break;
+            case 5:
+                result.add(word(random) + " " + word(random) + " " + word(random));
+                break;
+            case 6:
+                result.add(token(random, 16 + random.nextInt(48)));
+                break;
+            case 7:
+                result.add(word(random).substring(0, 1).toUpperCase() + word(random).substring(1));
+                break;
+            case 8:
+                result.add(random.nextInt(1000) + "." + random.nextInt(100));
+                break;
+            default:
+                result.add(random.nextBoolean() ? "true" : "on");
+                break;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return benign values with one in ten values with punctuation that
+     *         rules look for (urls, quotes, html), and one in fifty an attack.
+     */
+    static List<String> mixed(int size) {
+        String[] punctuated = { "https://www.example.com/path/to/page?id=1", "it's a nice day", "<b>bold</b>", "a;b;c", "x=1&y=2",
+                "../images/logo.png", "say \"hello\"" };
+        String[] attacks = { "<script>alert(1);</script>", "' or '1'='1", "../../etc/passwd", "\" onmouseover=alert(1) x=\"",
+                "1;--", "<meta http-equiv=\"refresh\">" };
+        Random random = new Random(7);
+        List<String> result = benign(size);
+        for (int t = 0; t < size; t++) {
+            int r = random.nextInt(50);
+            if (r == 0) {
+                result.set(t, attacks[random.nextInt(attacks.length)]);
+            } else if (r < 5) {
+                result.set(t, punctuated[random.nextInt(punctuated.length)]);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return attacks, evasions and values crafted to make scanning expensive:
+     *         near misses of rule literals, repeated punctuation, multiple
+     *         url encoding, combining marks, supplementary characters and
+     *         values longer than the scan budget of a rule.
+     */
+    static List<String> adversarial(int size) {
+        String[] attacks = { "<script>alert(1);</script>", "<ScRiPt>alert(1)</sCrIpT>", "%3Cscript%3Ealert(1)%3C/script%3E",
+                "%253Cscript%253E", "' or '1'='1", "1' union select password from users--", "../../../../etc/passwd",
+                "..%2f..%2f..%2fetc%2fpasswd", "\" onmouseover=alert(1) x=\"", "<img src=x onerror=alert(1)>",
+                "<meta http-equiv=\"refresh\">", "1;--", "\u0000<script>" };
+        String[] repeated = { "<", "'", "\"", "%", "../", "<scrip", "union ", "-", ";", "\u0301", "\uD83D\uDE00" };
+        Random random = new Random(13);
+        List<String> result = new ArrayList<>(size);
+        while (result.size() < size) {
+            switch (random.nextInt(4)) {
+            case 0:
+                result.add(attacks[random.nextInt(attacks.length)]);
+                break;
+            case 1:
+                result.add(repeat(repeated[random.nextInt(repeated.length)], 64 + random.nextInt(1024)));
+                break;
+            case 2:
+                result.add(repeat(word(random) + " ", 4096) + attacks[random.nextInt(attacks.length)]);
+                break;
+            default:
+                result.add(token(random, 256) + repeated[random.nextInt(repeated.length)] + token(random, 256));
+                break;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @param name benign, mixed or adversarial.
+     * @return the named corpus.
+     */
+    static List<String> of(String name, int size) {
+        switch (name) {
+        case "benign":
+            return benign(size);
+        case "mixed":
+            return mixed(size);
+        case "adversarial":
+            return adversarial(size);
+        default:
+            throw new IllegalArgumentException(name);
+        }
+    }
+
+    private static String repeat(String str, int times) {
+        StringBuilder sb = new StringBuilder(str.length() * times);
+        for (int t = 0; t < times; t++) {
+            sb.append(str);
+        }
+        return sb.toString();
+    }
+
+    private static String word(Random random) {
+        return WORDS[random.nextInt(WORDS.length)];
+    }
+
+    private static String token(Random random, int length) {
+        String chars = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_";
+        StringBuilder sb = new StringBuilder(length);
+        for (int t = 0; t < length; t++) {
+            sb.append(chars.charAt(random.nextInt(chars.length())));
+        }
+        return sb.toString();
+    }
+}
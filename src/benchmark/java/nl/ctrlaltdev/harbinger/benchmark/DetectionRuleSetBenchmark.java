@@ -0,0 +1,132 @@
+/*
+ * Copyright 2016 E.Hooijmeijer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.ctrlaltdev.harbinger.benchmark;
+
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import nl.ctrlaltdev.harbinger.rule.DetectionRule;
+import nl.ctrlaltdev.harbinger.rule.DetectionRuleLoader;
+import nl.ctrlaltdev.harbinger.rule.DetectionRuleSet;
+
+/**
+ * Compares the DetectionRuleSet using the automaton, using java.util.regex
+ * with the prefilter only, and with a verdict cache, with evaluating every
+ * rule in a loop, for the default rules and for a generated set of 1000
+ * rules.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DetectionRuleSetBenchmark {
+
+    static final String[] VALUES = { "1", "en_US", "somewhere over the rainbow", "john.doe@example.com",
+            "eyJhbGciOiJIUzI1NiJ9.eyJzdWIiOiIxMjM0NTY3ODkwIn0", "search for cheap flights to amsterdam", "page=2&size=20",
+            "<script>alert(1);</script>", "' or '1'='1", "../../etc/passwd" };
+
+    @Param({ "default", "1000" })
+    public String rules;
+
+    private List<DetectionRule> list;
+    private DetectionRuleSet set;
+    private DetectionRuleSet regex;
+    private DetectionRuleSet cached;
+
+    @Setup
+    public void setup() {
+        Set<DetectionRule> loaded = "default".equals(rules) ? new DetectionRuleLoader().load() : generate(1000);
+        set = new DetectionRuleSet(loaded);
+        regex = new DetectionRuleSet(loaded, 0, false);
+        cached = new DetectionRuleSet(loaded, 1024);
+        list = set.getRules();
+    }
+
+    @Benchmark
+    public void loop(Blackhole bh) {
+        for (String value : VALUES) {
+            DetectionRule found = null;
+            for (DetectionRule rule : list) {
+                if (rule.matches(value)) {
+                    found = rule;
+                    break;
+                }
+            }
+            bh.consume(found);
+        }
+    }
+
+    @Benchmark
+    public void prefiltered(Blackhole bh) {
+        for (String value : VALUES) {
+            bh.consume(regex.find(value));
+        }
+    }
+
+    @Benchmark
+    public void automaton(Blackhole bh) {
+        for (String value : VALUES) {
+            bh.consume(set.find(value));
+        }
+    }
+
+    @Benchmark
+    public void cached(Blackhole bh) {
+        for (String value : VALUES) {
+            bh.consume(cached.find(value));
+        }
+    }
+
+    static Set<DetectionRule> generate(int count) {
+        Set<DetectionRule> result = new LinkedHashSet<>(new DetectionRuleLoader().load());
+        for (int t = 0; result.size() < count; t++) {
+            String regex;
+            switch (t % 4) {
+            case 0:
+                regex = "<tag" + t + "[^>]*>";
+                break;
+            case 1:
+                regex = "(?:fn" + t + "|call" + t + ")\\s*\\(";
+                break;
+            case 2:
+                regex = ";\\s*cmd" + t + "\\b";
+                break;
+            default:
+                regex = (t % 50 == 3) ? "\\d{" + (20 + t % 20) + "}" : "['\"]\\s*x" + t + "\\s*=";
+                break;
+            }
+            result.add(new DetectionRule(new String[] { "GEN" + t, "LOW", regex }));
+        }
+        return result;
+    }
+}
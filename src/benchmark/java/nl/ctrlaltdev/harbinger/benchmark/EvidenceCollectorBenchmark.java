@@ -0,0 +1,98 @@
+/*
+ * Copyright 2016 E.Hooijmeijer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.ctrlaltdev.harbinger.benchmark;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import nl.ctrlaltdev.harbinger.evidence.Evidence;
+import nl.ctrlaltdev.harbinger.evidence.EvidenceAggregation;
+import nl.ctrlaltdev.harbinger.evidence.EvidenceCollector;
+import nl.ctrlaltdev.harbinger.whitelist.builder.WhiteListBuilder;
+
+/**
+ * 64 threads storing evidence for a single IP: the in place aggregation of
+ * the EvidenceCollector versus the former copy-on-store get/put. The flood
+ * benchmark stores evidence for ever changing IPs in a bounded collector,
+ * so every store has to evict.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(64)
+@Fork(1)
+public class EvidenceCollectorBenchmark {
+
+    private EvidenceCollector collector;
+    private Map<String, EvidenceAggregation> copyOnStore;
+    private Evidence evidence;
+    private EvidenceCollector bounded;
+    private Evidence[] flood;
+    private AtomicInteger next = new AtomicInteger();
+
+    @Setup
+    public void setup() {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setRemoteAddr("10.0.0.1");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        response.setStatus(200);
+        evidence = new Evidence(new Evidence(request), response);
+        collector = new EvidenceCollector();
+        copyOnStore = new ConcurrentHashMap<>();
+        bounded = new EvidenceCollector(WhiteListBuilder.empty(), 10000);
+        flood = new Evidence[1 << 16];
+        for (int t = 0; t < flood.length; t++) {
+            request.setRemoteAddr("10." + (t >> 16) + "." + ((t >> 8) & 255) + "." + (t & 255));
+            flood[t] = new Evidence(new Evidence(request), response);
+        }
+    }
+
+    @Benchmark
+    public Evidence storeFlood() {
+        return bounded.store(flood[next.getAndIncrement() & (flood.length - 1)]);
+    }
+
+    @Benchmark
+    public Evidence store() {
+        return collector.store(evidence);
+    }
+
+    @Benchmark
+    public EvidenceAggregation copyOnStore() {
+        EvidenceAggregation aggr = copyOnStore.get(evidence.getIp());
+        aggr = (aggr == null) ? new EvidenceAggregation(evidence) : new EvidenceAggregation(aggr, evidence);
+        copyOnStore.put(evidence.getIp(), aggr);
+        return aggr;
+    }
+}
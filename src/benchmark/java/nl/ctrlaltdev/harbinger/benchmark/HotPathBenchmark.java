@@ -0,0 +1,207 @@
+/*
+ * Copyright 2016 E.Hooijmeijer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.ctrlaltdev.harbinger.benchmark;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.mock.web.MockHttpServletRequest;
+
+import nl.ctrlaltdev.harbinger.DefaultHarbingerContext;
+import nl.ctrlaltdev.harbinger.evidence.Evidence;
+import nl.ctrlaltdev.harbinger.evidence.EvidenceCollector;
+import nl.ctrlaltdev.harbinger.response.ResponseDecider;
+import nl.ctrlaltdev.harbinger.response.SimpleResponseDecider;
+import nl.ctrlaltdev.harbinger.rule.DetectionRule;
+import nl.ctrlaltdev.harbinger.rule.DetectionRuleLoader;
+import nl.ctrlaltdev.harbinger.rule.DetectionRuleSet;
+import nl.ctrlaltdev.harbinger.rule.Normalizer;
+import nl.ctrlaltdev.harbinger.rule.ScanBudgetExceededException;
+import nl.ctrlaltdev.harbinger.whitelist.WhiteList;
+import nl.ctrlaltdev.harbinger.whitelist.builder.WhiteListBuilder;
+
+/**
+ * The steps a parameter value goes through, each over a corpus of 1000
+ * values from 256 IPs, on 20 urls: normalizing, matching each default rule,
+ * checking the whitelist, storing and deciding on the evidence, and the
+ * whole of isValid/isValidParameter. Scores are per value (operations per
+ * invocation). Run with -prof gc (the default of the benchmark profile) for
+ * the allocations per value.
+ * <p>
+ * Storing evidence and blacklisting change the state of the collector and
+ * context, so every iteration starts from a new collector and context with
+ * the corpus stored once, and closes the context after. Logging of Harbinger
+ * is turned off, so the scores do not include writing the warnings for
+ * detections.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@OperationsPerInvocation(HotPathBenchmark.SIZE)
+public class HotPathBenchmark {
+
+    static final int SIZE = 1000;
+    private static final String[] NAMES = { "q", "id", "email", "name", "page", "sort", "redirect", "comment" };
+
+    @Param({ "benign", "mixed", "adversarial" })
+    public String corpus;
+
+    private String[] raw;
+    private CharSequence[] normalized;
+    private Evidence[] requests;
+    private Evidence[] evidence;
+    private List<DetectionRule> rules;
+    private WhiteList whiteList;
+    private EvidenceCollector collector;
+    private ResponseDecider decider;
+    private DefaultHarbingerContext ctx;
+    private DetectionRuleSet set;
+    private org.apache.log4j.Level logLevel;
+
+    @Setup
+    public void setup() {
+        org.apache.log4j.Logger logger = org.apache.log4j.Logger.getLogger("nl.ctrlaltdev.harbinger");
+        logLevel = logger.getLevel();
+        logger.setLevel(org.apache.log4j.Level.OFF);
+        List<String> values = Corpus.of(corpus, SIZE);
+        set = new DetectionRuleSet(new DetectionRuleLoader().load());
+        rules = set.getRules();
+        whiteList = whiteList();
+
+        raw = new String[SIZE];
+        normalized = new CharSequence[SIZE];
+        requests = new Evidence[SIZE];
+        evidence = new Evidence[SIZE];
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        for (int t = 0; t < SIZE; t++) {
+            raw[t] = values.get(t);
+            normalized[t] = Normalizer.normalize(raw[t]);
+            request.setRemoteAddr("10.0.0." + (t & 255));
+            request.setRequestURI("/app/page" + (t % 20));
+            requests[t] = new Evidence(request);
+            DetectionRule rule = set.find(normalized[t]);
+            evidence[t] = new Evidence(requests[t], rule, NAMES[t % NAMES.length], raw[t]);
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void reset() {
+        collector = new EvidenceCollector(whiteList, 10000);
+        decider = new SimpleResponseDecider(collector);
+        ctx = new DefaultHarbingerContext(set, collector, decider);
+        for (Evidence ev : evidence) {
+            collector.store(ev);
+        }
+    }
+
+    @TearDown(Level.Iteration)
+    public void close() {
+        ctx.close();
+    }
+
+    @TearDown
+    public void tearDown() {
+        org.apache.log4j.Logger.getLogger("nl.ctrlaltdev.harbinger").setLevel(logLevel);
+    }
+
+    private static WhiteList whiteList() {
+        WhiteListBuilder builder = WhiteListBuilder.create();
+        for (int t = 0; t < 16; t++) {
+            builder.ip("192.168.1." + t).url("/static/file" + t).user("admin" + t);
+        }
+        builder.parameter("password").parameter("csrf");
+        builder.and().url("/app/page7").parameter("comment").end();
+        return builder.build();
+    }
+
+    @Benchmark
+    public void normalize(Blackhole bh) {
+        for (String value : raw) {
+            bh.consume(Normalizer.normalize(value));
+        }
+    }
+
+    @Benchmark
+    public void ruleMatches(Blackhole bh) {
+        for (CharSequence value : normalized) {
+            DetectionRule found = null;
+            for (DetectionRule rule : rules) {
+                try {
+                    if (rule.matches(value)) {
+                        found = rule;
+                        break;
+                    }
+                } catch (ScanBudgetExceededException ex) {
+                    found = DetectionRule.SCAN_BUDGET_EXCEEDED;
+                }
+            }
+            bh.consume(found);
+        }
+    }
+
+    @Benchmark
+    public void whiteList(Blackhole bh) {
+        for (Evidence ev : evidence) {
+            bh.consume(whiteList.isWhitelisted(ev));
+        }
+    }
+
+    @Benchmark
+    public void store(Blackhole bh) {
+        for (Evidence ev : evidence) {
+            bh.consume(collector.store(ev));
+        }
+    }
+
+    @Benchmark
+    public void decide(Blackhole bh) {
+        for (Evidence ev : evidence) {
+            bh.consume(decider.decide(ev));
+        }
+    }
+
+    @Benchmark
+    public void isValid(Blackhole bh) {
+        for (String value : raw) {
+            bh.consume(ctx.isValid(value));
+        }
+    }
+
+    @Benchmark
+    public void isValidParameter(Blackhole bh) {
+        for (int t = 0; t < SIZE; t++) {
+            bh.consume(ctx.isValidParameter(requests[t], NAMES[t % NAMES.length], raw[t]));
+        }
+    }
+}
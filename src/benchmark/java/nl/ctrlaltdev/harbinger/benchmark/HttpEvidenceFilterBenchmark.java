@@ -0,0 +1,87 @@
+/*
+ * Copyright 2016 E.Hooijmeijer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.ctrlaltdev.harbinger.benchmark;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import nl.ctrlaltdev.harbinger.DefaultHarbingerContext;
+import nl.ctrlaltdev.harbinger.HarbingerContext;
+import nl.ctrlaltdev.harbinger.evidence.Evidence;
+import nl.ctrlaltdev.harbinger.filter.HttpEvidenceFilter;
+
+/**
+ * A clean 200 without parameters through the HttpEvidenceFilter, which
+ * takes the fast path, versus storing new evidence and asking the decider
+ * as the filter did for every request.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HttpEvidenceFilterBenchmark {
+
+    private static final FilterChain CHAIN = (req, resp) -> {
+    };
+
+    private HarbingerContext ctx;
+    private HttpEvidenceFilter filter;
+    private MockHttpServletRequest request;
+    private MockHttpServletResponse response;
+
+    @Setup
+    public void setup() {
+        ctx = new DefaultHarbingerContext(Collections.emptySet());
+        filter = new HttpEvidenceFilter(ctx);
+        request = new MockHttpServletRequest("GET", "/hot/endpoint");
+        request.setRemoteAddr("10.0.0.1");
+        request.getSession(true);
+        response = new MockHttpServletResponse();
+    }
+
+    @Benchmark
+    public MockHttpServletResponse benign() throws IOException, ServletException {
+        filter.doFilter(request, response, CHAIN);
+        return response;
+    }
+
+    @Benchmark
+    public boolean storeAndDecide() throws IOException, ServletException {
+        Evidence evidence = new Evidence(request);
+        CHAIN.doFilter(request, response);
+        Evidence ev = ctx.getEvidenceCollector().store(new Evidence(evidence, response));
+        return ctx.getResponseDecider().decide(ev).perform(ctx);
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright 2016 E.Hooijmeijer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.ctrlaltdev.harbinger.benchmark;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import nl.ctrlaltdev.harbinger.evidence.Evidence;
+import nl.ctrlaltdev.harbinger.evidence.EvidenceStore;
+import nl.ctrlaltdev.harbinger.ip.IpMap;
+
+/**
+ * Reports the heap used per tracked IP address by a ConcurrentHashMap keyed
+ * on the String from getRemoteAddr() versus an {@link IpMap}. The values are
+ * a single shared object, so only the cost of the index is measured. Last
+ * it reports the cost of an IP {@link EvidenceStore}, which adds an
+ * aggregation with its request rate window per address.
+ * <p>
+ * Usage: IpIndexFootprint [number of addresses, default 1000000] [index|store,
+ * default both]. 10M addresses need a heap of about 2GB for the indexes and
+ * about 5GB for the store, so measure them in separate runs.
+ */
+public class IpIndexFootprint {
+
+    private static final Object VALUE = new Object();
+
+    public static void main(String[] args) {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        String part = args.length > 1 ? args[1] : "";
+        if (!"store".equals(part)) {
+            indexes(count);
+        }
+        if (!"index".equals(part)) {
+            store(count);
+        }
+    }
+
+    private static void indexes(int count) {
+        long base = usedHeap();
+        Map<String, Object> strings = new ConcurrentHashMap<>();
+        for (int t = 0; t < count; t++) {
+            strings.put(address(t), VALUE);
+        }
+        long stringBytes = usedHeap() - base;
+        report("ConcurrentHashMap<String>", count, stringBytes, strings.size());
+        strings = null;
+
+        base = usedHeap();
+        IpMap<Object> ips = new IpMap<>();
+        for (int t = 0; t < count; t++) {
+            ips.put(address(t), VALUE);
+        }
+        long ipBytes = usedHeap() - base;
+        report("IpMap", count, ipBytes, ips.size());
+    }
+
+    private static void store(int count) {
+        Evidence evidence = new Evidence();
+        long base = usedHeap();
+        EvidenceStore store = new EvidenceStore(EvidenceStore.Keys.IP_ADDRESS, 0, null);
+        for (int t = 0; t < count; t++) {
+            store.addRequest(address(t), evidence, 200);
+        }
+        long storeBytes = usedHeap() - base;
+        report("EvidenceStore (IP)", count, storeBytes, store.size());
+    }
+
+    /**
+     * @return a distinct IPv4 address, built the way a container would.
+     */
+    private static String address(int t) {
+        int ip = 0x0A000000 + t * 7;
+        return new StringBuilder(15).append((ip >>> 24) & 255).append('.').append((ip >>> 16) & 255).append('.')
+                .append((ip >>> 8) & 255).append('.').append(ip & 255).toString();
+    }
+
+    private static void report(String name, int count, long bytes, int size) {
+        System.out.printf("%-28s %,12d addresses %,14d bytes %6.1f bytes/address%n", name, size, bytes, (double) bytes / count);
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int t = 0; t < 5; t++) {
+            System.gc();
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2016 E.Hooijmeijer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.ctrlaltdev.harbinger.benchmark;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import nl.ctrlaltdev.harbinger.rule.Normalizer;
+
+/**
+ * Compares the single pass Normalizer with URLDecoder and toLowerCase. Run
+ * with '-prof gc' to compare the allocation rate (gc.alloc.rate.norm).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NormalizerBenchmark {
+
+    @Param({ "en_us", "Somewhere Over The Rainbow", "search%20for%20cheap%20flights", "%3CSCRIPT%3Ealert(1)%3C%2Fscript%3E" })
+    public String value;
+
+    @Benchmark
+    public void legacy(Blackhole bh) {
+        bh.consume(urldecode(value).toLowerCase());
+    }
+
+    @Benchmark
+    public void normalizer(Blackhole bh) {
+        bh.consume(Normalizer.normalize(value));
+    }
+
+    private static String urldecode(String str) {
+        if (str.indexOf('%') >= 0) {
+            try {
+                return URLDecoder.decode(str, "UTF-8");
+            } catch (UnsupportedEncodingException | IllegalArgumentException ex) {
+                return str;
+            }
+        } else {
+            return str;
+        }
+    }
+}
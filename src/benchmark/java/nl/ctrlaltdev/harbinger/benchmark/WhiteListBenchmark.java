@@ -0,0 +1,99 @@
+/*
+ * Copyright 2016 E.Hooijmeijer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.ctrlaltdev.harbinger.benchmark;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.mock.web.MockHttpServletRequest;
+
+import nl.ctrlaltdev.harbinger.evidence.Evidence;
+import nl.ctrlaltdev.harbinger.rule.DetectionRule;
+import nl.ctrlaltdev.harbinger.whitelist.AndWhiteList;
+import nl.ctrlaltdev.harbinger.whitelist.IndexedWhiteList;
+import nl.ctrlaltdev.harbinger.whitelist.IpWhiteList;
+import nl.ctrlaltdev.harbinger.whitelist.OrWhiteList;
+import nl.ctrlaltdev.harbinger.whitelist.ParameterWhiteList;
+import nl.ctrlaltdev.harbinger.whitelist.UserWhiteList;
+import nl.ctrlaltdev.harbinger.whitelist.WhiteList;
+
+/**
+ * Evidence that is not white listed against a white list of partner IPs,
+ * service accounts and IP/parameter combinations: the linear walk of the
+ * OR/AND tree versus the compiled IndexedWhiteList.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WhiteListBenchmark {
+
+    @Param({ "10", "10000" })
+    public int entries;
+
+    private WhiteList tree;
+    private WhiteList indexed;
+    private Evidence evidence;
+
+    @Setup
+    public void setup() {
+        List<WhiteList> list = new ArrayList<>();
+        for (int t = 0; t < entries; t++) {
+            switch (t % 3) {
+            case 0:
+                list.add(new IpWhiteList("172.16." + (t >> 8 & 255) + "." + (t & 255)));
+                break;
+            case 1:
+                list.add(new UserWhiteList("service" + t));
+                break;
+            default:
+                list.add(new AndWhiteList(Arrays.asList(new IpWhiteList("172.17." + (t >> 8 & 255) + "." + (t & 255)),
+                        new ParameterWhiteList("body"))));
+                break;
+            }
+        }
+        tree = new OrWhiteList(list);
+        indexed = IndexedWhiteList.compile(tree);
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/app/page");
+        request.setRemoteAddr("10.0.0.1");
+        evidence = new Evidence(new Evidence(request), new DetectionRule(new String[] { "X", "LOW", "x" }), "body", "x");
+    }
+
+    @Benchmark
+    public boolean tree() {
+        return tree.isWhitelisted(evidence);
+    }
+
+    @Benchmark
+    public boolean indexed() {
+        return indexed.isWhitelisted(evidence);
+    }
+}
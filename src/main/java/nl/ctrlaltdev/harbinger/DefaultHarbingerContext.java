@@ -15,32 +15,36 @@
  */
 package nl.ctrlaltdev.harbinger;
 
-import java.io.UnsupportedEncodingException;
-import java.net.URLDecoder;
 import java.time.Instant;
-import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import nl.ctrlaltdev.harbinger.evidence.Evidence;
 import nl.ctrlaltdev.harbinger.evidence.EvidenceCollector;
+import nl.ctrlaltdev.harbinger.ip.IpBlacklist;
 import nl.ctrlaltdev.harbinger.response.ResponseDecider;
 import nl.ctrlaltdev.harbinger.response.SimpleResponseDecider;
 import nl.ctrlaltdev.harbinger.rule.DetectionRule;
+import nl.ctrlaltdev.harbinger.rule.DetectionRuleReloader;
+import nl.ctrlaltdev.harbinger.rule.DetectionRuleSet;
+import nl.ctrlaltdev.harbinger.rule.Normalizer;
+import nl.ctrlaltdev.harbinger.whitelist.WhiteList;
 
 /**
- * 
+ * Default {@link HarbingerContext}. Close it when done, to stop the
+ * background purge of its blacklist.
  */
-public class DefaultHarbingerContext implements HarbingerContext {
+public class DefaultHarbingerContext implements HarbingerContext, AutoCloseable {
 
     protected static final Logger LOGGER = LoggerFactory.getLogger(DefaultHarbingerContext.class);
 
-    private Map<String, Instant> ipBlacklist = new ConcurrentHashMap<>();
-    private Set<DetectionRule> rules = new HashSet<>();
+    private IpBlacklist ipBlacklist = new IpBlacklist();
+    private final Supplier<DetectionRuleSet> rules;
     private EvidenceCollector collector;
 
     private ResponseDecider responseDecider;
@@ -54,6 +58,22 @@ public class DefaultHarbingerContext implements HarbingerContext {
     }
 
     public DefaultHarbingerContext(Set<DetectionRule> rules, EvidenceCollector collector, ResponseDecider decider) {
+        this(new DetectionRuleSet(rules, 0, true, DetectionRuleSet.Ordering.ADAPTIVE), collector, decider);
+    }
+
+    public DefaultHarbingerContext(DetectionRuleSet rules, EvidenceCollector collector, ResponseDecider decider) {
+        this(() -> rules, collector, decider);
+    }
+
+    /**
+     * uses the rule set the reloader currently publishes, so rules can change
+     * without a restart.
+     */
+    public DefaultHarbingerContext(DetectionRuleReloader rules, EvidenceCollector collector, ResponseDecider decider) {
+        this((Supplier<DetectionRuleSet>) rules, collector, decider);
+    }
+
+    private DefaultHarbingerContext(Supplier<DetectionRuleSet> rules, EvidenceCollector collector, ResponseDecider decider) {
         this.rules = rules;
         this.collector = collector;
         this.responseDecider = decider;
@@ -75,21 +95,17 @@ public class DefaultHarbingerContext implements HarbingerContext {
     }
 
     private boolean isValidInternal(Evidence source, String name, String value) {
-        if (value == null) {
-            return true;
-        }
-        Evidence evidence = null;
-        value = normalize(value);
-        for (DetectionRule rule : rules) {
-            if (rule.matches(value)) {
-                if (source == null) {
-                    source = new Evidence();
-                }
-                evidence = new Evidence(source, rule, name, value);
-                break;
+        return value == null || collector.isWhitelistedBeforeScan(source, name) || scan(source, name, value);
+    }
+
+    private boolean scan(Evidence source, String name, String value) {
+        CharSequence normalized = Normalizer.normalize(value);
+        DetectionRule rule = rules.get().find(normalized);
+        if (rule != null) {
+            if (source == null) {
+                source = new Evidence();
             }
-        }
-        if (evidence != null) {
+            Evidence evidence = new Evidence(source, rule, name, normalized.toString());
             return responseDecider.decide(collector.enhanceAndStore(evidence)).perform(this);
         }
         return true;
@@ -100,24 +116,52 @@ public class DefaultHarbingerContext implements HarbingerContext {
         return isValidInternal(e, name, value);
     }
 
+    /**
+     * resolves the white list once for the request, so each value is only
+     * checked on its parameter name before it is scanned.
+     */
+    @Override
+    public boolean isValidParameters(Evidence e, Map<String, String[]> parameters) {
+        Predicate<String> whitelisted = collector.getParametersWhitelistedBeforeScan(e);
+        if (whitelisted == WhiteList.ALL_PARAMETERS) {
+            return true;
+        }
+        for (Map.Entry<String, String[]> p : parameters.entrySet()) {
+            if (!whitelisted.test(p.getKey())) {
+                for (String v : p.getValue()) {
+                    if (v != null && !scan(e, p.getKey(), v)) {
+                        return false;
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
     @Override
     public void blacklist(String remoteAddr, Instant until) {
         LOGGER.warn("Blacklisting {} until {}", filterForLog(remoteAddr), until);
-        ipBlacklist.put(remoteAddr, until);
+        ipBlacklist.add(remoteAddr, until);
     }
 
     @Override
     public boolean isBlacklisted(String remoteAddr, Instant now) {
-        Instant until = ipBlacklist.get(remoteAddr);
-        if (until == null) {
-            return false;
-        } else if (!until.isAfter(now)) {
-            LOGGER.warn("Blacklist for {} expired", filterForLog(remoteAddr));
-            ipBlacklist.remove(remoteAddr);
-            return false;
-        } else {
-            return true;
-        }
+        return ipBlacklist.isBlacklisted(remoteAddr, now);
+    }
+
+    /**
+     * @return the blacklist.
+     */
+    public IpBlacklist getBlacklist() {
+        return ipBlacklist;
+    }
+
+    /**
+     * stops the background purge of the blacklist.
+     */
+    @Override
+    public void close() {
+        ipBlacklist.close();
     }
 
     public static final String filterForLog(String value) {
@@ -134,20 +178,4 @@ public class DefaultHarbingerContext implements HarbingerContext {
         return sb.toString();
     }
 
-    private String normalize(String value) {
-        return urldecode(value).toLowerCase();
-    }
-
-    private String urldecode(String str) {
-        if (str.indexOf('%') >= 0) {
-            try {
-                return URLDecoder.decode(str, "UTF-8");
-            } catch (UnsupportedEncodingException | IllegalArgumentException ex) {
-                return str;
-            }
-        } else {
-            return str;
-        }
-    }
-
 }
@@ -16,6 +16,7 @@
 package nl.ctrlaltdev.harbinger;
 
 import java.time.Instant;
+import java.util.Map;
 
 import nl.ctrlaltdev.harbinger.evidence.Evidence;
 import nl.ctrlaltdev.harbinger.evidence.EvidenceCollector;
@@ -52,6 +53,23 @@ public interface HarbingerContext {
      */
     boolean isValidParameter(Evidence e, String name, String value);
 
+    /**
+     * allows Harbinger to react to all Servlet API parameters of a request.
+     * @param e the evidence of the request.
+     * @param parameters the parameter values by name.
+     * @return false if the input should be blocked.
+     */
+    default boolean isValidParameters(Evidence e, Map<String, String[]> parameters) {
+        for (Map.Entry<String, String[]> p : parameters.entrySet()) {
+            for (String v : p.getValue()) {
+                if (!isValidParameter(e, p.getKey(), v)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
     /**
      * checks if the given remote address is blacklisted.
      * @param remoteAddr the remote IP address.
@@ -62,7 +80,8 @@ public interface HarbingerContext {
 
     /**
      * blacklists the given remote address until the given instant.
-     * @param remoteAddr the remote address.
+     * @param remoteAddr the remote address, or a range of addresses in CIDR
+     *        notation (for example 10.1.2.0/24 or 2001:db8:1:2::/64).
      * @param until the instant.
      */
     void blacklist(String remoteAddr, Instant until);
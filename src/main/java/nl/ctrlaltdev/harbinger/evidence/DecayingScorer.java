@@ -0,0 +1,110 @@
+/*
+ * Copyright 2016 E.Hooijmeijer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.ctrlaltdev.harbinger.evidence;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.function.ToDoubleBiFunction;
+
+/**
+ * Scorer of which the score halves every half-life, so it reflects how
+ * suspicious a key is right now rather than over its lifetime. The score
+ * and the second it was last brought up to date are packed into the score
+ * of the aggregation (a float and an unsigned int), so a key takes no
+ * memory beyond its aggregation. The score is decayed lazily when evidence
+ * is added and when it is read with {@link #getScore(EvidenceAggregation, Instant)},
+ * there is no periodic sweep.
+ * <p>
+ * An idle key whose score has decayed to (near) zero is
+ * {@link #isNegligible(EvidenceAggregation, long) negligible}, a bounded
+ * {@link EvidenceStore} evicts such keys first.
+ */
+public class DecayingScorer implements EvidenceScorer {
+
+    /** scores below this are considered zero. */
+    public static final double NEGLIGIBLE = 0.01;
+
+    private final long halfLifeMillis;
+    private final double decayPerSecond;
+    private final ToDoubleBiFunction<EvidenceAggregation, Evidence> weight;
+
+    /**
+     * @param halfLife the half-life of the score, at least a second.
+     * @param weight the amount by which evidence increases the score of an
+     *        aggregation.
+     */
+    public DecayingScorer(Duration halfLife, ToDoubleBiFunction<EvidenceAggregation, Evidence> weight) {
+        if (halfLife.getSeconds() < 1) {
+            throw new IllegalArgumentException("Half-life must be at least a second.");
+        }
+        this.halfLifeMillis = halfLife.toMillis();
+        this.decayPerSecond = Math.log(2) * 1000.0 / halfLifeMillis;
+        this.weight = weight;
+    }
+
+    @Override
+    public long score(EvidenceAggregation aggr, Evidence evidence, long previous) {
+        if (evidence == null) {
+            return previous; // the decayed history can not be rebuilt from the counters.
+        }
+        double w = weight.applyAsDouble(aggr, evidence);
+        if (w == 0) {
+            return previous;
+        }
+        long now = evidence.getTimestamp().toEpochMilli() / 1000;
+        long tick = Math.max(now, tickOf(previous));
+        return pack((float) (valueAt(previous, tick) + w), tick);
+    }
+
+    /**
+     * @param aggr the aggregation.
+     * @param now the current time.
+     * @return the score of the aggregation, decayed up to now.
+     */
+    public double getScore(EvidenceAggregation aggr, Instant now) {
+        return valueAt(aggr.getScore(), now.toEpochMilli() / 1000);
+    }
+
+    /**
+     * @return true if the key has been idle for at least a half-life and its
+     *         score has decayed to (near) zero.
+     */
+    @Override
+    public boolean isNegligible(EvidenceAggregation aggr, long nowMillis) {
+        return aggr.getLastMillis() + halfLifeMillis <= nowMillis && valueAt(aggr.getScore(), nowMillis / 1000) < NEGLIGIBLE;
+    }
+
+    public Duration getHalfLife() {
+        return Duration.ofMillis(halfLifeMillis);
+    }
+
+    private double valueAt(long packed, long now) {
+        float value = Float.intBitsToFloat((int) (packed >>> 32));
+        long elapsed = now - tickOf(packed);
+        if (value == 0 || elapsed <= 0) {
+            return value;
+        }
+        return value * Math.exp(-decayPerSecond * elapsed);
+    }
+
+    private static long tickOf(long packed) {
+        return packed & 0xFFFFFFFFL;
+    }
+
+    private static long pack(float value, long tick) {
+        return ((long) Float.floatToRawIntBits(value) << 32) | (tick & 0xFFFFFFFFL);
+    }
+}
@@ -15,29 +15,81 @@
  */
 package nl.ctrlaltdev.harbinger.evidence;
 
-import java.time.Duration;
 import java.time.Instant;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
 
+/**
+ * Aggregation of evidence per key (IP, session). An aggregation is a long
+ * lived record that is updated in place: each counter is updated with a
+ * single atomic add, so concurrent requests for the same key neither lose
+ * updates nor allocate.
+ * <p>
+ * Requests are also counted in a ring of one second buckets covering the
+ * last {@value #WINDOW_SECONDS} seconds, which gives the request rate over a
+ * recent window rather than over the lifetime of the aggregation. The ring
+ * takes about 290 bytes, an aggregation as a whole about 450 bytes.
+ */
 public class EvidenceAggregation {
 
-    private Instant first = null;
-    private Instant last = null;
-    private long numberOfRequests = 0;
-    private long http2xx = 0;
-    private long http3xx = 0;
-    private long http4xx = 0;
-    private long http5xx = 0;
-    private long exceptions = 0;
-    private long detections = 0;
+    private static final AtomicLongFieldUpdater<EvidenceAggregation> LAST = updater("last");
+    private static final AtomicLongFieldUpdater<EvidenceAggregation> REQUESTS = updater("numberOfRequests");
+    private static final AtomicLongFieldUpdater<EvidenceAggregation> HTTP2XX = updater("http2xx");
+    private static final AtomicLongFieldUpdater<EvidenceAggregation> HTTP3XX = updater("http3xx");
+    private static final AtomicLongFieldUpdater<EvidenceAggregation> HTTP4XX = updater("http4xx");
+    private static final AtomicLongFieldUpdater<EvidenceAggregation> HTTP5XX = updater("http5xx");
+    private static final AtomicLongFieldUpdater<EvidenceAggregation> EXCEPTIONS = updater("exceptions");
+    private static final AtomicLongFieldUpdater<EvidenceAggregation> DETECTIONS = updater("detections");
+    private static final AtomicLongFieldUpdater<EvidenceAggregation> SCORE = updater("score");
+
+    private static final AtomicIntegerFieldUpdater<EvidenceAggregation> CREDIT = AtomicIntegerFieldUpdater.newUpdater(EvidenceAggregation.class, "credit");
+    private static final int MAX_CREDIT = 3;
+
+    /** the longest window for which the request rate is known. */
+    public static final int WINDOW_SECONDS = 64;
+
+    private static AtomicLongFieldUpdater<EvidenceAggregation> updater(String field) {
+        return AtomicLongFieldUpdater.newUpdater(EvidenceAggregation.class, field);
+    }
+
+    /** epoch millis of the first and last evidence. */
+    private final long first;
+    private volatile long last;
+    private volatile long numberOfRequests;
+    private volatile long http2xx;
+    private volatile long http3xx;
+    private volatile long http4xx;
+    private volatile long http5xx;
+    private volatile long exceptions;
+    private volatile long detections;
+    private volatile long score;
+    private final RateWindow requestWindow;
+
+    /** bookkeeping of the {@link EvidenceStore} that holds this aggregation. */
+    final Object key;
+    final long keyHigh;
+    final long keyLow;
+    volatile int slot = -1;
+    private volatile int credit;
+    volatile ExpiryWheel.Bucket wheelBucket;
+    EvidenceAggregation wheelPrev;
+    EvidenceAggregation wheelNext;
 
     public EvidenceAggregation(Evidence ev) {
-        this.first = ev.getTimestamp();
-        this.last = ev.getTimestamp();
-        score(ev);
+        this(ev.getTimestamp());
+        add(ev);
     }
 
+    /**
+     * Creates a snapshot of the given aggregation.
+     * @param parent the aggregation to copy.
+     */
     public EvidenceAggregation(EvidenceAggregation parent) {
+        this.key = null;
+        this.keyHigh = 0;
+        this.keyLow = 0;
         this.first = parent.first;
+        this.last = parent.last;
         this.numberOfRequests = parent.numberOfRequests;
         this.http2xx = parent.http2xx;
         this.http3xx = parent.http3xx;
@@ -45,40 +97,146 @@ public class EvidenceAggregation {
         this.http5xx = parent.http5xx;
         this.exceptions = parent.exceptions;
         this.detections = parent.detections;
+        this.score = parent.score;
+        this.requestWindow = new RateWindow(parent.requestWindow);
     }
 
     public EvidenceAggregation(EvidenceAggregation parent, Evidence ev) {
         this(parent);
-        this.last = ev.getTimestamp();
-        score(ev);
+        add(ev);
+    }
+
+    /**
+     * Creates an empty aggregation.
+     * @param first the timestamp of the first evidence.
+     */
+    EvidenceAggregation(Instant first) {
+        this(null, first);
+    }
+
+    /**
+     * Creates an empty aggregation for an {@link EvidenceStore}.
+     * @param key the key under which it is stored.
+     * @param first the timestamp of the first evidence.
+     */
+    EvidenceAggregation(Object key, Instant first) {
+        this(key, 0, 0, first);
+    }
+
+    /**
+     * Creates an empty aggregation for an IP address.
+     * @param keyHigh the high 64 bits of the address.
+     * @param keyLow the low 64 bits of the address.
+     * @param first the timestamp of the first evidence.
+     */
+    EvidenceAggregation(long keyHigh, long keyLow, Instant first) {
+        this(null, keyHigh, keyLow, first);
+    }
+
+    private EvidenceAggregation(Object key, long keyHigh, long keyLow, Instant first) {
+        this.key = key;
+        this.keyHigh = keyHigh;
+        this.keyLow = keyLow;
+        this.first = first.toEpochMilli();
+        this.last = this.first;
+        this.requestWindow = new RateWindow(1000L, WINDOW_SECONDS);
     }
 
-    private void score(Evidence ev) {
+    /**
+     * Adds the evidence to this aggregation, atomically per counter.
+     * @param ev the evidence.
+     */
+    public void add(Evidence ev) {
         if (ev.getExceptionType() != null) {
-            exceptions++;
+            EXCEPTIONS.incrementAndGet(this);
         }
         if (ev.getRule() != null) {
-            detections += ev.getRule().getLevel().getScore();
+            DETECTIONS.addAndGet(this, ev.getRule().getLevel().getScore());
+        }
+        addRequest(ev.getTimestamp().toEpochMilli(), ev.getStatusCode());
+    }
+
+    /**
+     * Counts a request, atomically per counter.
+     * @param timestamp the epoch millis of the request.
+     * @param statusCode the status code of the response, 0 if there was no
+     *        response (yet).
+     */
+    void addRequest(long timestamp, int statusCode) {
+        long previous = last;
+        while (previous < timestamp && !LAST.compareAndSet(this, previous, timestamp)) {
+            previous = last;
         }
-        if (ev.getStatusCode() > 0) {
-            numberOfRequests++;
-            if (ev.getStatusCode() >= 500) {
-                http5xx++;
-            } else if (ev.getStatusCode() >= 400) {
-                http4xx++;
-            } else if (ev.getStatusCode() >= 300) {
-                http3xx++;
-            } else if (ev.getStatusCode() >= 200) {
-                http2xx++;
+        if (statusCode > 0) {
+            REQUESTS.incrementAndGet(this);
+            requestWindow.increment(timestamp);
+            if (statusCode >= 500) {
+                HTTP5XX.incrementAndGet(this);
+            } else if (statusCode >= 400) {
+                HTTP4XX.incrementAndGet(this);
+            } else if (statusCode >= 300) {
+                HTTP3XX.incrementAndGet(this);
+            } else if (statusCode >= 200) {
+                HTTP2XX.incrementAndGet(this);
             }
         }
     }
 
+    /**
+     * updates the running score after evidence has been added.
+     */
+    void updateScore(EvidenceScorer scorer, Evidence ev) {
+        long previous;
+        long next;
+        do {
+            previous = score;
+            next = scorer.score(this, ev, previous);
+        } while (previous != next && !SCORE.compareAndSet(this, previous, next));
+    }
+
+    /**
+     * recomputes the score from scratch, for a newly registered scorer.
+     */
+    void resetScore(EvidenceScorer scorer) {
+        score = scorer.score(this, null, 0);
+    }
+
+    /**
+     * gives the aggregation credit against eviction, up to a small maximum.
+     * Only writes when the credit is not yet at its maximum, so keys that
+     * are hit all the time do not contend on it.
+     */
+    void touch() {
+        int c = credit;
+        if (c < MAX_CREDIT) {
+            CREDIT.compareAndSet(this, c, c + 1);
+        }
+    }
+
+    /**
+     * @return true if the aggregation had credit left, which is then
+     *         decremented, false if it may be evicted.
+     */
+    boolean spendCredit() {
+        int c = credit;
+        while (c > 0) {
+            if (CREDIT.compareAndSet(this, c, c - 1)) {
+                return true;
+            }
+            c = credit;
+        }
+        return false;
+    }
+
     public Instant getFirst() {
-        return first;
+        return Instant.ofEpochMilli(first);
     }
 
     public Instant getLast() {
+        return Instant.ofEpochMilli(last);
+    }
+
+    long getLastMillis() {
         return last;
     }
 
@@ -110,12 +268,21 @@ public class EvidenceAggregation {
         return numberOfRequests;
     }
 
+    /**
+     * @return the running score, as maintained by (and in the representation
+     *         of) the {@link EvidenceScorer} registered with the collector, 0
+     *         if there is none.
+     */
+    public long getScore() {
+        return score;
+    }
+
     /**
      * @param ref the reference timestamp.
      * @return if the last evidence is before the reference timestamp.
      */
     public boolean isOld(Instant ref) {
-        return last.isBefore(ref);
+        return last < ref.toEpochMilli();
     }
 
     /**
@@ -123,11 +290,31 @@ public class EvidenceAggregation {
      * @return the average number of requests or 0 if the minimum period has not expired.
      */
     public int getAverageRpS(long minPeriod) {
-        Duration delta = Duration.between(first, last);
-        if (!delta.minusMillis(minPeriod).isNegative()) {
-            return Math.round(numberOfRequests / delta.getSeconds());
+        long delta = last - first;
+        if (delta >= minPeriod && delta > 0) {
+            return (int) Math.round(numberOfRequests * 1000.0 / delta);
         } else {
             return 0;
         }
     }
+
+    /**
+     * @param windowMillis the window in ms, at most {@value #WINDOW_SECONDS}
+     *        seconds.
+     * @return the number of requests per second in the window that ends with
+     *         the last evidence.
+     */
+    public double getRequestRate(long windowMillis) {
+        return requestWindow.rate(last, windowMillis);
+    }
+
+    /**
+     * @param ref the end of the window.
+     * @param windowMillis the window in ms, at most {@value #WINDOW_SECONDS}
+     *        seconds.
+     * @return the number of requests per second in the window.
+     */
+    public double getRequestRate(Instant ref, long windowMillis) {
+        return requestWindow.rate(ref.toEpochMilli(), windowMillis);
+    }
 }
@@ -15,9 +15,9 @@
  */
 package nl.ctrlaltdev.harbinger.evidence;
 
+import java.time.Duration;
 import java.time.Instant;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -35,17 +35,58 @@ public class EvidenceCollector {
 
     private WhiteList whiteList;
 
-    private Map<String, EvidenceAggregation> evidenceByIp;
-    private Map<String, EvidenceAggregation> evidenceBySession;
+    private EvidenceStore evidenceByIp;
+    private EvidenceStore evidenceBySession;
+    private EvidenceScorer scorer;
 
     public EvidenceCollector() {
         this(WhiteListBuilder.empty());
     }
 
     public EvidenceCollector(WhiteList whiteList) {
+        this(whiteList, 0);
+    }
+
+    /**
+     * @param whiteList the whitelist.
+     * @param capacity the maximum number of IPs and of sessions to keep
+     *        evidence for, 0 for unbounded.
+     */
+    public EvidenceCollector(WhiteList whiteList, int capacity) {
+        this(whiteList, capacity, null);
+    }
+
+    /**
+     * @param whiteList the whitelist.
+     * @param capacity the maximum number of IPs and of sessions to keep
+     *        evidence for, 0 for unbounded.
+     * @param idleTtl the time after which evidence of an idle IP or session
+     *        is forgotten, null for never.
+     */
+    public EvidenceCollector(WhiteList whiteList, int capacity, Duration idleTtl) {
+        this(whiteList, new EvidenceStore(EvidenceStore.Keys.IP_ADDRESS, capacity, idleTtl), new EvidenceStore(EvidenceStore.Keys.STRING, capacity, idleTtl));
+    }
+
+    public EvidenceCollector(WhiteList whiteList, EvidenceStore byIp, EvidenceStore bySession) {
         this.whiteList = whiteList;
-        this.evidenceByIp = new ConcurrentHashMap<>();
-        this.evidenceBySession = new ConcurrentHashMap<>();
+        this.evidenceByIp = byIp;
+        this.evidenceBySession = bySession;
+    }
+
+    /**
+     * Registers the scorer that maintains the running score of the
+     * aggregations per IP and session. There is only one score per
+     * aggregation, so the last scorer registered wins: existing aggregations
+     * are scored from scratch by it.
+     * @param scorer the scorer.
+     */
+    public synchronized void register(EvidenceScorer scorer) {
+        if (this.scorer != null && this.scorer != scorer) {
+            LOGGER.warn("Replacing the scorer of the collector, deciders that use the previous one will read different scores.");
+        }
+        this.scorer = scorer;
+        evidenceByIp.setScorer(scorer);
+        evidenceBySession.setScorer(scorer);
     }
 
     public Evidence enhanceAndStore(Evidence evidence) {
@@ -68,6 +109,45 @@ public class EvidenceCollector {
         return evidence;
     }
 
+    /**
+     * checks if input is whitelisted before it is scanned, so it can be
+     * skipped without normalizing, scanning or logging it.
+     * @param source the evidence of the request, null if unknown.
+     * @param parameterName the parameter name, null for the request as a
+     *        whole.
+     * @return true if the whitelist ignores the input whatever it is.
+     */
+    public boolean isWhitelistedBeforeScan(Evidence source, String parameterName) {
+        if (whiteList.isEmptyBeforeScan()) {
+            return false;
+        }
+        Evidence evidence = enhance(source == null ? new Evidence() : source);
+        if (parameterName != null) {
+            evidence = new Evidence(evidence, null, parameterName, null);
+        }
+        return whiteList.isWhitelistedBeforeScan(evidence);
+    }
+
+    /**
+     * resolves the IP, URL and user of a request against the white list
+     * once, so checking each of its parameters before scan is only a lookup
+     * of the parameter name.
+     * @param source the evidence of the request.
+     * @return the names of the parameters whose input the white list ignores
+     *         whatever it is, {@link WhiteList#ALL_PARAMETERS} if it ignores
+     *         the request as a whole.
+     */
+    public Predicate<String> getParametersWhitelistedBeforeScan(Evidence source) {
+        if (whiteList.isEmptyBeforeScan()) {
+            return WhiteList.NO_PARAMETERS;
+        }
+        Evidence evidence = enhance(source);
+        if (whiteList.isWhitelistedBeforeScan(evidence)) {
+            return WhiteList.ALL_PARAMETERS;
+        }
+        return whiteList.getParametersBeforeScan(evidence);
+    }
+
     /**
      * Stores evidence temporarily.
      * @param evidence the evidence.
@@ -82,28 +162,41 @@ public class EvidenceCollector {
             return new Evidence();
         }
         if (evidence.getIp() != null) {
-            store(evidenceByIp, evidence.getIp(), evidence);
+            evidenceByIp.add(evidence.getIp(), evidence);
         }
         if (evidence.getSession() != null) {
-            store(evidenceBySession, evidence.getSession(), evidence);
+            evidenceBySession.add(evidence.getSession(), evidence);
         }
         return evidence;
     }
 
-    private boolean isWarning(Evidence evidence) {
-        return (evidence.getStatusCode() >= 400) || (evidence.getExceptionType() != null) || (evidence.getRule() != null);
+    /**
+     * Fast path for a request with nothing to report: a 2xx or 3xx response
+     * without exception or detection. Only counts the request in place for
+     * the IP and session of the evidence, without creating new evidence.
+     * @param evidence the evidence of the request.
+     * @param statusCode the status code of the response.
+     * @return false if the evidence is whitelisted, so nothing was counted.
+     * @throws IllegalArgumentException if there is something to report.
+     */
+    public boolean storeRequest(Evidence evidence, int statusCode) {
+        if (statusCode < 200 || statusCode >= 400 || evidence.getExceptionType() != null || evidence.getRule() != null) {
+            throw new IllegalArgumentException("Not a benign request.");
+        }
+        if (whiteList.isWhitelisted(evidence)) {
+            return false;
+        }
+        if (evidence.getIp() != null) {
+            evidenceByIp.addRequest(evidence.getIp(), evidence, statusCode);
+        }
+        if (evidence.getSession() != null) {
+            evidenceBySession.addRequest(evidence.getSession(), evidence, statusCode);
+        }
+        return true;
     }
 
-    private EvidenceAggregation store(Map<String, EvidenceAggregation> store, String id, Evidence evidence) {
-        EvidenceAggregation aggr = store.get(id);
-        if (aggr == null) {
-            aggr = new EvidenceAggregation(evidence);
-            store.put(id, aggr);
-        } else {
-            aggr = new EvidenceAggregation(aggr, evidence);
-            store.put(id, aggr);
-        }
-        return aggr;
+    private boolean isWarning(Evidence evidence) {
+        return (evidence.getStatusCode() >= 400) || (evidence.getExceptionType() != null) || (evidence.getRule() != null);
     }
 
     /**
@@ -112,12 +205,8 @@ public class EvidenceCollector {
      * @return the evidenceAggregation by ip.
      */
     public EvidenceAggregation findByIp(Evidence ev) {
-        EvidenceAggregation defaultValue = new EvidenceAggregation(ev);
-        if (ev.getIp() == null) {
-            return defaultValue;
-        } else {
-            return evidenceByIp.getOrDefault(ev.getIp(), defaultValue);
-        }
+        EvidenceAggregation aggr = ev.getIp() == null ? null : evidenceByIp.get(ev.getIp());
+        return aggr == null ? new EvidenceAggregation(ev) : aggr;
     }
 
     /**
@@ -126,12 +215,8 @@ public class EvidenceCollector {
      * @return the evidence by session.
      */
     public EvidenceAggregation findBySession(Evidence ev) {
-        EvidenceAggregation defaultValue = new EvidenceAggregation(ev);
-        if (ev.getSession() == null) {
-            return defaultValue;
-        } else {
-            return evidenceBySession.getOrDefault(ev.getSession(), defaultValue);
-        }
+        EvidenceAggregation aggr = ev.getSession() == null ? null : evidenceBySession.get(ev.getSession());
+        return aggr == null ? new EvidenceAggregation(ev) : aggr;
     }
 
     public EvidenceAggregation single(Evidence ev) {
@@ -139,21 +224,24 @@ public class EvidenceCollector {
     }
 
     /**
-     * Cleans up any evidence from memory with a timestamp before ref.
-     * @param ref the reference timestamp.
+     * Expires the evidence of IPs and sessions that have been idle for longer
+     * than the time to live of their store. Only visits keys that are due,
+     * so it is cheap enough to call from a scheduler every few seconds.
+     * @param now the current time.
      */
-    public void clean(Instant ref) {
-        clean(evidenceByIp, ref);
-        clean(evidenceBySession, ref);
+    public void expire(Instant now) {
+        evidenceByIp.expire(now);
+        evidenceBySession.expire(now);
     }
 
-    private void clean(Map<String, EvidenceAggregation> store, Instant ref) {
-        for (Map.Entry<String, EvidenceAggregation> entry : store.entrySet()) {
-            EvidenceAggregation evidence = entry.getValue();
-            if (evidence.isOld(ref)) {
-                store.remove(entry.getKey());
-            }
-        }
+    /**
+     * Cleans up any evidence from memory with a timestamp before ref. Visits
+     * every key, see {@link #expire(Instant)} for the incremental alternative.
+     * @param ref the reference timestamp.
+     */
+    public void clean(Instant ref) {
+        evidenceByIp.removeOlderThan(ref);
+        evidenceBySession.removeOlderThan(ref);
     }
     
     /**
@@ -169,4 +257,18 @@ public class EvidenceCollector {
             evidenceBySession.remove(ev.getSession());
         }
     }
+
+    /**
+     * @return the number of IPs and sessions evicted to stay within capacity.
+     */
+    public long getEvictions() {
+        return evidenceByIp.getEvictions() + evidenceBySession.getEvictions();
+    }
+
+    /**
+     * @return the number of IPs and sessions expired after being idle.
+     */
+    public long getExpirations() {
+        return evidenceByIp.getExpirations() + evidenceBySession.getExpirations();
+    }
 }
@@ -0,0 +1,160 @@
+/*
+ * Copyright 2016 E.Hooijmeijer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.ctrlaltdev.harbinger.evidence;
+
+import java.time.Instant;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import nl.ctrlaltdev.harbinger.ip.IpAddress;
+import nl.ctrlaltdev.harbinger.ip.IpMap;
+
+/**
+ * The map behind an {@link EvidenceStore}. Aggregations carry their own key,
+ * so they can be removed on eviction or expiry without a lookup by String.
+ */
+abstract class EvidenceIndex {
+
+    abstract EvidenceAggregation get(String key);
+
+    /**
+     * @return a new, unmapped, aggregation for the key.
+     */
+    abstract EvidenceAggregation create(String key, Instant first);
+
+    /**
+     * @return the aggregation already mapped to the key of aggr, or null if
+     *         aggr is now mapped.
+     */
+    abstract EvidenceAggregation putIfAbsent(EvidenceAggregation aggr);
+
+    /**
+     * @return true if aggr is (still) mapped to its key.
+     */
+    abstract boolean contains(EvidenceAggregation aggr);
+
+    /**
+     * @return true if aggr was mapped to its key and is now removed.
+     */
+    abstract boolean remove(EvidenceAggregation aggr);
+
+    abstract EvidenceAggregation remove(String key);
+
+    abstract Collection<EvidenceAggregation> values();
+
+    abstract int size();
+
+    /**
+     * Index on arbitrary Strings, such as session ids.
+     */
+    static final class Strings extends EvidenceIndex {
+        private final Map<String, EvidenceAggregation> map = new ConcurrentHashMap<>();
+
+        @Override
+        EvidenceAggregation get(String key) {
+            return map.get(key);
+        }
+
+        @Override
+        EvidenceAggregation create(String key, Instant first) {
+            return new EvidenceAggregation(key, first);
+        }
+
+        @Override
+        EvidenceAggregation putIfAbsent(EvidenceAggregation aggr) {
+            return map.putIfAbsent((String) aggr.key, aggr);
+        }
+
+        @Override
+        boolean contains(EvidenceAggregation aggr) {
+            return map.get(aggr.key) == aggr;
+        }
+
+        @Override
+        boolean remove(EvidenceAggregation aggr) {
+            return map.remove(aggr.key, aggr);
+        }
+
+        @Override
+        EvidenceAggregation remove(String key) {
+            return map.remove(key);
+        }
+
+        @Override
+        Collection<EvidenceAggregation> values() {
+            return map.values();
+        }
+
+        @Override
+        int size() {
+            return map.size();
+        }
+    }
+
+    /**
+     * Index on IP addresses, keyed by their numeric value in an
+     * {@link IpMap}. Aggregations of valid addresses keep the address as two
+     * longs instead of a String.
+     */
+    static final class IpAddresses extends EvidenceIndex {
+        private final IpMap<EvidenceAggregation> map = new IpMap<>();
+
+        @Override
+        EvidenceAggregation get(String key) {
+            return map.get(key);
+        }
+
+        @Override
+        EvidenceAggregation create(String key, Instant first) {
+            long[] addr = new long[2];
+            if (IpAddress.parse(key, addr)) {
+                return new EvidenceAggregation(addr[0], addr[1], first);
+            }
+            return new EvidenceAggregation(key, first);
+        }
+
+        @Override
+        EvidenceAggregation putIfAbsent(EvidenceAggregation aggr) {
+            return aggr.key == null ? map.putIfAbsent(aggr.keyHigh, aggr.keyLow, aggr) : map.putIfAbsent((String) aggr.key, aggr);
+        }
+
+        @Override
+        boolean contains(EvidenceAggregation aggr) {
+            return (aggr.key == null ? map.get(aggr.keyHigh, aggr.keyLow) : map.get((String) aggr.key)) == aggr;
+        }
+
+        @Override
+        boolean remove(EvidenceAggregation aggr) {
+            return aggr.key == null ? map.remove(aggr.keyHigh, aggr.keyLow, aggr) : map.remove((String) aggr.key, aggr);
+        }
+
+        @Override
+        EvidenceAggregation remove(String key) {
+            return map.remove(key);
+        }
+
+        @Override
+        Collection<EvidenceAggregation> values() {
+            return map.values();
+        }
+
+        @Override
+        int size() {
+            return map.size();
+        }
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright 2016 E.Hooijmeijer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.ctrlaltdev.harbinger.evidence;
+
+/**
+ * Maintains the running score of an aggregation, so deciding is a matter
+ * of reading {@link EvidenceAggregation#getScore()}. Registered with the
+ * {@link EvidenceCollector} by the ResponseDecider that interprets the
+ * score.
+ */
+@FunctionalInterface
+public interface EvidenceScorer {
+
+    /**
+     * Called each time evidence has been added to an aggregation. May be
+     * called again with the same previous score when a concurrent update
+     * came first, so it must not have side effects.
+     * @param aggr the aggregation, including the evidence.
+     * @param evidence the evidence that was added. For requests counted on
+     *        the fast path this is the evidence of the request, without the
+     *        response, but the counters of the aggregation include it. Null
+     *        when a newly registered scorer scores existing aggregations.
+     * @param previous the score before the evidence was added.
+     * @return the new score.
+     */
+    long score(EvidenceAggregation aggr, Evidence evidence, long previous);
+
+    /**
+     * @param aggr the aggregation.
+     * @param nowMillis the current time in epoch millis.
+     * @return true if the aggregation no longer matters for its score, so a
+     *         bounded store may drop it before any other.
+     */
+    default boolean isNegligible(EvidenceAggregation aggr, long nowMillis) {
+        return false;
+    }
+
+}
@@ -0,0 +1,331 @@
+/*
+ * Copyright 2016 E.Hooijmeijer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.ctrlaltdev.harbinger.evidence;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Holds the evidence aggregations per key (IP, session), optionally bounded
+ * to a maximum number of entries.
+ * <p>
+ * When bounded every aggregation occupies a slot in a ring. A new key takes
+ * a free slot, or the slot of a victim chosen by a clock hand: each request
+ * for a key gives it a little credit (up to 3), the hand takes one credit
+ * from each aggregation it passes and evicts the first one without credit.
+ * Keys that keep sending requests therefore survive, while one-shot keys
+ * from a flood of rotating IPs or fresh sessions mostly evict each other.
+ * The hand passes at most {@value #MAX_SCAN} slots per new key, so the
+ * policy is cheap enough to run inline on every store. Keys that the
+ * registered {@link EvidenceScorer} considers negligible, such as idle keys
+ * whose {@link DecayingScorer decaying score} has dropped to zero, are
+ * evicted regardless of their credit.
+ * <p>
+ * Optionally keys expire after an idle time to live. Expiry is driven by an
+ * {@link ExpiryWheel}: every store checks at most {@value #MAX_EXPIRE}
+ * aggregations that are due, and {@link #expire(Instant)} may be called from
+ * a scheduler to catch up when there is no traffic.
+ * <p>
+ * Evidence that is added concurrently with the eviction or expiry of its key
+ * may be lost, which is acceptable as that key was about to be forgotten
+ * anyway.
+ */
+public class EvidenceStore {
+
+    /**
+     * The kind of keys in the store.
+     */
+    public enum Keys {
+        /** arbitrary Strings, such as session ids. */
+        STRING,
+        /** IP addresses, stored as numbers rather than Strings. */
+        IP_ADDRESS;
+    }
+
+    private static final int MAX_SCAN = 32;
+    private static final int MAX_EXPIRE = 8;
+
+    private final EvidenceIndex entries;
+    private final int capacity;
+    private final AtomicReferenceArray<EvidenceAggregation> slots;
+    private final AtomicInteger hand = new AtomicInteger();
+    private final LongAdder evictions = new LongAdder();
+    private final long idleTtl;
+    private final ExpiryWheel wheel;
+    private final LongAdder expirations = new LongAdder();
+    private volatile EvidenceScorer scorer;
+
+    /**
+     * Creates an unbounded store.
+     */
+    public EvidenceStore() {
+        this(0);
+    }
+
+    /**
+     * @param capacity the maximum number of entries, 0 for unbounded.
+     */
+    public EvidenceStore(int capacity) {
+        this(capacity, null);
+    }
+
+    /**
+     * @param capacity the maximum number of entries, 0 for unbounded.
+     * @param idleTtl the time after the last evidence at which a key expires,
+     *        null for never.
+     */
+    public EvidenceStore(int capacity, Duration idleTtl) {
+        this(Keys.STRING, capacity, idleTtl);
+    }
+
+    /**
+     * @param keys the kind of keys.
+     * @param capacity the maximum number of entries, 0 for unbounded.
+     * @param idleTtl the time after the last evidence at which a key expires,
+     *        null for never.
+     */
+    public EvidenceStore(Keys keys, int capacity, Duration idleTtl) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("Capacity must not be negative.");
+        }
+        if (idleTtl != null && (idleTtl.isNegative() || idleTtl.isZero())) {
+            throw new IllegalArgumentException("Idle time to live must be positive.");
+        }
+        this.entries = keys == Keys.IP_ADDRESS ? new EvidenceIndex.IpAddresses() : new EvidenceIndex.Strings();
+        this.capacity = capacity;
+        this.slots = capacity > 0 ? new AtomicReferenceArray<>(capacity) : null;
+        this.idleTtl = idleTtl == null ? 0 : idleTtl.toMillis();
+        this.wheel = idleTtl == null ? null : new ExpiryWheel(this.idleTtl);
+    }
+
+    /**
+     * @param key the key.
+     * @return the aggregation for the key or null.
+     */
+    public EvidenceAggregation get(String key) {
+        return entries.get(key);
+    }
+
+    /**
+     * Adds the evidence to the aggregation of the key, creating it if
+     * needed, evicting another key if the store is full.
+     * @param key the key.
+     * @param evidence the evidence.
+     * @return the aggregation.
+     */
+    public EvidenceAggregation add(String key, Evidence evidence) {
+        EvidenceAggregation aggr = aggregationFor(key, evidence);
+        aggr.add(evidence);
+        score(aggr, evidence);
+        expire(evidence);
+        return aggr;
+    }
+
+    /**
+     * Counts a request with nothing else to report for the key, without
+     * copying the evidence of the request.
+     * @param key the key.
+     * @param evidence the evidence of the request.
+     * @param statusCode the status code of the response.
+     * @return the aggregation.
+     */
+    public EvidenceAggregation addRequest(String key, Evidence evidence, int statusCode) {
+        EvidenceAggregation aggr = aggregationFor(key, evidence);
+        aggr.addRequest(evidence.getTimestamp().toEpochMilli(), statusCode);
+        score(aggr, evidence);
+        expire(evidence);
+        return aggr;
+    }
+
+    private EvidenceAggregation aggregationFor(String key, Evidence evidence) {
+        EvidenceAggregation aggr = entries.get(key);
+        if (aggr == null) {
+            EvidenceAggregation created = entries.create(key, evidence.getTimestamp());
+            aggr = entries.putIfAbsent(created);
+            if (aggr == null) {
+                aggr = created;
+                admit(created);
+                if (wheel != null) {
+                    wheel.schedule(created, created.getLastMillis() + idleTtl);
+                }
+            }
+        } else if (slots != null) {
+            aggr.touch();
+        }
+        return aggr;
+    }
+
+    private void score(EvidenceAggregation aggr, Evidence evidence) {
+        EvidenceScorer current = scorer;
+        if (current != null) {
+            aggr.updateScore(current, evidence);
+        }
+    }
+
+    /**
+     * Registers the scorer that maintains the running score of the
+     * aggregations. Existing aggregations are scored from scratch.
+     * @param scorer the scorer, null for none.
+     */
+    public void setScorer(EvidenceScorer scorer) {
+        this.scorer = scorer;
+        if (scorer != null) {
+            for (EvidenceAggregation aggr : entries.values()) {
+                aggr.resetScore(scorer);
+            }
+        }
+    }
+
+    private void expire(Evidence evidence) {
+        if (wheel != null) {
+            wheel.advance(evidence.getTimestamp().toEpochMilli(), MAX_EXPIRE, this);
+        }
+    }
+
+    private void admit(EvidenceAggregation created) {
+        if (slots == null) {
+            return;
+        }
+        EvidenceScorer current = scorer;
+        long now = created.getLastMillis();
+        for (int scan = 0;; scan++) {
+            int idx = Math.floorMod(hand.getAndIncrement(), capacity);
+            EvidenceAggregation victim = slots.get(idx);
+            if (victim == null) {
+                if (slots.compareAndSet(idx, null, created)) {
+                    created.slot = idx;
+                    return;
+                }
+            } else if (scan >= MAX_SCAN || (current != null && current.isNegligible(victim, now)) || !victim.spendCredit()) {
+                if (slots.compareAndSet(idx, victim, created)) {
+                    created.slot = idx;
+                    if (entries.remove(victim)) {
+                        evictions.increment();
+                    }
+                    if (wheel != null) {
+                        wheel.unschedule(victim);
+                    }
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * @param key the key to forget.
+     */
+    public void remove(String key) {
+        EvidenceAggregation aggr = entries.remove(key);
+        if (aggr != null) {
+            release(aggr);
+        }
+    }
+
+    /**
+     * Removes all aggregations whose last evidence is before ref.
+     * @param ref the reference timestamp.
+     */
+    public void removeOlderThan(Instant ref) {
+        for (EvidenceAggregation aggr : entries.values()) {
+            if (aggr.isOld(ref) && entries.remove(aggr)) {
+                release(aggr);
+            }
+        }
+    }
+
+    /**
+     * Expires all keys that have been idle for longer than the time to live
+     * at the given time. Intended to be called periodically by a scheduler,
+     * as during stores only a few keys are expired at a time.
+     * @param now the current time.
+     */
+    public void expire(Instant now) {
+        if (wheel != null) {
+            wheel.advance(now.toEpochMilli(), Integer.MAX_VALUE, this);
+        }
+    }
+
+    /**
+     * called by the wheel for an aggregation that is due.
+     * @return the new deadline or {@link ExpiryWheel#REMOVED}.
+     */
+    long expire(EvidenceAggregation aggr, long now) {
+        if (!entries.contains(aggr)) {
+            return ExpiryWheel.REMOVED;
+        }
+        long deadline = aggr.getLastMillis() + idleTtl;
+        if (deadline > now) {
+            return deadline;
+        }
+        if (entries.remove(aggr)) {
+            expirations.increment();
+            releaseSlot(aggr);
+        }
+        return ExpiryWheel.REMOVED;
+    }
+
+    private void release(EvidenceAggregation aggr) {
+        releaseSlot(aggr);
+        if (wheel != null) {
+            wheel.unschedule(aggr);
+        }
+    }
+
+    private void releaseSlot(EvidenceAggregation aggr) {
+        int idx = aggr.slot;
+        if (slots != null && idx >= 0) {
+            slots.compareAndSet(idx, aggr, null);
+        }
+    }
+
+    /**
+     * @return the number of entries.
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return the maximum number of entries, 0 if unbounded.
+     */
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * @return the number of entries evicted to make room for new keys.
+     */
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * @return the number of entries that expired after being idle.
+     */
+    public long getExpirations() {
+        return expirations.sum();
+    }
+
+    /**
+     * @return the idle time to live, or null if keys never expire.
+     */
+    public Duration getIdleTtl() {
+        return wheel == null ? null : Duration.ofMillis(idleTtl);
+    }
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright 2016 E.Hooijmeijer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.ctrlaltdev.harbinger.evidence;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Expiry buckets for the aggregations of an {@link EvidenceStore}, indexed
+ * by the time at which they become idle. Each aggregation is linked into
+ * exactly one bucket; instead of moving it on every request, its deadline
+ * is checked when its bucket comes due and it is either expired or moved to
+ * the bucket of its new deadline. The wheel is advanced a limited number of
+ * aggregations at a time, so expiry never sweeps the whole store.
+ * <p>
+ * The buckets are intrusive doubly linked lists guarded by their own lock,
+ * so an aggregation that is removed otherwise can be unlinked in constant
+ * time. Bucket locks are only taken for new keys, removals and expiry.
+ */
+final class ExpiryWheel {
+
+    /** returned by the store when an aggregation is no longer scheduled. */
+    static final long REMOVED = -1;
+
+    private static final int SIZE = 256;
+
+    /**
+     * the aggregations due in a single tick.
+     */
+    static final class Bucket {
+        private EvidenceAggregation head;
+        private EvidenceAggregation tail;
+
+        private void add(EvidenceAggregation aggr) {
+            aggr.wheelPrev = tail;
+            aggr.wheelNext = null;
+            if (tail == null) {
+                head = aggr;
+            } else {
+                tail.wheelNext = aggr;
+            }
+            tail = aggr;
+            aggr.wheelBucket = this;
+        }
+
+        private void unlink(EvidenceAggregation aggr) {
+            if (aggr.wheelPrev == null) {
+                head = aggr.wheelNext;
+            } else {
+                aggr.wheelPrev.wheelNext = aggr.wheelNext;
+            }
+            if (aggr.wheelNext == null) {
+                tail = aggr.wheelPrev;
+            } else {
+                aggr.wheelNext.wheelPrev = aggr.wheelPrev;
+            }
+            aggr.wheelPrev = null;
+            aggr.wheelNext = null;
+            aggr.wheelBucket = null;
+        }
+
+        private EvidenceAggregation poll() {
+            EvidenceAggregation aggr = head;
+            if (aggr != null) {
+                unlink(aggr);
+            }
+            return aggr;
+        }
+    }
+
+    private final long tickMillis;
+    private final Bucket[] buckets = new Bucket[SIZE];
+    /** the next tick to expire, Long.MIN_VALUE until the first schedule. */
+    private final AtomicLong cursor = new AtomicLong(Long.MIN_VALUE);
+    private final AtomicBoolean advancing = new AtomicBoolean();
+
+    /**
+     * @param ttlMillis the idle time to live in ms.
+     */
+    ExpiryWheel(long ttlMillis) {
+        this.tickMillis = Math.max(1, (ttlMillis + SIZE - 5) / (SIZE - 4));
+        for (int t = 0; t < SIZE; t++) {
+            buckets[t] = new Bucket();
+        }
+    }
+
+    /**
+     * @param aggr an aggregation that is not yet scheduled.
+     * @param deadline the epoch millis at which it expires.
+     */
+    void schedule(EvidenceAggregation aggr, long deadline) {
+        long tick = deadline / tickMillis;
+        long c = cursor.get();
+        if (c == Long.MIN_VALUE) {
+            cursor.compareAndSet(Long.MIN_VALUE, tick - 1);
+            c = cursor.get();
+        }
+        link(aggr, tick, c);
+    }
+
+    /**
+     * links the aggregation into the bucket of the tick, but never into the
+     * bucket of the cursor or behind it, so every bucket is due at most once
+     * per revolution.
+     */
+    private void link(EvidenceAggregation aggr, long tick, long c) {
+        tick = Math.min(Math.max(tick, c + 1), c + SIZE - 1);
+        Bucket bucket = buckets[(int) Math.floorMod(tick, (long) SIZE)];
+        synchronized (bucket) {
+            bucket.add(aggr);
+        }
+    }
+
+    /**
+     * @param aggr the aggregation to remove from the wheel, if scheduled.
+     */
+    void unschedule(EvidenceAggregation aggr) {
+        while (true) {
+            Bucket bucket = aggr.wheelBucket;
+            if (bucket == null) {
+                return;
+            }
+            synchronized (bucket) {
+                if (aggr.wheelBucket == bucket) {
+                    bucket.unlink(aggr);
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * @param now the current epoch millis.
+     * @return true if there are buckets due.
+     */
+    boolean isDue(long now) {
+        long c = cursor.get();
+        return c != Long.MIN_VALUE && c < now / tickMillis;
+    }
+
+    /**
+     * Checks at most budget aggregations of the buckets that are due. Only
+     * one thread advances the wheel at a time, others return immediately.
+     * @param now the current epoch millis.
+     * @param budget the maximum number of aggregations to check.
+     * @param store the store that decides whether an aggregation expires.
+     */
+    void advance(long now, int budget, EvidenceStore store) {
+        if (!isDue(now) || !advancing.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            long nowTick = now / tickMillis;
+            long c = Math.max(cursor.get(), nowTick - SIZE);
+            while (c < nowTick && budget > 0) {
+                Bucket bucket = buckets[(int) Math.floorMod(c, (long) SIZE)];
+                EvidenceAggregation aggr;
+                synchronized (bucket) {
+                    aggr = bucket.poll();
+                }
+                if (aggr == null) {
+                    c++;
+                    cursor.set(c);
+                    continue;
+                }
+                budget--;
+                long deadline = store.expire(aggr, now);
+                if (deadline != REMOVED) {
+                    link(aggr, deadline / tickMillis, c);
+                }
+            }
+            cursor.set(c);
+        } finally {
+            advancing.set(false);
+        }
+    }
+
+    /**
+     * @return the width of a bucket in ms.
+     */
+    long getTickMillis() {
+        return tickMillis;
+    }
+}
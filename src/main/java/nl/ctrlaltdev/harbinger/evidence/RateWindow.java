@@ -0,0 +1,131 @@
+/*
+ * Copyright 2016 E.Hooijmeijer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.ctrlaltdev.harbinger.evidence;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Counts events in a fixed size ring of time buckets, so the number of
+ * events in a recent window (say the last 10 or 60 seconds) is known
+ * without keeping the individual events.
+ * <p>
+ * Each bucket is a single int holding a tag (12 bits) and the count (20
+ * bits, saturating), updated with a CAS; 0 is an unused bucket. A bucket
+ * number always maps to the same slot, so the tag only needs to tell the
+ * laps around the ring apart: it holds the low bits of the lap number. A
+ * bucket from an earlier lap is simply reset when it is reused.
+ * <p>
+ * The trade-off of the small tag: a bucket left untouched for exactly a
+ * multiple of 4096 laps (with 64 one second buckets, about 73 hours) is
+ * mistaken for a current one, and its count is added to the window until
+ * the slot is reused. An aggregation that is idle that long has normally
+ * expired, and the error is at most one bucket per slot.
+ */
+final class RateWindow {
+
+    private static final int COUNT_BITS = 20;
+    private static final int COUNT_MASK = (1 << COUNT_BITS) - 1;
+
+    private final long bucketMillis;
+    private final AtomicIntegerArray buckets;
+
+    /**
+     * @param bucketMillis the width of a bucket in ms.
+     * @param size the number of buckets.
+     */
+    RateWindow(long bucketMillis, int size) {
+        this.bucketMillis = bucketMillis;
+        this.buckets = new AtomicIntegerArray(size);
+    }
+
+    RateWindow(RateWindow src) {
+        this.bucketMillis = src.bucketMillis;
+        this.buckets = new AtomicIntegerArray(src.buckets.length());
+        for (int t = 0; t < buckets.length(); t++) {
+            buckets.set(t, src.buckets.get(t));
+        }
+    }
+
+    /**
+     * @param timestamp the epoch millis of the event.
+     */
+    void increment(long timestamp) {
+        long bucket = timestamp / bucketMillis;
+        int idx = (int) Math.floorMod(bucket, (long) buckets.length());
+        int lap = lap(bucket);
+        while (true) {
+            int current = buckets.get(idx);
+            int age = current == 0 ? 1 : age(lap, current);
+            int next;
+            if (age == 0) {
+                if ((current & COUNT_MASK) == COUNT_MASK) {
+                    return;
+                }
+                next = current + 1;
+            } else if (age < 0) {
+                return; // the event is older than the window.
+            } else {
+                next = (lap << COUNT_BITS) | 1;
+            }
+            if (buckets.compareAndSet(idx, current, next)) {
+                return;
+            }
+        }
+    }
+
+    private int lap(long bucket) {
+        return (int) Math.floorDiv(bucket, (long) buckets.length());
+    }
+
+    /**
+     * @return the number of laps the given lap is ahead of the lap of the
+     *         bucket stored in the slot, modulo the 12 bits of the tag.
+     */
+    private static int age(int lap, int slot) {
+        return ((lap - (slot >>> COUNT_BITS)) << COUNT_BITS) >> COUNT_BITS;
+    }
+
+    /**
+     * @param now the epoch millis of the end of the window.
+     * @param windowMillis the length of the window, at most the size of the
+     *        ring.
+     * @return the number of events in the window (bucket granularity).
+     */
+    long count(long now, long windowMillis) {
+        long newest = now / bucketMillis;
+        long n = Math.min(buckets.length(), (windowMillis + bucketMillis - 1) / bucketMillis);
+        long count = 0;
+        for (long bucket = newest - n + 1; bucket <= newest; bucket++) {
+            int current = buckets.get((int) Math.floorMod(bucket, (long) buckets.length()));
+            if (age(lap(bucket), current) == 0) {
+                count += current & COUNT_MASK;
+            }
+        }
+        return count;
+    }
+    /**
+     * @param now the epoch millis of the end of the window.
+     * @param windowMillis the length of the window.
+     * @return the number of events per second in the window.
+     */
+    double rate(long now, long windowMillis) {
+        long n = Math.min(buckets.length(), (windowMillis + bucketMillis - 1) / bucketMillis);
+        if (n <= 0) {
+            return 0.0;
+        }
+        return count(now, windowMillis) * 1000.0 / (n * bucketMillis);
+    }
+}
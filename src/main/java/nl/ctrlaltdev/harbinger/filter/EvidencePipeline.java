@@ -0,0 +1,366 @@
+/*
+ * Copyright 2016 E.Hooijmeijer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.ctrlaltdev.harbinger.filter;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.servlet.http.HttpSession;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import nl.ctrlaltdev.harbinger.HarbingerContext;
+import nl.ctrlaltdev.harbinger.evidence.Evidence;
+import nl.ctrlaltdev.harbinger.response.InvalidateSessionAction;
+import nl.ctrlaltdev.harbinger.response.ResponseAction;
+
+/**
+ * Moves the aggregation of request evidence and the resulting response
+ * actions off the request thread. Request threads publish their evidence
+ * into a bounded, preallocated ring buffer (a multi producer, multi consumer
+ * queue with a sequence number per slot) and consumer threads store it in
+ * the collector, ask the decider and perform its action.
+ * <p>
+ * Only evidence for which the request has already been answered goes
+ * through the pipeline, parameter validation that may reject a request stays
+ * synchronous. Actions run on a consumer thread have no access to the
+ * request, so the session of the request is published with its evidence and
+ * an {@link InvalidateSessionAction} invalidates that session.
+ * <p>
+ * Consumers without work spin briefly and then park until evidence is
+ * published.
+ */
+public class EvidencePipeline implements AutoCloseable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(EvidencePipeline.class);
+    private static final long MAX_IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final int SPINS = 64;
+
+    /**
+     * What to do with evidence when the buffer is full.
+     */
+    public enum FullPolicy {
+        /** discard the evidence. */
+        DROP,
+        /** process one in every sample rate on the request thread, discard the others. */
+        SAMPLE,
+        /** wait on the request thread until there is room. */
+        BLOCK;
+    }
+
+    private final HarbingerContext ctx;
+    private final FullPolicy policy;
+    private final int sampleRate;
+    private final int mask;
+    private final AtomicLongArray sequences;
+    private final AtomicReferenceArray<Evidence> items;
+    private final AtomicReferenceArray<HttpSession> sessions;
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+    private final Thread[] consumers;
+    /** 1 for each consumer that is parked or about to park. */
+    private final AtomicIntegerArray parked;
+    private final AtomicInteger idleConsumers = new AtomicInteger();
+    private volatile boolean running = true;
+
+    private final LongAdder published = new LongAdder();
+    private final LongAdder processed = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder sampled = new LongAdder();
+    private final AtomicLong full = new AtomicLong();
+    private final LongAccumulator maxDepth = new LongAccumulator(Math::max, 0);
+
+    /**
+     * Creates a pipeline with a single consumer that drops evidence when full.
+     * @param ctx the Harbinger Context.
+     * @param capacity the size of the buffer.
+     */
+    public EvidencePipeline(HarbingerContext ctx, int capacity) {
+        this(ctx, capacity, 1, FullPolicy.DROP, 1);
+    }
+
+    /**
+     * @param ctx the Harbinger Context.
+     * @param capacity the size of the buffer, rounded up to a power of two.
+     * @param consumers the number of consumer threads.
+     * @param policy what to do when the buffer is full.
+     * @param sampleRate for {@link FullPolicy#SAMPLE}, one in this many
+     *        evidences is processed synchronously when the buffer is full.
+     */
+    public EvidencePipeline(HarbingerContext ctx, int capacity, int consumers, FullPolicy policy, int sampleRate) {
+        if (capacity < 1 || capacity > (1 << 30) || consumers < 1 || sampleRate < 1) {
+            throw new IllegalArgumentException("Invalid capacity, number of consumers or sample rate.");
+        }
+        this.ctx = ctx;
+        this.policy = policy;
+        this.sampleRate = sampleRate;
+        int size = Integer.highestOneBit(capacity * 2 - 1);
+        this.mask = size - 1;
+        this.sequences = new AtomicLongArray(size);
+        this.items = new AtomicReferenceArray<>(size);
+        this.sessions = new AtomicReferenceArray<>(size);
+        for (int t = 0; t < size; t++) {
+            sequences.set(t, t);
+        }
+        this.consumers = new Thread[consumers];
+        this.parked = new AtomicIntegerArray(consumers);
+        for (int t = 0; t < consumers; t++) {
+            int idx = t;
+            this.consumers[t] = new Thread(() -> consume(idx), "harbinger-evidence-" + t);
+            this.consumers[t].setDaemon(true);
+            this.consumers[t].start();
+        }
+    }
+
+    /**
+     * Publishes the evidence of a completed request without session.
+     * @param evidence the evidence.
+     */
+    public void publish(Evidence evidence) {
+        publish(evidence, null);
+    }
+
+    /**
+     * Publishes the evidence of a completed request.
+     * @param evidence the evidence.
+     * @param session the session of the request, to invalidate if the
+     *        decider says so, null if none.
+     */
+    public void publish(Evidence evidence, HttpSession session) {
+        if (!running) {
+            dropped.increment();
+            return;
+        }
+        if (offer(evidence, session)) {
+            published.increment();
+            return;
+        }
+        switch (policy) {
+        case BLOCK:
+            long idle = 0;
+            while (!offer(evidence, session)) {
+                if (!running) {
+                    dropped.increment();
+                    return;
+                }
+                idle = idle(idle);
+            }
+            published.increment();
+            break;
+        case SAMPLE:
+            if (full.incrementAndGet() % sampleRate == 0) {
+                sampled.increment();
+                process(evidence, session);
+            } else {
+                dropped.increment();
+            }
+            break;
+        default:
+            dropped.increment();
+        }
+    }
+
+    private boolean offer(Evidence evidence, HttpSession session) {
+        long pos = tail.get();
+        while (true) {
+            int idx = (int) (pos & mask);
+            long diff = sequences.get(idx) - pos;
+            if (diff == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    items.lazySet(idx, evidence);
+                    sessions.lazySet(idx, session);
+                    // a volatile write, so a consumer that is about to park either sees it or is seen idle.
+                    sequences.set(idx, pos + 1);
+                    if (idleConsumers.get() > 0) {
+                        wakeConsumer();
+                    }
+                    maxDepth.accumulate(pos + 1 - head.get());
+                    return true;
+                }
+                pos = tail.get();
+            } else if (diff < 0) {
+                return false;
+            } else {
+                pos = tail.get();
+            }
+        }
+    }
+
+    private void wakeConsumer() {
+        for (int t = 0; t < consumers.length; t++) {
+            if (parked.get(t) == 1 && parked.compareAndSet(t, 1, 0)) {
+                LockSupport.unpark(consumers[t]);
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return true if an evidence was taken from the buffer and processed.
+     */
+    private boolean poll() {
+        long pos = head.get();
+        while (true) {
+            int idx = (int) (pos & mask);
+            long diff = sequences.get(idx) - (pos + 1);
+            if (diff == 0) {
+                if (head.compareAndSet(pos, pos + 1)) {
+                    Evidence evidence = items.get(idx);
+                    HttpSession session = sessions.get(idx);
+                    items.lazySet(idx, null);
+                    sessions.lazySet(idx, null);
+                    sequences.lazySet(idx, pos + mask + 1);
+                    process(evidence, session);
+                    return true;
+                }
+                pos = head.get();
+            } else if (diff < 0) {
+                return false;
+            } else {
+                pos = head.get();
+            }
+        }
+    }
+
+    private void consume(int idx) {
+        int spins = 0;
+        while (running || getQueueDepth() > 0) {
+            if (poll()) {
+                spins = 0;
+            } else if (spins < SPINS) {
+                Thread.yield();
+                spins++;
+            } else {
+                parked.set(idx, 1);
+                idleConsumers.incrementAndGet();
+                if (!poll() && running) {
+                    LockSupport.park(this);
+                }
+                parked.set(idx, 0);
+                idleConsumers.decrementAndGet();
+                spins = 0;
+            }
+        }
+    }
+
+    /**
+     * spins briefly, then parks for exponentially longer up to 1ms, for
+     * publishers waiting for room.
+     */
+    private static long idle(long idle) {
+        if (idle < SPINS) {
+            Thread.yield();
+            return idle + 1;
+        }
+        long nanos = Math.min(MAX_IDLE_NANOS, idle);
+        LockSupport.parkNanos(nanos);
+        return nanos * 2;
+    }
+
+    private void process(Evidence evidence, HttpSession session) {
+        try {
+            Evidence ev = ctx.getEvidenceCollector().store(evidence);
+            ResponseAction action = ctx.getResponseDecider().decide(ev);
+            if (action instanceof InvalidateSessionAction) {
+                ((InvalidateSessionAction) action).perform(ctx, session);
+            } else {
+                action.perform(ctx);
+            }
+        } catch (RuntimeException ex) {
+            LOGGER.error("Failed to process evidence.", ex);
+        } finally {
+            processed.increment();
+        }
+    }
+
+    /**
+     * Stops accepting evidence, processes what is in the buffer and stops
+     * the consumers.
+     */
+    @Override
+    public void close() {
+        running = false;
+        for (Thread consumer : consumers) {
+            LockSupport.unpark(consumer);
+        }
+        for (Thread consumer : consumers) {
+            try {
+                consumer.join();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return the number of evidences in the buffer.
+     */
+    public long getQueueDepth() {
+        return Math.max(0, tail.get() - head.get());
+    }
+
+    /**
+     * @return the highest number of evidences that were in the buffer.
+     */
+    public long getMaxQueueDepth() {
+        return maxDepth.get();
+    }
+
+    /**
+     * @return the size of the buffer.
+     */
+    public int getCapacity() {
+        return mask + 1;
+    }
+
+    /**
+     * @return the number of evidences published into the buffer.
+     */
+    public long getPublished() {
+        return published.sum();
+    }
+
+    /**
+     * @return the number of evidences processed, by consumers or sampled.
+     */
+    public long getProcessed() {
+        return processed.sum();
+    }
+
+    /**
+     * @return the number of evidences discarded because the buffer was full.
+     */
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    /**
+     * @return the number of evidences processed on the request thread
+     *         because the buffer was full.
+     */
+    public long getSampled() {
+        return sampled.sum();
+    }
+}
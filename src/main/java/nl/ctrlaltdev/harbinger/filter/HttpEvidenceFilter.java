@@ -16,7 +16,6 @@
 package nl.ctrlaltdev.harbinger.filter;
 
 import java.io.IOException;
-import java.util.Map;
 
 import javax.servlet.FilterChain;
 import javax.servlet.ServletException;
@@ -30,12 +29,25 @@ import nl.ctrlaltdev.harbinger.evidence.Evidence;
 
 /**
  * Collects evidence for each HTTP Request. Should be placed last the Spring
- * Security Filter Chain.
+ * Security Filter Chain. Optionally the evidence of completed requests is
+ * handed to an {@link EvidencePipeline} instead of being processed on the
+ * request thread.
+ * <p>
+ * Without pipeline, requests with nothing to report (2xx/3xx without
+ * exception) take a fast path: they are only counted in place and the
+ * decider is only consulted if it says a decision is required. Whitelisted
+ * requests are not counted, so the decider is not consulted for them.
+ * <p>
+ * The parameters of a request are validated as a whole, so the white list is
+ * resolved once per request: the parameters of requests that it ignores on
+ * IP, URL or user alone are not validated at all, see
+ * {@link nl.ctrlaltdev.harbinger.whitelist.WhiteList#isWhitelistedBeforeScan}.
  */
 public class HttpEvidenceFilter extends OncePerRequestFilter {
 
     private HarbingerContext ctx;
     private boolean validateRequestParameters;
+    private EvidencePipeline pipeline;
 
     /**
      * Creates a new HttpEvidenceFilter that validates all request parameters.
@@ -52,8 +64,21 @@ public class HttpEvidenceFilter extends OncePerRequestFilter {
      *        parameters for malicious input.
      */
     public HttpEvidenceFilter(HarbingerContext ctx, boolean validateRequestParameters) {
+        this(ctx, validateRequestParameters, null);
+    }
+
+    /**
+     * Creates a new HttpEvidenceFilter.
+     * @param ctx the HarbingerContext.
+     * @param validateRequestParameters if true, Harbinger checks all request
+     *        parameters for malicious input.
+     * @param pipeline the pipeline that processes the evidence of completed
+     *        requests, null to process it on the request thread.
+     */
+    public HttpEvidenceFilter(HarbingerContext ctx, boolean validateRequestParameters, EvidencePipeline pipeline) {
         this.ctx = ctx;
         this.validateRequestParameters = validateRequestParameters;
+        this.pipeline = pipeline;
     }
 
     @Override
@@ -67,24 +92,34 @@ public class HttpEvidenceFilter extends OncePerRequestFilter {
                 evidence = new Evidence(evidence, ex);
                 throw ex;
             } finally {
-                Evidence ev = ctx.getEvidenceCollector().store(new Evidence(evidence, response));
-                ctx.getResponseDecider().decide(ev).perform(ctx);
+                if (pipeline != null) {
+                    pipeline.publish(new Evidence(evidence, response), request.getSession(false));
+                } else if (isBenign(evidence, response)) {
+                    if (ctx.getEvidenceCollector().storeRequest(evidence, response.getStatus())
+                            && ctx.getResponseDecider().isDecisionRequired(evidence)) {
+                        ctx.getResponseDecider().decide(new Evidence(evidence, response)).perform(ctx);
+                    }
+                } else {
+                    Evidence ev = ctx.getEvidenceCollector().store(new Evidence(evidence, response));
+                    ctx.getResponseDecider().decide(ev).perform(ctx);
+                }
             }
         } else {
             response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
         }
     }
 
+    /**
+     * @return true if the request has nothing to report, so it can take the
+     *         fast path that only counts it.
+     */
+    private boolean isBenign(Evidence evidence, HttpServletResponse response) {
+        int status = response.getStatus();
+        return status >= 200 && status < 400 && evidence.getExceptionType() == null;
+    }
+
     private boolean isValid(HttpServletRequest request, Evidence evidence) {
-        if (validateRequestParameters) {
-            for (Map.Entry<String, String[]> e : request.getParameterMap().entrySet()) {
-                for (String v : e.getValue()) {
-                    if (!ctx.isValidParameter(evidence, e.getKey(), v)) {
-                        return false;
-                    }
-                }
-            }
-        }
-        return true;
+        return !validateRequestParameters || request.getParameterMap().isEmpty()
+                || ctx.isValidParameters(evidence, request.getParameterMap());
     }
 }
@@ -0,0 +1,329 @@
+/*
+ * Copyright 2016 E.Hooijmeijer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.ctrlaltdev.harbinger.ip;
+
+/**
+ * Codec for IP addresses as two longs, the high and low 64 bits of an IPv6
+ * address. IPv4 addresses are encoded as IPv4 mapped IPv6 addresses
+ * (::ffff:a.b.c.d), so both share a single key space and a client is the
+ * same key whichever notation the container reports. Parsing does not
+ * allocate.
+ */
+public final class IpAddress {
+
+    /** the high 32 bits of the low long of an IPv4 mapped address. */
+    private static final long IPV4_MAPPED = 0xFFFFL << 32;
+
+    private IpAddress() {
+    }
+
+    /**
+     * @param addr the textual address, IPv4 (1.2.3.4) or IPv6 (::1), with or
+     *        without brackets or zone id.
+     * @param out receives the high (0) and low (1) 64 bits of the address.
+     * @return true if the address is valid, false if not, in which case out
+     *         is undefined.
+     */
+    public static boolean parse(CharSequence addr, long[] out) {
+        if (addr == null) {
+            return false;
+        }
+        int from = 0;
+        int to = addr.length();
+        if (to > 1 && addr.charAt(0) == '[' && addr.charAt(to - 1) == ']') {
+            from++;
+            to--;
+        }
+        boolean ipv6 = false;
+        for (int t = from; t < to; t++) {
+            char c = addr.charAt(t);
+            if (c == '%') {
+                to = t;
+            } else if (c == ':') {
+                ipv6 = true;
+            }
+        }
+        if (ipv6) {
+            return parse6(addr, from, to, out);
+        }
+        long v4 = parse4(addr, from, to);
+        if (v4 < 0) {
+            return false;
+        }
+        out[0] = 0;
+        out[1] = IPV4_MAPPED | v4;
+        return true;
+    }
+
+    /**
+     * Parses an address or a range in CIDR notation (10.0.0.0/8,
+     * 2001:db8::/32). Bits beyond the prefix are cleared.
+     * @param cidr the address or range, an address without prefix is a range
+     *        of a single address.
+     * @param out receives the high (0) and low (1) 64 bits of the range.
+     * @return the prefix length in bits of the IPv6 (mapped) range, so 96 +
+     *         the prefix for dotted IPv4, or -1 if invalid. The prefix of an
+     *         IPv4 mapped range in IPv6 notation (::ffff:0:0/96) is taken as
+     *         is.
+     */
+    public static int parseCidr(CharSequence cidr, long[] out) {
+        if (cidr == null) {
+            return -1;
+        }
+        int slash = -1;
+        for (int t = cidr.length() - 1; t >= 0 && slash < 0; t--) {
+            if (cidr.charAt(t) == '/') {
+                slash = t;
+            }
+        }
+        if (slash < 0) {
+            return parse(cidr, out) ? 128 : -1;
+        }
+        if (!parse(cidr.subSequence(0, slash), out)) {
+            return -1;
+        }
+        int digits = cidr.length() - slash - 1;
+        if (digits < 1 || digits > 3) {
+            return -1;
+        }
+        int prefix = 0;
+        for (int t = slash + 1; t < cidr.length(); t++) {
+            char c = cidr.charAt(t);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            prefix = prefix * 10 + (c - '0');
+        }
+        if (isDotted(cidr, slash)) {
+            prefix += 96;
+        }
+        if (prefix > 128) {
+            return -1;
+        }
+        out[0] &= highMask(prefix);
+        out[1] &= lowMask(prefix);
+        return prefix;
+    }
+
+    /**
+     * @return true if the address is written as dotted IPv4, so its prefix
+     *         counts in the IPv4 space, rather than in IPv6 notation.
+     */
+    private static boolean isDotted(CharSequence cidr, int end) {
+        for (int t = 0; t < end; t++) {
+            if (cidr.charAt(t) == ':') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param prefix the prefix length (0-128).
+     * @return the mask of the high 64 bits of the prefix.
+     */
+    public static long highMask(int prefix) {
+        return prefix >= 64 ? -1L : prefix == 0 ? 0 : -1L << (64 - prefix);
+    }
+
+    /**
+     * @param prefix the prefix length (0-128).
+     * @return the mask of the low 64 bits of the prefix.
+     */
+    public static long lowMask(int prefix) {
+        return prefix <= 64 ? 0 : prefix == 128 ? -1L : -1L << (128 - prefix);
+    }
+
+    /**
+     * @return the 32 bit address, or -1 if invalid.
+     */
+    private static long parse4(CharSequence addr, int from, int to) {
+        long value = 0;
+        int parts = 0;
+        int pos = from;
+        while (parts < 4) {
+            int digits = 0;
+            int part = 0;
+            while (pos < to && digits < 4) {
+                char c = addr.charAt(pos);
+                if (c < '0' || c > '9') {
+                    break;
+                }
+                part = part * 10 + (c - '0');
+                digits++;
+                pos++;
+            }
+            if (digits == 0 || digits > 3 || part > 255) {
+                return -1;
+            }
+            value = (value << 8) | part;
+            parts++;
+            if (parts < 4) {
+                if (pos >= to || addr.charAt(pos) != '.') {
+                    return -1;
+                }
+                pos++;
+            }
+        }
+        return pos == to ? value : -1;
+    }
+
+    private static boolean parse6(CharSequence addr, int from, int to, long[] out) {
+        // groups before the '::' are shifted into head, those after into tail.
+        long headHi = 0;
+        long headLo = 0;
+        long tailHi = 0;
+        long tailLo = 0;
+        int headGroups = 0;
+        int tailGroups = 0;
+        boolean compressed = false;
+        int pos = from;
+        if (to - from >= 2 && addr.charAt(from) == ':' && addr.charAt(from + 1) == ':') {
+            compressed = true;
+            pos += 2;
+        }
+        while (pos < to) {
+            int start = pos;
+            int group = 0;
+            while (pos < to && pos - start < 5) {
+                int d = Character.digit(addr.charAt(pos), 16);
+                if (d < 0 || addr.charAt(pos) > 'f') {
+                    break;
+                }
+                group = (group << 4) | d;
+                pos++;
+            }
+            int groups;
+            if (pos < to && addr.charAt(pos) == '.') {
+                long v4 = parse4(addr, start, to);
+                if (v4 < 0) {
+                    return false;
+                }
+                pos = to;
+                groups = 2;
+                group = (int) v4;
+            } else {
+                if (pos == start || pos - start > 4) {
+                    return false;
+                }
+                groups = 1;
+            }
+            int bits = groups * 16;
+            long mask = (1L << bits) - 1;
+            if (compressed) {
+                tailHi = (tailHi << bits) | (tailLo >>> (64 - bits));
+                tailLo = (tailLo << bits) | (group & mask);
+                tailGroups += groups;
+            } else {
+                headHi = (headHi << bits) | (headLo >>> (64 - bits));
+                headLo = (headLo << bits) | (group & mask);
+                headGroups += groups;
+            }
+            if (headGroups + tailGroups > 8) {
+                return false;
+            }
+            if (pos < to) {
+                if (addr.charAt(pos) != ':' || pos + 1 >= to) {
+                    return false;
+                }
+                pos++;
+                if (addr.charAt(pos) == ':') {
+                    if (compressed) {
+                        return false;
+                    }
+                    compressed = true;
+                    pos++;
+                }
+            }
+        }
+        if (compressed) {
+            if (headGroups + tailGroups > 7) {
+                return false;
+            }
+            int shift = (8 - headGroups) * 16;
+            out[0] = shl(headHi, headLo, shift, true) | tailHi;
+            out[1] = shl(headHi, headLo, shift, false) | tailLo;
+        } else {
+            if (headGroups != 8) {
+                return false;
+            }
+            out[0] = headHi;
+            out[1] = headLo;
+        }
+        return true;
+    }
+
+    /**
+     * @return the high or low long of the 128 bit value shifted left.
+     */
+    private static long shl(long hi, long lo, int shift, boolean high) {
+        if (shift >= 128) {
+            return 0;
+        } else if (shift >= 64) {
+            return high ? lo << (shift - 64) : 0;
+        } else if (shift == 0) {
+            return high ? hi : lo;
+        }
+        return high ? (hi << shift) | (lo >>> (64 - shift)) : lo << shift;
+    }
+
+    /**
+     * @param hi the high 64 bits.
+     * @param lo the low 64 bits.
+     * @return true if the address is an (IPv4 mapped) IPv4 address.
+     */
+    public static boolean isIpv4(long hi, long lo) {
+        return hi == 0 && (lo & 0xFFFFFFFF00000000L) == IPV4_MAPPED;
+    }
+
+    /**
+     * @param hi the high 64 bits.
+     * @param lo the low 64 bits.
+     * @param prefix the prefix length of the IPv6 (mapped) range.
+     * @return the range in CIDR notation, with an IPv4 prefix for IPv4.
+     */
+    public static String formatCidr(long hi, long lo, int prefix) {
+        boolean ipv4 = isIpv4(hi, lo) && prefix >= 96;
+        return format(hi, lo) + "/" + (ipv4 ? prefix - 96 : prefix);
+    }
+
+    /**
+     * @param hi the high 64 bits.
+     * @param lo the low 64 bits.
+     * @return the address in dotted notation for IPv4, or the full IPv6
+     *         notation without compression.
+     */
+    public static String format(long hi, long lo) {
+        StringBuilder sb = new StringBuilder(39);
+        if (isIpv4(hi, lo)) {
+            for (int t = 24; t >= 0; t -= 8) {
+                sb.append((lo >>> t) & 0xFF);
+                if (t > 0) {
+                    sb.append('.');
+                }
+            }
+        } else {
+            for (int t = 0; t < 8; t++) {
+                long half = t < 4 ? hi : lo;
+                sb.append(Long.toHexString((half >>> ((3 - (t & 3)) * 16)) & 0xFFFF));
+                if (t < 7) {
+                    sb.append(':');
+                }
+            }
+        }
+        return sb.toString();
+    }
+}
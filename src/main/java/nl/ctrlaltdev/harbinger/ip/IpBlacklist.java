@@ -0,0 +1,285 @@
+/*
+ * Copyright 2016 E.Hooijmeijer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.ctrlaltdev.harbinger.ip;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Temporary blacklist of IP addresses and ranges (CIDR), such as a /24 or a
+ * /64 during a distributed attack.
+ * <p>
+ * The ranges are kept in an immutable, path compressed, binary radix trie
+ * over 128 bit (IPv4 mapped) addresses. A lookup walks the trie from a
+ * volatile root without taking any lock. Changes copy the path from the
+ * root to the changed node and swap the root with a CAS, retrying when
+ * another change came first. Expired ranges are ignored by lookups and
+ * removed by a background thread, which is started with the first entry.
+ * <p>
+ * Remote addresses that are not IP addresses are blacklisted as is.
+ */
+public class IpBlacklist implements AutoCloseable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(IpBlacklist.class);
+    private static final ThreadLocal<long[]> SCRATCH = ThreadLocal.withInitial(() -> new long[2]);
+
+    /**
+     * a node in the trie, a range with an expiry (0 if it only splits the
+     * trie) and the subranges below it by the next bit.
+     */
+    private static final class Node {
+        final long hi;
+        final long lo;
+        final int prefix;
+        final long until;
+        final Node zero;
+        final Node one;
+
+        Node(long hi, long lo, int prefix, long until, Node zero, Node one) {
+            this.hi = hi;
+            this.lo = lo;
+            this.prefix = prefix;
+            this.until = until;
+            this.zero = zero;
+            this.one = one;
+        }
+
+        Node withChild(boolean bit, Node child) {
+            return bit ? new Node(hi, lo, prefix, until, zero, child) : new Node(hi, lo, prefix, until, child, one);
+        }
+
+        Node child(boolean bit) {
+            return bit ? one : zero;
+        }
+    }
+
+    private final AtomicReference<Node> root = new AtomicReference<>();
+    private final Map<String, Instant> other = new ConcurrentHashMap<>();
+    private final Duration purgeInterval;
+    private volatile ScheduledExecutorService purger;
+
+    public IpBlacklist() {
+        this(Duration.ofMinutes(1));
+    }
+
+    /**
+     * @param purgeInterval the interval at which expired entries are removed,
+     *        null to only remove them on {@link #purge(Instant)}.
+     */
+    public IpBlacklist(Duration purgeInterval) {
+        this.purgeInterval = purgeInterval;
+    }
+
+    /**
+     * @param addressOrRange an IP address or range in CIDR notation.
+     * @param until the instant until which it is blacklisted.
+     */
+    public void add(String addressOrRange, Instant until) {
+        long[] key = SCRATCH.get();
+        int prefix = IpAddress.parseCidr(addressOrRange, key);
+        if (prefix < 0) {
+            other.put(addressOrRange, until);
+        } else {
+            add(key[0], key[1], prefix, until);
+        }
+        startPurger();
+    }
+
+    /**
+     * @param hi the high 64 bits of the range.
+     * @param lo the low 64 bits of the range.
+     * @param prefix the prefix length of the range (0-128).
+     * @param until the instant until which it is blacklisted.
+     */
+    public void add(long hi, long lo, int prefix, Instant until) {
+        if (prefix < 0 || prefix > 128) {
+            throw new IllegalArgumentException("Invalid prefix length " + prefix);
+        }
+        long h = hi & IpAddress.highMask(prefix);
+        long l = lo & IpAddress.lowMask(prefix);
+        long u = until.toEpochMilli();
+        while (true) {
+            Node current = root.get();
+            if (root.compareAndSet(current, insert(current, h, l, prefix, u))) {
+                return;
+            }
+        }
+    }
+
+    private static Node insert(Node node, long hi, long lo, int prefix, long until) {
+        if (node == null) {
+            return new Node(hi, lo, prefix, until, null, null);
+        }
+        int common = common(node.hi, node.lo, hi, lo, Math.min(node.prefix, prefix));
+        if (common == node.prefix && common == prefix) {
+            return new Node(hi, lo, prefix, until, node.zero, node.one);
+        } else if (common == node.prefix) {
+            boolean bit = bit(hi, lo, common);
+            return node.withChild(bit, insert(node.child(bit), hi, lo, prefix, until));
+        } else if (common == prefix) {
+            return new Node(hi, lo, prefix, until, null, null).withChild(bit(node.hi, node.lo, common), node);
+        }
+        Node leaf = new Node(hi, lo, prefix, until, null, null);
+        Node split = new Node(hi & IpAddress.highMask(common), lo & IpAddress.lowMask(common), common, 0, null, null);
+        return bit(hi, lo, common) ? split.withChild(false, node).withChild(true, leaf) : split.withChild(false, leaf).withChild(true, node);
+    }
+
+    /**
+     * @param remoteAddr the remote address.
+     * @param now the reference instant.
+     * @return true if the address is in a range that is blacklisted at now.
+     */
+    public boolean isBlacklisted(String remoteAddr, Instant now) {
+        long[] key = SCRATCH.get();
+        if (!IpAddress.parse(remoteAddr, key)) {
+            Instant until = other.get(remoteAddr);
+            return until != null && until.isAfter(now);
+        }
+        return isBlacklisted(key[0], key[1], now.toEpochMilli());
+    }
+
+    /**
+     * @param hi the high 64 bits of the address.
+     * @param lo the low 64 bits of the address.
+     * @param now the reference epoch millis.
+     * @return true if the address is in a range that is blacklisted at now.
+     */
+    public boolean isBlacklisted(long hi, long lo, long now) {
+        Node node = root.get();
+        while (node != null) {
+            if (((hi ^ node.hi) & IpAddress.highMask(node.prefix)) != 0 || ((lo ^ node.lo) & IpAddress.lowMask(node.prefix)) != 0) {
+                return false;
+            }
+            if (node.until > now) {
+                return true;
+            }
+            if (node.prefix == 128) {
+                return false;
+            }
+            node = node.child(bit(hi, lo, node.prefix));
+        }
+        return false;
+    }
+
+    /**
+     * Removes the entries that have expired at now.
+     * @param now the reference instant.
+     * @return the number of removed entries.
+     */
+    public int purge(Instant now) {
+        long ref = now.toEpochMilli();
+        int removed = 0;
+        for (Map.Entry<String, Instant> entry : other.entrySet()) {
+            if (!entry.getValue().isAfter(now) && other.remove(entry.getKey(), entry.getValue())) {
+                removed++;
+            }
+        }
+        while (true) {
+            Node current = root.get();
+            int expired = count(current, ref, true);
+            if (expired == 0 || root.compareAndSet(current, purge(current, ref))) {
+                return removed + expired;
+            }
+        }
+    }
+
+    private static Node purge(Node node, long now) {
+        if (node == null) {
+            return null;
+        }
+        Node zero = purge(node.zero, now);
+        Node one = purge(node.one, now);
+        if (node.until > now) {
+            return (zero == node.zero && one == node.one) ? node : new Node(node.hi, node.lo, node.prefix, node.until, zero, one);
+        } else if (zero == null) {
+            return one;
+        } else if (one == null) {
+            return zero;
+        }
+        return new Node(node.hi, node.lo, node.prefix, 0, zero, one);
+    }
+
+    /**
+     * @return the number of entries, expired or not.
+     */
+    public int size() {
+        return count(root.get(), Long.MAX_VALUE, false) + other.size();
+    }
+
+    private static int count(Node node, long now, boolean expired) {
+        if (node == null) {
+            return 0;
+        }
+        int self = node.until != 0 && (!expired || node.until <= now) ? 1 : 0;
+        return self + count(node.zero, now, expired) + count(node.one, now, expired);
+    }
+
+    private void startPurger() {
+        if (purger != null || purgeInterval == null) {
+            return;
+        }
+        synchronized (this) {
+            if (purger == null) {
+                ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(r -> {
+                    Thread thread = new Thread(r, "harbinger-blacklist-purge");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+                long interval = purgeInterval.toMillis();
+                executor.scheduleWithFixedDelay(() -> {
+                    int removed = purge(Instant.now());
+                    if (removed > 0) {
+                        LOGGER.info("Removed {} expired blacklist entries", removed);
+                    }
+                }, interval, interval, TimeUnit.MILLISECONDS);
+                purger = executor;
+            }
+        }
+    }
+
+    /**
+     * stops the background purge.
+     */
+    @Override
+    public void close() {
+        ScheduledExecutorService executor = purger;
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    private static boolean bit(long hi, long lo, int idx) {
+        return idx < 64 ? ((hi >>> (63 - idx)) & 1) != 0 : ((lo >>> (127 - idx)) & 1) != 0;
+    }
+
+    private static int common(long h1, long l1, long h2, long l2, int max) {
+        long x = h1 ^ h2;
+        if (x != 0) {
+            return Math.min(Long.numberOfLeadingZeros(x), max);
+        }
+        x = l1 ^ l2;
+        return x == 0 ? max : Math.min(64 + Long.numberOfLeadingZeros(x), max);
+    }
+}
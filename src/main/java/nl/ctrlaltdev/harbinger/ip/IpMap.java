@@ -0,0 +1,348 @@
+/*
+ * Copyright 2016 E.Hooijmeijer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.ctrlaltdev.harbinger.ip;
+
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Concurrent map keyed by IP address. Addresses are parsed by
+ * {@link IpAddress} into two longs which are stored inline in open
+ * addressing (linear probing) tables, so an entry costs about 20 bytes plus
+ * slack instead of a String and a hash map node, and a lookup neither
+ * allocates nor hashes a string.
+ * <p>
+ * The map is split into segments, each guarded by a StampedLock: lookups
+ * are optimistic and only take the read lock when they raced with a write.
+ * Keys that are not valid IP addresses (hostnames, 'unknown', ..) are kept
+ * in a regular map on the side.
+ * <p>
+ * The hash is seeded randomly per map. An IPv6 client picks the low 64 bits
+ * of its address freely, so with a fixed hash it could choose addresses
+ * that all land in one probing cluster.
+ *
+ * @param <V> the value type.
+ */
+public class IpMap<V> {
+
+    private static final ThreadLocal<long[]> SCRATCH = ThreadLocal.withInitial(() -> new long[2]);
+    private static final int INITIAL_CAPACITY = 16;
+
+    /**
+     * a single open addressing table. Keys are stored as (high, low) pairs
+     * in keys, a null value marks an empty slot.
+     */
+    private static final class Segment {
+        private final long seed;
+        private final StampedLock lock = new StampedLock();
+        private long[] keys = new long[INITIAL_CAPACITY * 2];
+        private Object[] values = new Object[INITIAL_CAPACITY];
+        private int size;
+
+        Segment(long seed) {
+            this.seed = seed;
+        }
+
+        private Object find(long hi, long lo, int hash) {
+            long[] k = keys;
+            Object[] v = values;
+            if (k.length != v.length * 2) {
+                return null; // raced with a resize, validation will fail.
+            }
+            int mask = v.length - 1;
+            int idx = hash & mask;
+            for (int n = 0; n <= mask; n++) {
+                Object value = v[idx];
+                if (value == null) {
+                    return null;
+                } else if (k[idx * 2] == hi && k[idx * 2 + 1] == lo) {
+                    return value;
+                }
+                idx = (idx + 1) & mask;
+            }
+            return null;
+        }
+
+        private Object get(long hi, long lo, int hash) {
+            long stamp = lock.tryOptimisticRead();
+            Object value = find(hi, lo, hash);
+            if (!lock.validate(stamp)) {
+                stamp = lock.readLock();
+                try {
+                    value = find(hi, lo, hash);
+                } finally {
+                    lock.unlockRead(stamp);
+                }
+            }
+            return value;
+        }
+
+        /**
+         * @return the slot of the key, or the empty slot where it belongs.
+         */
+        private int slot(long hi, long lo, int hash) {
+            int mask = values.length - 1;
+            int idx = hash & mask;
+            while (values[idx] != null && (keys[idx * 2] != hi || keys[idx * 2 + 1] != lo)) {
+                idx = (idx + 1) & mask;
+            }
+            return idx;
+        }
+
+        private Object put(long hi, long lo, int hash, Object value, boolean onlyIfAbsent) {
+            long stamp = lock.writeLock();
+            try {
+                int idx = slot(hi, lo, hash);
+                Object previous = values[idx];
+                if (previous == null) {
+                    keys[idx * 2] = hi;
+                    keys[idx * 2 + 1] = lo;
+                    values[idx] = value;
+                    if (++size > values.length * 3 / 4) {
+                        resize();
+                    }
+                } else if (!onlyIfAbsent) {
+                    values[idx] = value;
+                }
+                return previous;
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        private Object remove(long hi, long lo, int hash, Object expected) {
+            long stamp = lock.writeLock();
+            try {
+                int idx = slot(hi, lo, hash);
+                Object previous = values[idx];
+                if (previous == null || (expected != null && previous != expected)) {
+                    return null;
+                }
+                delete(idx);
+                return previous;
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        /**
+         * removes the entry at idx and shifts back the entries that follow
+         * it in the same cluster, so no tombstones are needed.
+         */
+        private void delete(int idx) {
+            int mask = values.length - 1;
+            int gap = idx;
+            int next = (gap + 1) & mask;
+            while (values[next] != null) {
+                int home = hash(seed, keys[next * 2], keys[next * 2 + 1]) & mask;
+                // move the entry into the gap unless its home lies cyclically in (gap, next].
+                if (((next - home) & mask) >= ((next - gap) & mask)) {
+                    keys[gap * 2] = keys[next * 2];
+                    keys[gap * 2 + 1] = keys[next * 2 + 1];
+                    values[gap] = values[next];
+                    gap = next;
+                }
+                next = (next + 1) & mask;
+            }
+            values[gap] = null;
+            size--;
+        }
+
+        private void resize() {
+            long[] oldKeys = keys;
+            Object[] oldValues = values;
+            int capacity = oldValues.length * 2;
+            long[] newKeys = new long[capacity * 2];
+            Object[] newValues = new Object[capacity];
+            int mask = capacity - 1;
+            for (int t = 0; t < oldValues.length; t++) {
+                if (oldValues[t] != null) {
+                    long hi = oldKeys[t * 2];
+                    long lo = oldKeys[t * 2 + 1];
+                    int idx = hash(seed, hi, lo) & mask;
+                    while (newValues[idx] != null) {
+                        idx = (idx + 1) & mask;
+                    }
+                    newKeys[idx * 2] = hi;
+                    newKeys[idx * 2 + 1] = lo;
+                    newValues[idx] = oldValues[t];
+                }
+            }
+            keys = newKeys;
+            values = newValues;
+        }
+
+        private void collect(List<Object> into) {
+            long stamp = lock.readLock();
+            try {
+                for (Object value : values) {
+                    if (value != null) {
+                        into.add(value);
+                    }
+                }
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        private int size() {
+            long stamp = lock.readLock();
+            try {
+                return size;
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+    }
+
+    private final long seed = new SecureRandom().nextLong();
+    private final Segment[] segments;
+    private final int segmentShift;
+    private final Map<String, V> other = new ConcurrentHashMap<>();
+
+    public IpMap() {
+        this(16);
+    }
+
+    /**
+     * @param concurrency the number of segments, rounded up to a power of two.
+     */
+    public IpMap(int concurrency) {
+        int n = Integer.highestOneBit(Math.max(1, Math.min(concurrency, 1 << 16)) * 2 - 1);
+        this.segments = new Segment[n];
+        for (int t = 0; t < n; t++) {
+            segments[t] = new Segment(seed);
+        }
+        this.segmentShift = 32 - Integer.numberOfTrailingZeros(n);
+    }
+
+    /**
+     * @return the seeded hash of the address, two rounds so that the seed
+     *         affects every bit.
+     */
+    int hash(long hi, long lo) {
+        return hash(seed, hi, lo);
+    }
+
+    private static int hash(long seed, long hi, long lo) {
+        long h = (hi * 0x9E3779B97F4A7C15L) ^ lo ^ seed;
+        h = (h ^ (h >>> 32)) * 0xD6E8FEB86659FD93L;
+        h = (h ^ (h >>> 29) ^ seed) * 0xD6E8FEB86659FD93L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private Segment segment(int hash) {
+        return segments.length == 1 ? segments[0] : segments[hash >>> segmentShift];
+    }
+
+    /**
+     * @param hi the high 64 bits of the address.
+     * @param lo the low 64 bits of the address.
+     * @return the value or null.
+     */
+    @SuppressWarnings("unchecked")
+    public V get(long hi, long lo) {
+        int hash = hash(seed, hi, lo);
+        return (V) segment(hash).get(hi, lo, hash);
+    }
+
+    @SuppressWarnings("unchecked")
+    public V put(long hi, long lo, V value) {
+        int hash = hash(seed, hi, lo);
+        return (V) segment(hash).put(hi, lo, hash, checked(value), false);
+    }
+
+    @SuppressWarnings("unchecked")
+    public V putIfAbsent(long hi, long lo, V value) {
+        int hash = hash(seed, hi, lo);
+        return (V) segment(hash).put(hi, lo, hash, checked(value), true);
+    }
+
+    @SuppressWarnings("unchecked")
+    public V remove(long hi, long lo) {
+        int hash = hash(seed, hi, lo);
+        return (V) segment(hash).remove(hi, lo, hash, null);
+    }
+
+    /**
+     * @return true if the address was mapped to the value and is removed.
+     */
+    public boolean remove(long hi, long lo, V value) {
+        int hash = hash(seed, hi, lo);
+        return segment(hash).remove(hi, lo, hash, checked(value)) != null;
+    }
+
+    /**
+     * @param addr the textual address.
+     * @return the value or null.
+     */
+    public V get(String addr) {
+        long[] key = SCRATCH.get();
+        return IpAddress.parse(addr, key) ? get(key[0], key[1]) : other.get(addr);
+    }
+
+    public V put(String addr, V value) {
+        long[] key = SCRATCH.get();
+        return IpAddress.parse(addr, key) ? put(key[0], key[1], value) : other.put(addr, value);
+    }
+
+    public V putIfAbsent(String addr, V value) {
+        long[] key = SCRATCH.get();
+        return IpAddress.parse(addr, key) ? putIfAbsent(key[0], key[1], value) : other.putIfAbsent(addr, value);
+    }
+
+    public V remove(String addr) {
+        long[] key = SCRATCH.get();
+        return IpAddress.parse(addr, key) ? remove(key[0], key[1]) : other.remove(addr);
+    }
+
+    public boolean remove(String addr, V value) {
+        long[] key = SCRATCH.get();
+        return IpAddress.parse(addr, key) ? remove(key[0], key[1], value) : other.remove(addr, value);
+    }
+
+    /**
+     * @return a snapshot of the values.
+     */
+    @SuppressWarnings("unchecked")
+    public List<V> values() {
+        List<Object> result = new ArrayList<>();
+        for (Segment segment : segments) {
+            segment.collect(result);
+        }
+        result.addAll(other.values());
+        return (List<V>) result;
+    }
+
+    public int size() {
+        int size = other.size();
+        for (Segment segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    private static Object checked(Object value) {
+        if (value == null) {
+            throw new NullPointerException("Null values are not supported.");
+        }
+        return value;
+    }
+}
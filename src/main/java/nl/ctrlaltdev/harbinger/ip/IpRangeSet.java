@@ -0,0 +1,141 @@
+/*
+ * Copyright 2016 E.Hooijmeijer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.ctrlaltdev.harbinger.ip;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Immutable set of IP ranges (CIDR), such as the ranges of load balancers,
+ * monitoring probes or partners. The ranges are merged into sorted, non
+ * overlapping intervals of 128 bit (IPv4 mapped) addresses, so a lookup is a
+ * binary search over a few plain arrays and a few hundred ranges take a few
+ * kilobytes, however many addresses they cover.
+ */
+public final class IpRangeSet {
+
+    private static final ThreadLocal<long[]> SCRATCH = ThreadLocal.withInitial(() -> new long[2]);
+
+    /** first and last address of each interval, high and low 64 bits. */
+    private final long[] firstHi;
+    private final long[] firstLo;
+    private final long[] lastHi;
+    private final long[] lastLo;
+
+    /**
+     * @param cidrs the ranges in CIDR notation (10.0.0.0/8, 2001:db8::/32),
+     *        or single addresses.
+     * @throws IllegalArgumentException if a range is not valid.
+     */
+    public IpRangeSet(Collection<String> cidrs) {
+        List<long[]> ranges = new ArrayList<>(cidrs.size());
+        long[] key = new long[2];
+        for (String cidr : cidrs) {
+            int prefix = IpAddress.parseCidr(cidr, key);
+            if (prefix < 0) {
+                throw new IllegalArgumentException("Invalid CIDR '" + cidr + "'");
+            }
+            ranges.add(new long[] { key[0], key[1], key[0] | ~IpAddress.highMask(prefix), key[1] | ~IpAddress.lowMask(prefix) });
+        }
+        ranges.sort((a, b) -> compare(a[0], a[1], b[0], b[1]));
+
+        List<long[]> merged = new ArrayList<>();
+        for (long[] r : ranges) {
+            long[] last = merged.isEmpty() ? null : merged.get(merged.size() - 1);
+            if (last != null && isAdjacentOrOverlapping(last, r)) {
+                if (compare(r[2], r[3], last[2], last[3]) > 0) {
+                    last[2] = r[2];
+                    last[3] = r[3];
+                }
+            } else {
+                merged.add(r);
+            }
+        }
+        int size = merged.size();
+        firstHi = new long[size];
+        firstLo = new long[size];
+        lastHi = new long[size];
+        lastLo = new long[size];
+        for (int t = 0; t < size; t++) {
+            long[] r = merged.get(t);
+            firstHi[t] = r[0];
+            firstLo[t] = r[1];
+            lastHi[t] = r[2];
+            lastLo[t] = r[3];
+        }
+    }
+
+    /**
+     * @return true if the next range starts at most one address after the
+     *         end of the previous one.
+     */
+    private static boolean isAdjacentOrOverlapping(long[] previous, long[] next) {
+        long endHi = previous[2];
+        long endLo = previous[3] + 1;
+        if (endLo == 0) {
+            if (endHi == -1L) {
+                return true; // previous ends at the last address.
+            }
+            endHi++;
+        }
+        return compare(next[0], next[1], endHi, endLo) <= 0;
+    }
+
+    /**
+     * @param addr the textual address.
+     * @return true if the address is in one of the ranges, false if not or
+     *         if it is not a valid address.
+     */
+    public boolean contains(String addr) {
+        long[] key = SCRATCH.get();
+        return firstHi.length > 0 && IpAddress.parse(addr, key) && contains(key[0], key[1]);
+    }
+
+    /**
+     * @param hi the high 64 bits of the address.
+     * @param lo the low 64 bits of the address.
+     * @return true if the address is in one of the ranges.
+     */
+    public boolean contains(long hi, long lo) {
+        // the last interval that starts at or before the address.
+        int low = 0;
+        int high = firstHi.length - 1;
+        int found = -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (compare(firstHi[mid], firstLo[mid], hi, lo) <= 0) {
+                found = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return found >= 0 && compare(hi, lo, lastHi[found], lastLo[found]) <= 0;
+    }
+
+    /**
+     * @return the number of intervals after merging.
+     */
+    public int size() {
+        return firstHi.length;
+    }
+
+    private static int compare(long h1, long l1, long h2, long l2) {
+        int c = Long.compareUnsigned(h1, h2);
+        return c != 0 ? c : Long.compareUnsigned(l1, l2);
+    }
+}
@@ -20,23 +20,54 @@ import java.time.temporal.ChronoUnit;
 
 import nl.ctrlaltdev.harbinger.HarbingerContext;
 import nl.ctrlaltdev.harbinger.evidence.Evidence;
+import nl.ctrlaltdev.harbinger.ip.IpAddress;
 /**
  * Blacklists the IP from the evidence for the given amount of time. 
+ * Optionally the whole range the IP is part of is blacklisted, for example
+ * its /24 or /64.
  */
 public class BlacklistIpAction implements ResponseAction {
 
     private int minutes;
     private Evidence ev;
+    private int ipv4Prefix;
+    private int ipv6Prefix;
 
     public BlacklistIpAction(Evidence ev, int minutes) {
+        this(ev, minutes, 32, 128);
+    }
+
+    /**
+     * @param ev the evidence.
+     * @param minutes the number of minutes to blacklist.
+     * @param ipv4Prefix the prefix length of the range to blacklist for an
+     *        IPv4 address, 32 for the address only.
+     * @param ipv6Prefix the prefix length of the range to blacklist for an
+     *        IPv6 address, 128 for the address only.
+     */
+    public BlacklistIpAction(Evidence ev, int minutes, int ipv4Prefix, int ipv6Prefix) {
         this.ev = ev;
         this.minutes = minutes;
+        this.ipv4Prefix = ipv4Prefix;
+        this.ipv6Prefix = ipv6Prefix;
     }
 
     @Override
     public boolean perform(HarbingerContext ctx) {
-        ctx.blacklist(ev.getIp(), Instant.now().plus(minutes, ChronoUnit.MINUTES));
+        ctx.blacklist(range(ev.getIp()), Instant.now().plus(minutes, ChronoUnit.MINUTES));
         ctx.getEvidenceCollector().clean(ev);
         return true;
     }
+
+    private String range(String ip) {
+        long[] addr = new long[2];
+        if (!IpAddress.parse(ip, addr)) {
+            return ip;
+        }
+        int prefix = IpAddress.isIpv4(addr[0], addr[1]) ? 96 + ipv4Prefix : ipv6Prefix;
+        if (prefix == 128) {
+            return ip;
+        }
+        return IpAddress.formatCidr(addr[0] & IpAddress.highMask(prefix), addr[1] & IpAddress.lowMask(prefix), prefix);
+    }
 }
@@ -33,10 +33,26 @@ public class InvalidateSessionAction implements ResponseAction {
     public boolean perform(HarbingerContext ctx) {
         ServletRequestAttributes sra = (ServletRequestAttributes) RequestContextHolder.getRequestAttributes();
         if (sra != null) {
-            HttpSession session = sra.getRequest().getSession(false);
-            if (session != null) {
-                LoggerFactory.getLogger(getClass()).warn("Invalidated session '{}'", session.getId());
+            return perform(ctx, sra.getRequest().getSession(false));
+        }
+        return true;
+    }
+
+    /**
+     * invalidates the given session, for when the action is performed outside
+     * of the request, such as by an
+     * {@link nl.ctrlaltdev.harbinger.filter.EvidencePipeline}.
+     * @param ctx the harbinger context.
+     * @param session the session of the request, null if it has none.
+     * @return true.
+     */
+    public boolean perform(HarbingerContext ctx, HttpSession session) {
+        if (session != null) {
+            LoggerFactory.getLogger(getClass()).warn("Invalidated session '{}'", session.getId());
+            try {
                 session.invalidate();
+            } catch (IllegalStateException ex) {
+                // already invalidated.
             }
         }
         return true;
@@ -21,4 +21,16 @@ public interface ResponseDecider {
 
     ResponseAction decide(Evidence evidence);
 
+    /**
+     * Called after a request with nothing to report (2xx/3xx, no exception,
+     * no detection) has been counted, to decide whether {@link #decide}
+     * needs to be called at all. Implementations should answer from the
+     * counters of the aggregations only, without allocating.
+     * @param evidence the evidence of the request, without response.
+     * @return true if the request may lead to an action.
+     */
+    default boolean isDecisionRequired(Evidence evidence) {
+        return true;
+    }
+
 }
@@ -15,55 +15,137 @@
  */
 package nl.ctrlaltdev.harbinger.response;
 
+import java.time.Duration;
+import java.time.Instant;
+
+import nl.ctrlaltdev.harbinger.evidence.DecayingScorer;
 import nl.ctrlaltdev.harbinger.evidence.Evidence;
 import nl.ctrlaltdev.harbinger.evidence.EvidenceAggregation;
 import nl.ctrlaltdev.harbinger.evidence.EvidenceCollector;
 import nl.ctrlaltdev.harbinger.rule.DetectionRule.Level;
 
+/**
+ * Decides on the running score of the session and IP, which the collector
+ * maintains with the scorer that the decider registers when it is created.
+ * A high request rate adds to the score when it is read, so it follows the
+ * window as it slides.
+ */
 public class SimpleResponseDecider implements ResponseDecider {
 
     private static final NoAction NOACTION = new NoAction();
     private static final InvalidateSessionAction INVALIDATE_SESSION = new InvalidateSessionAction();
     private static final RejectInputAction REJECT_RESPONSE = new RejectInputAction();
 
+    /** sustained rate: more than 2 requests per second over the last minute. */
+    private static final long SUSTAINED_WINDOW = 60000L;
+    private static final double SUSTAINED_RATE = 2.0;
+    /** burst rate: more than 10 requests per second over the last 10 seconds. */
+    private static final long BURST_WINDOW = 10000L;
+    private static final double BURST_RATE = 10.0;
+    private static final long RATE_SCORE = 25;
+    /** below this number of requests neither rate can be exceeded. */
+    private static final long MIN_RATE_REQUESTS = (long) Math.min(SUSTAINED_RATE * SUSTAINED_WINDOW, BURST_RATE * BURST_WINDOW) / 1000;
+
     private EvidenceCollector collector;
     private long sessionThreshold;
     private long ipThreshold;
+    private DecayingScorer decaying;
 
     public SimpleResponseDecider(EvidenceCollector coll) {
         this(coll, 42L, 128L);
     }
 
+    /**
+     * Creates the decider and registers its {@link #score(EvidenceAggregation)}
+     * with the collector, which keeps the score of each IP and session up to
+     * date as evidence comes in.
+     */
     public SimpleResponseDecider(EvidenceCollector coll, long sessionThreshold, long ipThreshold) {
+        this(coll, sessionThreshold, ipThreshold, null);
+    }
+
+    /**
+     * Creates a decider of which the score of each IP and session decays
+     * with the given half-life, so clients that stop misbehaving regain
+     * their standing without the evidence having to be cleaned. The rate
+     * of requests is still taken into account.
+     * @param halfLife the half-life, null for a score that does not decay.
+     */
+    public SimpleResponseDecider(EvidenceCollector coll, long sessionThreshold, long ipThreshold, Duration halfLife) {
         this.collector = coll;
         this.sessionThreshold = sessionThreshold;
         this.ipThreshold = ipThreshold;
+        if (halfLife == null) {
+            coll.register((agg, ev, previous) -> score(agg));
+        } else {
+            this.decaying = new DecayingScorer(halfLife, (agg, ev) -> weight(ev));
+            coll.register(decaying);
+        }
     }
 
     @Override
     public ResponseAction decide(Evidence ev) {
         if (ev.getSession() != null) {
-            if (score(collector.findBySession(ev)) >= sessionThreshold) {
+            if (current(collector.findBySession(ev), ev) >= sessionThreshold) {
                 return INVALIDATE_SESSION;
             }
         }
         if (ev.getIp() != null) {
-            if (score(collector.findByIp(ev)) >= ipThreshold) {
+            if (current(collector.findByIp(ev), ev) >= ipThreshold) {
                 return new BlacklistIpAction(ev, 5);
             }
         }
-        if (score(collector.single(ev)) >= Level.HIGH.getScore()) {
+        if (ev.getRule() != null && score(collector.single(ev)) >= Level.HIGH.getScore()) {
             return REJECT_RESPONSE;
         }
         return NOACTION;
     }
 
+    /**
+     * A request with nothing to report only changes the request rate, so a
+     * decision is only needed once the score of the session or IP reaches
+     * its threshold.
+     */
+    @Override
+    public boolean isDecisionRequired(Evidence ev) {
+        if (ev.getSession() != null && current(collector.findBySession(ev), ev) >= sessionThreshold) {
+            return true;
+        }
+        return ev.getIp() != null && current(collector.findByIp(ev), ev) >= ipThreshold;
+    }
+
+    private long current(EvidenceAggregation agg, Evidence ev) {
+        long score = decaying == null ? agg.getScore() : Math.round(decaying.getScore(agg, ev.getTimestamp()));
+        return score + (isHighRate(agg, ev.getTimestamp()) ? RATE_SCORE : 0);
+    }
+
+    /**
+     * @return the score that the collector keeps for the aggregation, if the
+     *         score does not decay. The request rate is not part of it, as
+     *         it changes without evidence coming in: it is added when the
+     *         score is read, see {@link #isHighRate(EvidenceAggregation, Instant)}.
+     */
     protected long score(EvidenceAggregation agg) {
-        long score = 0;
-        score += agg.getDetections();
-        score += agg.getHttp5xx();
-        score += (agg.getAverageRpS(30000L) > 2) ? 25 : 0;
-        return score;
+        return agg.getDetections() + agg.getHttp5xx();
+    }
+
+    /**
+     * @return the amount by which the evidence increases a decaying score.
+     */
+    protected double weight(Evidence ev) {
+        double weight = ev.getRule() != null ? ev.getRule().getLevel().getScore() : 0;
+        return ev.getStatusCode() >= 500 ? weight + 1 : weight;
+    }
+
+    /**
+     * the rate is taken over a recent window, so a client that was quiet for
+     * a long time and then suddenly starts flooding is not averaged away.
+     */
+    protected boolean isHighRate(EvidenceAggregation agg, Instant now) {
+        if (agg.getNumberOfRequests() <= MIN_RATE_REQUESTS) {
+            return false;
+        }
+        return agg.getRequestRate(now, SUSTAINED_WINDOW) > SUSTAINED_RATE || agg.getRequestRate(now, BURST_WINDOW) > BURST_RATE;
     }
 
 }
@@ -0,0 +1,165 @@
+/*
+ * Copyright 2016 E.Hooijmeijer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.ctrlaltdev.harbinger.rule;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Aho-Corasick automaton that finds, in a single pass, which of a number of
+ * literals occur in a value. Each literal carries an id, the ids of all
+ * literals found are marked in a bitmap.
+ */
+final class AhoCorasick {
+
+    private static final int ASCII = 128;
+
+    /** character class per ASCII character, 0 for characters not in any literal. */
+    private final int[] asciiClasses;
+    /** sorted non ASCII characters that occur in literals. */
+    private final char[] otherChars;
+    private final int classCount;
+    /** the goto/failure transitions, resolved into a DFA, per state per class. */
+    private final int[] delta;
+    /** the ids to mark per state, null if none. */
+    private final int[][] output;
+
+    /**
+     * @param literals the literals to find.
+     * @param ids the id per literal (multiple literals may share an id).
+     */
+    AhoCorasick(List<String> literals, int[] ids) {
+        Set<Character> chars = new TreeSet<>();
+        for (String literal : literals) {
+            for (int t = 0; t < literal.length(); t++) {
+                chars.add(literal.charAt(t));
+            }
+        }
+        asciiClasses = new int[ASCII];
+        StringBuilder other = new StringBuilder();
+        int cls = 1;
+        for (char c : chars) {
+            if (c < ASCII) {
+                asciiClasses[c] = cls++;
+            } else {
+                other.append(c);
+            }
+        }
+        otherChars = other.toString().toCharArray();
+        int firstOther = cls;
+        classCount = cls + otherChars.length;
+
+        // build the trie.
+        List<int[]> trie = new ArrayList<>();
+        List<Set<Integer>> out = new ArrayList<>();
+        trie.add(new int[classCount]);
+        out.add(new LinkedHashSet<>());
+        for (int l = 0; l < literals.size(); l++) {
+            String literal = literals.get(l);
+            int state = 0;
+            for (int t = 0; t < literal.length(); t++) {
+                int c = classOf(literal.charAt(t), firstOther);
+                if (trie.get(state)[c] == 0) {
+                    trie.get(state)[c] = trie.size();
+                    trie.add(new int[classCount]);
+                    out.add(new LinkedHashSet<>());
+                }
+                state = trie.get(state)[c];
+            }
+            out.get(state).add(ids[l]);
+        }
+
+        // resolve failure links breadth first into a DFA.
+        int states = trie.size();
+        delta = new int[states * classCount];
+        int[] fail = new int[states];
+        Deque<Integer> queue = new ArrayDeque<>();
+        for (int c = 0; c < classCount; c++) {
+            int next = trie.get(0)[c];
+            delta[c] = next;
+            if (next != 0) {
+                queue.add(next);
+            }
+        }
+        while (!queue.isEmpty()) {
+            int state = queue.poll();
+            out.get(state).addAll(out.get(fail[state]));
+            for (int c = 0; c < classCount; c++) {
+                int next = trie.get(state)[c];
+                if (next != 0) {
+                    fail[next] = delta[fail[state] * classCount + c];
+                    delta[state * classCount + c] = next;
+                    queue.add(next);
+                } else {
+                    delta[state * classCount + c] = delta[fail[state] * classCount + c];
+                }
+            }
+        }
+        // class 0 (characters in no literal) always returns to the root.
+        output = new int[states][];
+        for (int s = 0; s < states; s++) {
+            if (!out.get(s).isEmpty()) {
+                output[s] = out.get(s).stream().mapToInt(Integer::intValue).toArray();
+            }
+        }
+    }
+
+    private int classOf(char c, int firstOther) {
+        if (c < ASCII) {
+            return asciiClasses[c];
+        }
+        int idx = Arrays.binarySearch(otherChars, c);
+        return idx < 0 ? 0 : firstOther + idx;
+    }
+
+    /**
+     * marks the ids of all literals that occur in the value.
+     * @param value the value to scan.
+     * @param hits bitmap of ids, must be large enough to hold all ids.
+     * @return true if any literal was found.
+     */
+    boolean scan(CharSequence value, long[] hits) {
+        int firstOther = classCount - otherChars.length;
+        int state = 0;
+        boolean found = false;
+        for (int t = 0; t < value.length(); t++) {
+            char c = value.charAt(t);
+            int cls = (c < ASCII) ? asciiClasses[c] : classOf(c, firstOther);
+            state = delta[state * classCount + cls];
+            int[] ids = output[state];
+            if (ids != null) {
+                for (int id : ids) {
+                    hits[id >>> 6] |= 1L << id;
+                }
+                found = true;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * @return the number of states of the automaton.
+     */
+    int size() {
+        return output.length;
+    }
+}
@@ -17,8 +17,26 @@ package nl.ctrlaltdev.harbinger.rule;
 
 import java.util.regex.Pattern;
 
+/**
+ * A rule that detects malicious input by a regular expression. To bound the
+ * cost of a single match a rule only scans the first characters of a value
+ * and aborts a match that takes too many steps, see {@link ScanBudget}. A
+ * longer value on which the rule finds nothing is not clean, as a payload
+ * may hide in the rest: the rule reports it as exceeding its budget.
+ */
 public class DetectionRule {
 
+    /** default maximum number of characters of a value that a rule scans. */
+    public static final int DEFAULT_MAX_CHARS = 16384;
+    /** default maximum number of steps (characters read) per match. */
+    public static final long DEFAULT_MAX_STEPS = 1000000L;
+
+    /**
+     * The rule reported for a value on which another rule exceeded its scan
+     * budget. Such values are suspicious by themselves.
+     */
+    public static final DetectionRule SCAN_BUDGET_EXCEEDED = new DetectionRule(new String[] { "Scan budget exceeded", "MID", "(?!)" });
+
     public static enum Level {
         LOW(1), MID(5), HIGH(25);
 
@@ -36,14 +54,30 @@ public class DetectionRule {
     private String name;
     private Level level;
     private Pattern pattern;
+    private int maxChars;
+    private long maxSteps;
 
     public DetectionRule(String[] str) {
+        this(str, DEFAULT_MAX_CHARS, DEFAULT_MAX_STEPS);
+    }
+
+    /**
+     * @param str the name, level and pattern.
+     * @param maxChars the maximum number of characters of a value to scan.
+     * @param maxSteps the maximum number of steps per match.
+     */
+    public DetectionRule(String[] str, int maxChars, long maxSteps) {
         if ((str == null) || (str.length != 3)) {
             throw new IllegalArgumentException("Invalid DetectionRule");
         }
+        if (maxChars <= 0 || maxSteps <= 0) {
+            throw new IllegalArgumentException("Scan budget must be positive.");
+        }
         name = str[0];
         level = Level.valueOf(str[1]);
         pattern = Pattern.compile(str[2]);
+        this.maxChars = maxChars;
+        this.maxSteps = maxSteps;
     }
 
     public String getName() {
@@ -58,7 +92,29 @@ public class DetectionRule {
         return pattern;
     }
 
-    public boolean matches(String value) {
-        return pattern.matcher(value).find();
+    public int getMaxChars() {
+        return maxChars;
+    }
+
+    public long getMaxSteps() {
+        return maxSteps;
+    }
+
+    /**
+     * @param value the value.
+     * @return true if the pattern is found in the first characters of the
+     *         value.
+     * @throws ScanBudgetExceededException if the match takes too many steps,
+     *         or the pattern is not found and the value is longer than the
+     *         rule scans.
+     */
+    public boolean matches(CharSequence value) {
+        if (pattern.matcher(new ScanBudget(this, value, maxChars, maxSteps)).find()) {
+            return true;
+        }
+        if (value.length() > maxChars) {
+            throw new ScanBudgetExceededException(this);
+        }
+        return false;
     }
 }
@@ -25,6 +25,22 @@ public class DetectionRuleLoader {
 
     private static final String DEFAULT_RULES = "/default-rules.txt";
 
+    private final int maxChars;
+    private final long maxSteps;
+
+    public DetectionRuleLoader() {
+        this(DetectionRule.DEFAULT_MAX_CHARS, DetectionRule.DEFAULT_MAX_STEPS);
+    }
+
+    /**
+     * @param maxChars the maximum number of characters each rule scans.
+     * @param maxSteps the maximum number of steps per match of each rule.
+     */
+    public DetectionRuleLoader(int maxChars, long maxSteps) {
+        this.maxChars = maxChars;
+        this.maxSteps = maxSteps;
+    }
+
     public Set<DetectionRule> load() {
         return load(DEFAULT_RULES);
     }
@@ -55,7 +71,7 @@ public class DetectionRuleLoader {
             str[0] = line.substring(0, firstIndex);
             str[1] = line.substring(firstIndex + 1, secondIndex);
             str[2] = line.substring(secondIndex + 1);
-            detections.add(new DetectionRule(str));
+            detections.add(new DetectionRule(str, maxChars, maxSteps));
         }
     }
 
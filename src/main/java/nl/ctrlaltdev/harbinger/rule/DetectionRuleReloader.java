@@ -0,0 +1,180 @@
+/*
+ * Copyright 2016 E.Hooijmeijer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.ctrlaltdev.harbinger.rule;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps a compiled {@link DetectionRuleSet} up to date with a
+ * {@link RuleSource}. Changed rules are compiled by the thread that calls
+ * {@link #reload()}, normally a background thread started with
+ * {@link #start(Duration)}, and published with a single volatile write. The
+ * request path only reads that field, a scan in progress finishes on the set
+ * it started with. If the new rules fail to load or compile the previous set
+ * stays in use.
+ */
+public class DetectionRuleReloader implements Supplier<DetectionRuleSet>, AutoCloseable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(DetectionRuleReloader.class);
+
+    private final RuleSource source;
+    private final Function<Set<DetectionRule>, DetectionRuleSet> compiler;
+
+    private volatile DetectionRuleSet current;
+    private volatile long version;
+    private volatile long reloads;
+    private volatile long failures;
+    private volatile Duration lastCompileTime;
+    private volatile Instant lastReload;
+    private volatile ScheduledExecutorService checker;
+
+    /**
+     * compiles the rules the same way as the DefaultHarbingerContext does.
+     * @param source the source of the rules.
+     */
+    public DetectionRuleReloader(RuleSource source) {
+        this(source, (rules) -> new DetectionRuleSet(rules, 0, true, DetectionRuleSet.Ordering.ADAPTIVE));
+    }
+
+    /**
+     * @param source the source of the rules.
+     * @param compiler compiles the rules into a rule set.
+     * @throws RuntimeException if the initial rules cannot be loaded or
+     *         compiled.
+     */
+    public DetectionRuleReloader(RuleSource source, Function<Set<DetectionRule>, DetectionRuleSet> compiler) {
+        this.source = source;
+        this.compiler = compiler;
+        long v = source.getVersion();
+        long start = System.nanoTime();
+        this.current = compiler.apply(source.load());
+        this.lastCompileTime = Duration.ofNanos(System.nanoTime() - start);
+        this.lastReload = Instant.now();
+        this.version = v;
+    }
+
+    /**
+     * @return the current rule set.
+     */
+    @Override
+    public DetectionRuleSet get() {
+        return current;
+    }
+
+    /**
+     * compiles and publishes the rules if the source changed.
+     * @return true if a new rule set was published.
+     */
+    public synchronized boolean reload() {
+        try {
+            long v = source.getVersion();
+            if (v == version) {
+                return false;
+            }
+            long start = System.nanoTime();
+            DetectionRuleSet compiled = compiler.apply(source.load());
+            Duration elapsed = Duration.ofNanos(System.nanoTime() - start);
+            current = compiled;
+            version = v;
+            lastCompileTime = elapsed;
+            lastReload = Instant.now();
+            reloads++;
+            LOGGER.info("Reloaded {} detection rules from {} in {} ms", compiled.size(), source, elapsed.toMillis());
+            return true;
+        } catch (RuntimeException ex) {
+            failures++;
+            LOGGER.error("Failed reloading detection rules from {}, keeping the previous rules.", source, ex);
+            return false;
+        }
+    }
+
+    /**
+     * starts checking the source for changes in the background.
+     * @param interval the time between checks.
+     */
+    public synchronized void start(Duration interval) {
+        if (checker != null) {
+            return;
+        }
+        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "harbinger-rule-reload");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long millis = interval.toMillis();
+        executor.scheduleWithFixedDelay(this::reload, millis, millis, TimeUnit.MILLISECONDS);
+        checker = executor;
+    }
+
+    /**
+     * stops checking for changes.
+     */
+    @Override
+    public void close() {
+        ScheduledExecutorService executor = checker;
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * @return the number of times a changed rule set was published, not
+     *         counting the initial one.
+     */
+    public long getReloads() {
+        return reloads;
+    }
+
+    /**
+     * @return the number of times changed rules failed to load or compile.
+     */
+    public long getFailures() {
+        return failures;
+    }
+
+    /**
+     * @return the time it took to compile the current rule set.
+     */
+    public Duration getLastCompileTime() {
+        return lastCompileTime;
+    }
+
+    /**
+     * @return when the current rule set was published.
+     */
+    public Instant getLastReload() {
+        return lastReload;
+    }
+
+    /**
+     * @return the version of the source the current rule set was compiled
+     *         from.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+}
@@ -0,0 +1,481 @@
+/*
+ * Copyright 2016 E.Hooijmeijer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.ctrlaltdev.harbinger.rule;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A compiled set of detection rules. Literals that a rule requires in order
+ * to match are combined into a single Aho-Corasick automaton, so a value is
+ * scanned once and only rules whose literals occur in the value are
+ * evaluated. Rules without required literals are always evaluated.
+ * <p>
+ * Before anything else a value is checked against the characters each rule
+ * requires (see {@link RequiredChars}): a rule is skipped if the value has
+ * none of them. As most benign values consist of letters, digits and a few
+ * punctuation characters that no rule requires, these pass with a single
+ * table lookup per character.
+ * <p>
+ * Rules that use no more than the regular subset of java.util.regex (see
+ * {@link RegexParser}) are compiled together into a single lazily built DFA,
+ * which evaluates all of them in one linear pass over a value. The other
+ * rules, and all rules for values the DFA can not scan (such as values with
+ * supplementary characters), use java.util.regex. Use
+ * {@link #getEngine(DetectionRule)} to find out which engine a rule uses.
+ * <p>
+ * The verdict for a value is the first rule, in the order given to the
+ * constructor, that matches. With {@link Ordering#ADAPTIVE} ordering the
+ * rules evaluated by java.util.regex are tried in order of expected cost
+ * per hit instead, periodically recomputed from their average cost and hit
+ * rate. Once a rule matches only the rules before it still need to be
+ * tried, so the verdict does not depend on the evaluation order.
+ * <p>
+ * A rule that exceeds its scan budget on a value does not stop the scan:
+ * if no other rule matches, {@link DetectionRule#SCAN_BUDGET_EXCEEDED} is
+ * reported for the value. So is a value that is longer than a rule scans,
+ * if that rule could match it. The verdict of a scan that was interrupted
+ * is not cached.
+ * <p>
+ * Optionally verdicts are kept in a {@link VerdictCache} in front of the
+ * rules. As a rule set is immutable, a different set of rules always starts
+ * with an empty cache.
+ */
+public class DetectionRuleSet {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(DetectionRuleSet.class);
+
+    /**
+     * The engine that evaluates a rule.
+     */
+    public enum Engine {
+        /** the shared, linear time automaton. */
+        AUTOMATON,
+        /** java.util.regex, with a scan budget. */
+        REGEX;
+    }
+
+    /**
+     * The order in which rules evaluated by java.util.regex are tried.
+     */
+    public enum Ordering {
+        /** the order in which the rules were given. */
+        FIXED,
+        /** cheap and likely to match first, based on sampled timings. */
+        ADAPTIVE,
+        /**
+         * adaptive, but with the number of characters of a value as the cost
+         * of an evaluation and reordering every {@value #REORDER_INTERVAL}
+         * values, so the order is reproducible in tests.
+         */
+        DETERMINISTIC;
+    }
+
+    /** values between reorderings, on average for adaptive ordering. */
+    public static final int REORDER_INTERVAL = 1024;
+    /** one in this many evaluations is timed for adaptive ordering. */
+    private static final int SAMPLE_INTERVAL = 16;
+    private static final int ASCII = 128;
+    /** set in the result of a scan that was interrupted, so it is not cached. */
+    private static final int INTERRUPTED = 1 << 30;
+
+    private final DetectionRule[] rules;
+    private final Ordering ordering;
+    private final RuleStatistics statistics;
+    private volatile int[] order;
+    private final AtomicLong scans = new AtomicLong();
+    private final boolean[] automaton;
+    private final LazyDfa dfa;
+    private final int dfaMaxChars;
+    /** the prefiltered rules in the automaton, and the others. */
+    private final long[] automatonFiltered;
+    private final long[] automatonUnfiltered;
+    /** the rules that may match a value with an ASCII character (or any other character, at 128). */
+    private final long[][] enabledBy;
+    /** the rules that may match any value. */
+    private final long[] unrestricted;
+    private final long[] noMatches;
+    private final boolean[] prefiltered;
+    private final AhoCorasick prefilter;
+    private final int words;
+    private final VerdictCache cache;
+
+    public DetectionRuleSet(Collection<DetectionRule> rules) {
+        this(rules, 0);
+    }
+
+    /**
+     * @param rules the rules.
+     * @param cacheSize the maximum number of cached verdicts, 0 to disable
+     *        caching.
+     */
+    public DetectionRuleSet(Collection<DetectionRule> rules, int cacheSize) {
+        this(rules, cacheSize, true);
+    }
+
+    /**
+     * @param rules the rules.
+     * @param cacheSize the maximum number of cached verdicts, 0 to disable
+     *        caching.
+     * @param automaton true to evaluate eligible rules with the automaton,
+     *        false to evaluate all rules with java.util.regex.
+     */
+    public DetectionRuleSet(Collection<DetectionRule> rules, int cacheSize, boolean automaton) {
+        this(rules, cacheSize, automaton, Ordering.FIXED);
+    }
+
+    /**
+     * @param rules the rules.
+     * @param cacheSize the maximum number of cached verdicts, 0 to disable
+     *        caching.
+     * @param automaton true to evaluate eligible rules with the automaton,
+     *        false to evaluate all rules with java.util.regex.
+     * @param ordering the order in which to evaluate the other rules.
+     */
+    public DetectionRuleSet(Collection<DetectionRule> rules, int cacheSize, boolean automaton, Ordering ordering) {
+        this.rules = rules.toArray(new DetectionRule[rules.size()]);
+        this.ordering = ordering;
+        this.statistics = ordering == Ordering.FIXED ? null : new RuleStatistics(this.rules.length);
+        this.order = IntStream.range(0, this.rules.length).toArray();
+        this.prefiltered = new boolean[this.rules.length];
+        this.words = (this.rules.length + 63) >>> 6;
+        List<String> literals = new ArrayList<>();
+        List<Integer> ids = new ArrayList<>();
+        for (int t = 0; t < this.rules.length; t++) {
+            List<String> required = RequiredLiterals.of(this.rules[t].getPattern());
+            prefiltered[t] = !required.isEmpty();
+            for (String literal : required) {
+                literals.add(literal);
+                ids.add(t);
+            }
+        }
+        this.prefilter = literals.isEmpty() ? null : new AhoCorasick(literals, ids.stream().mapToInt(Integer::intValue).toArray());
+        this.cache = cacheSize > 0 ? new VerdictCache(cacheSize) : null;
+
+        this.automaton = new boolean[this.rules.length];
+        List<RegexNode> parsed = new ArrayList<>();
+        List<Integer> parsedIds = new ArrayList<>();
+        for (int t = 0; automaton && t < this.rules.length; t++) {
+            try {
+                parsed.add(RegexParser.parse(this.rules[t].getPattern()));
+                parsedIds.add(t);
+            } catch (IllegalArgumentException ex) {
+                LOGGER.debug("Rule {} needs java.util.regex: {}", this.rules[t].getName(), ex.getMessage());
+            }
+        }
+        int maxChars = Integer.MAX_VALUE;
+        if (parsed.isEmpty()) {
+            this.dfa = null;
+        } else {
+            this.dfa = new LazyDfa(parsed, parsedIds.stream().mapToInt(Integer::intValue).toArray());
+            for (int t = 0; t < parsed.size(); t++) {
+                if (dfa.isCompiled(t)) {
+                    this.automaton[parsedIds.get(t)] = true;
+                    maxChars = Math.min(maxChars, this.rules[parsedIds.get(t)].getMaxChars());
+                }
+            }
+        }
+        this.dfaMaxChars = maxChars;
+        this.automatonFiltered = new long[words];
+        this.automatonUnfiltered = new long[words];
+        for (int t = 0; t < this.rules.length; t++) {
+            if (this.automaton[t]) {
+                (prefiltered[t] ? automatonFiltered : automatonUnfiltered)[t >>> 6] |= 1L << t;
+            }
+        }
+        this.enabledBy = new long[ASCII + 1][words];
+        this.unrestricted = new long[words];
+        for (int t = 0; t < this.rules.length; t++) {
+            RegexNode.CharSet required = RequiredChars.of(this.rules[t].getPattern());
+            if (required == null) {
+                unrestricted[t >>> 6] |= 1L << t;
+                continue;
+            }
+            for (int c = 0; c <= ASCII; c++) {
+                boolean enables = c < ASCII ? required.contains((char) c) : required.ranges[required.ranges.length - 1] >= ASCII;
+                if (enables) {
+                    enabledBy[c][t >>> 6] |= 1L << t;
+                }
+            }
+        }
+        this.noMatches = new long[words];
+        report();
+    }
+
+    private void report() {
+        int count = 0;
+        for (int t = 0; t < rules.length; t++) {
+            LOGGER.debug("Rule {} '{}' uses {}", rules[t].getName(), rules[t].getPattern(), automaton[t] ? Engine.AUTOMATON : Engine.REGEX);
+            count += automaton[t] ? 1 : 0;
+        }
+        LOGGER.info("Compiled {} detection rules, {} into the automaton, {} use java.util.regex.", rules.length, count, rules.length - count);
+    }
+
+    /**
+     * @param value the (normalized) value.
+     * @return the first rule that matches the value or null.
+     */
+    public DetectionRule find(CharSequence value) {
+        if (cache == null || !cache.isCacheable(value)) {
+            return ruleAt(scan(value));
+        }
+        long hash = cache.hash(value);
+        int verdict = cache.get(hash);
+        if (verdict == VerdictCache.CLEAN) {
+            return null;
+        } else if (verdict != VerdictCache.MISS) {
+            return ruleAt(verdict - 1);
+        }
+        int idx = scan(value);
+        if (idx < 0) {
+            cache.put(hash, VerdictCache.CLEAN);
+        } else if ((idx & INTERRUPTED) == 0 && idx < VerdictCache.MAX_RULE) {
+            cache.put(hash, idx + 1);
+        }
+        return ruleAt(idx);
+    }
+
+    private DetectionRule ruleAt(int idx) {
+        if (idx < 0) {
+            return null;
+        }
+        idx &= ~INTERRUPTED;
+        return idx == rules.length ? DetectionRule.SCAN_BUDGET_EXCEEDED : rules[idx];
+    }
+
+    /**
+     * @return the index of the first rule that matches, the number of rules
+     *         if none matched but one exceeded its budget, or -1. With
+     *         {@link #INTERRUPTED} set if a rule was interrupted.
+     */
+    private int scan(CharSequence value) {
+        long[] possible = possibleRules(value);
+        if (possible == null) {
+            return -1;
+        }
+        long[] candidates = null;
+        if (prefilter != null) {
+            candidates = new long[words];
+            prefilter.scan(value, candidates);
+        }
+        long[] matched = null;
+        if (dfa != null && value.length() <= dfaMaxChars) {
+            matched = isAutomatonNeeded(possible, candidates) ? dfa.scan(value) : noMatches;
+        }
+        int best = rules.length;
+        if (matched != null) {
+            best = firstMatch(matched);
+        }
+        boolean exceeded = false;
+        boolean interrupted = false;
+        for (int t : order) {
+            if (t >= best || (matched != null && automaton[t]) || (possible[t >>> 6] & (1L << t)) == 0) {
+                continue;
+            }
+            if (prefiltered[t] && (candidates[t >>> 6] & (1L << t)) == 0) {
+                continue;
+            }
+            try {
+                if (matches(t, value)) {
+                    best = t;
+                }
+            } catch (ScanBudgetExceededException ex) {
+                exceeded = true;
+                interrupted |= ex.isInterrupted();
+            }
+        }
+        if (statistics != null) {
+            countScan();
+        }
+        if (best < rules.length) {
+            return interrupted ? best | INTERRUPTED : best;
+        }
+        if (exceeded) {
+            return interrupted ? rules.length | INTERRUPTED : rules.length;
+        }
+        return -1;
+    }
+
+    private int firstMatch(long[] matched) {
+        for (int w = 0; w < matched.length; w++) {
+            if (matched[w] != 0) {
+                return (w << 6) + Long.numberOfTrailingZeros(matched[w]);
+            }
+        }
+        return rules.length;
+    }
+
+    private boolean matches(int idx, CharSequence value) {
+        if (statistics == null) {
+            return rules[idx].matches(value);
+        }
+        long cost = -1;
+        boolean hit;
+        if (ordering == Ordering.DETERMINISTIC) {
+            hit = rules[idx].matches(value);
+            cost = Math.min(value.length(), rules[idx].getMaxChars());
+        } else if (ThreadLocalRandom.current().nextInt(SAMPLE_INTERVAL) == 0) {
+            long start = System.nanoTime();
+            try {
+                hit = rules[idx].matches(value);
+            } finally {
+                cost = System.nanoTime() - start;
+            }
+        } else {
+            hit = rules[idx].matches(value);
+        }
+        statistics.record(idx, hit, cost);
+        return hit;
+    }
+
+    private void countScan() {
+        boolean due;
+        if (ordering == Ordering.DETERMINISTIC) {
+            due = scans.incrementAndGet() % REORDER_INTERVAL == 0;
+        } else {
+            due = ThreadLocalRandom.current().nextInt(REORDER_INTERVAL) == 0;
+        }
+        if (due) {
+            reorder();
+        }
+    }
+
+    /**
+     * Recomputes the order in which the rules evaluated by java.util.regex
+     * are tried from their statistics. Called periodically when ordering is
+     * not fixed.
+     */
+    public void reorder() {
+        if (statistics != null) {
+            order = statistics.order();
+        }
+    }
+
+    /**
+     * @return the rules in the order in which they are currently tried when
+     *         evaluated by java.util.regex.
+     */
+    public List<DetectionRule> getEvaluationOrder() {
+        return Arrays.stream(order).mapToObj(t -> rules[t]).collect(Collectors.toList());
+    }
+
+    /**
+     * @return the rules that may match the value given its characters, or
+     *         null if none can.
+     */
+    private long[] possibleRules(CharSequence value) {
+        long low = 0;
+        long high = 0;
+        boolean other = false;
+        for (int t = 0; t < value.length(); t++) {
+            char c = value.charAt(t);
+            if (c < 64) {
+                low |= 1L << c;
+            } else if (c < ASCII) {
+                high |= 1L << c;
+            } else {
+                other = true;
+            }
+        }
+        long[] possible = unrestricted.clone();
+        enable(possible, low, 0);
+        enable(possible, high, 64);
+        if (other) {
+            enable(possible, 1L, ASCII);
+        }
+        for (long w : possible) {
+            if (w != 0) {
+                return possible;
+            }
+        }
+        return null;
+    }
+
+    private void enable(long[] possible, long chars, int offset) {
+        while (chars != 0) {
+            long[] rules = enabledBy[offset + Long.numberOfTrailingZeros(chars)];
+            for (int t = 0; t < possible.length; t++) {
+                possible[t] |= rules[t];
+            }
+            chars &= chars - 1;
+        }
+    }
+
+    /**
+     * @return false if none of the rules in the automaton can match, as the
+     *         characters or literals they require are missing.
+     */
+    private boolean isAutomatonNeeded(long[] possible, long[] candidates) {
+        for (int t = 0; t < words; t++) {
+            long filtered = candidates == null ? 0 : candidates[t] & automatonFiltered[t];
+            if ((possible[t] & (automatonUnfiltered[t] | filtered)) != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param rule the rule.
+     * @return true if the rule is only evaluated when its required literals
+     *         are present in the value.
+     */
+    public boolean isPrefiltered(DetectionRule rule) {
+        int idx = Arrays.asList(rules).indexOf(rule);
+        return idx >= 0 && prefiltered[idx];
+    }
+
+    /**
+     * @param rule the rule.
+     * @return the engine that evaluates the rule, or null if the rule is not
+     *         part of the set.
+     */
+    public Engine getEngine(DetectionRule rule) {
+        int idx = Arrays.asList(rules).indexOf(rule);
+        if (idx < 0) {
+            return null;
+        }
+        return automaton[idx] ? Engine.AUTOMATON : Engine.REGEX;
+    }
+
+    /**
+     * @return the verdict cache, or null if verdicts are not cached.
+     */
+    public VerdictCache getVerdictCache() {
+        return cache;
+    }
+
+    /**
+     * @return the rules in evaluation order.
+     */
+    public List<DetectionRule> getRules() {
+        return Collections.unmodifiableList(Arrays.asList(rules));
+    }
+
+    public int size() {
+        return rules.length;
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright 2016 E.Hooijmeijer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.ctrlaltdev.harbinger.rule;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Rules kept in memory, for example maintained through an admin interface.
+ * Each {@link #set(Collection)} is a new version.
+ */
+public class InMemoryRuleSource implements RuleSource {
+
+    private volatile Set<DetectionRule> rules;
+    private volatile long version;
+
+    public InMemoryRuleSource(Collection<DetectionRule> rules) {
+        set(rules);
+    }
+
+    /**
+     * replaces the rules.
+     * @param rules the new rules.
+     */
+    public synchronized void set(Collection<DetectionRule> rules) {
+        this.rules = Collections.unmodifiableSet(new LinkedHashSet<>(rules));
+        this.version++;
+    }
+
+    @Override
+    public long getVersion() {
+        return version;
+    }
+
+    @Override
+    public Set<DetectionRule> load() {
+        return rules;
+    }
+
+}
@@ -0,0 +1,500 @@
+/*
+ * Copyright 2016 E.Hooijmeijer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.ctrlaltdev.harbinger.rule;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import nl.ctrlaltdev.harbinger.rule.RegexNode.Alternation;
+import nl.ctrlaltdev.harbinger.rule.RegexNode.Assertion;
+import nl.ctrlaltdev.harbinger.rule.RegexNode.CharSet;
+import nl.ctrlaltdev.harbinger.rule.RegexNode.Literal;
+import nl.ctrlaltdev.harbinger.rule.RegexNode.Repeat;
+import nl.ctrlaltdev.harbinger.rule.RegexNode.Sequence;
+
+/**
+ * Finds, in a single linear pass, which of a number of regular expressions
+ * occur in a value. The expressions are compiled into one NFA, which is
+ * turned into a DFA lazily: a DFA state and its transitions are only built
+ * when a value first needs them, and are cached from then on. When the
+ * cache grows beyond {@value #MAX_DFA_STATES} states it is flushed, so the
+ * memory use is bounded while the cost per character stays bounded by the
+ * size of the NFA.
+ * <p>
+ * Supports the subset of {@link RegexParser}, including the anchors and
+ * word boundaries, with the semantics of java.util.regex find(). Values
+ * with supplementary characters (which java.util.regex matches per code
+ * point) or, when word boundaries are used, non spacing marks are not
+ * scanned: {@link #scan(CharSequence)} returns null for those.
+ */
+final class LazyDfa {
+
+    private static final int ASCII = 128;
+    private static final int MAX_NFA_STATES = 4096;
+    private static final int MAX_DFA_STATES = 2048;
+
+    private static final byte CHAR = 0;
+    private static final byte SPLIT = 1;
+    private static final byte ASSERT = 2;
+    private static final byte ACCEPT = 3;
+
+    /** context bits in which assertions are evaluated. */
+    private static final int AT_START = 1;
+    private static final int PREV_WORD = 2;
+    private static final int NEXT_WORD = 4;
+    private static final int AT_END = 8;
+    /** context of a plain closure, in which no assertion holds. */
+    private static final int NONE = -1;
+
+    private static final long[] NO_MATCHES = new long[0];
+
+    /**
+     * A DFA state: a set of NFA states closed over everything but the
+     * assertions, as these depend on the next character. The transitions
+     * are filled in racily, which is safe as all fields of a state are
+     * final.
+     */
+    private static final class State {
+        final int[] set;
+        final int flags;
+        /** the next state per word-ness of the next character and class. */
+        final State[] next;
+        /** the expressions that match before a non word / word character and at the end. */
+        final long[][] matches;
+
+        State(int[] set, int flags, State[] next, long[][] matches) {
+            this.set = set;
+            this.flags = flags;
+            this.next = next;
+            this.matches = matches;
+        }
+    }
+
+    private static final class Key {
+        final int[] set;
+        final int flags;
+
+        Key(int[] set, int flags) {
+            this.set = set;
+            this.flags = flags;
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(set) * 31 + flags;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof Key && ((Key) obj).flags == flags && Arrays.equals(((Key) obj).set, set);
+        }
+    }
+
+    // character classes.
+    private final int[] points;
+    /** word-ness times the number of classes plus the class, per ASCII character. */
+    private final int[] asciiIndex = new int[ASCII];
+    private final int classCount;
+
+    // the NFA.
+    private final List<Byte> kindList = new ArrayList<>();
+    private final List<Object> argList = new ArrayList<>();
+    private final List<int[]> outList = new ArrayList<>();
+    private byte[] kinds;
+    private Object[] args;
+    private int[][] outs;
+    private final int start;
+    private final int words;
+    private boolean boundaries;
+    private boolean ends;
+    private final boolean[] compiled;
+
+    // the DFA.
+    private Map<Key, State> states = new HashMap<>();
+    private volatile State initial;
+    private long flushes;
+
+    /**
+     * @param rules the parsed expressions.
+     * @param ids the id per expression, under which it is reported.
+     */
+    LazyDfa(List<RegexNode> rules, int[] ids) {
+        TreeSet<Integer> bounds = new TreeSet<>();
+        bounds.add(0);
+        for (RegexNode rule : rules) {
+            collectBounds(rule, bounds);
+        }
+        points = bounds.stream().mapToInt(Integer::intValue).toArray();
+        classCount = points.length;
+
+        int maxId = 0;
+        List<Integer> starts = new ArrayList<>();
+        compiled = new boolean[rules.size()];
+        for (int t = 0; t < rules.size(); t++) {
+            int mark = kindList.size();
+            try {
+                int accept = add(ACCEPT, ids[t], null);
+                starts.add(compile(rules.get(t), accept, mark));
+                compiled[t] = true;
+                maxId = Math.max(maxId, ids[t]);
+            } catch (IllegalArgumentException ex) {
+                while (kindList.size() > mark) {
+                    int last = kindList.size() - 1;
+                    kindList.remove(last);
+                    argList.remove(last);
+                    outList.remove(last);
+                }
+            }
+        }
+        start = add(SPLIT, null, starts.stream().mapToInt(Integer::intValue).toArray());
+        words = (maxId + 64) >>> 6;
+        kinds = new byte[kindList.size()];
+        for (int t = 0; t < kinds.length; t++) {
+            kinds[t] = kindList.get(t);
+        }
+        args = argList.toArray();
+        outs = outList.toArray(new int[outList.size()][]);
+        for (int c = 0; c < ASCII; c++) {
+            asciiIndex[c] = (boundaries ? wordness((char) c) : 0) * classCount + classOf((char) c);
+        }
+        flush();
+    }
+
+    private void collectBounds(RegexNode node, TreeSet<Integer> bounds) {
+        if (node instanceof Literal) {
+            bounds.add((int) ((Literal) node).c);
+            bounds.add(((Literal) node).c + 1);
+        } else if (node instanceof CharSet) {
+            int[] ranges = ((CharSet) node).ranges;
+            for (int t = 0; t < ranges.length; t += 2) {
+                bounds.add(ranges[t]);
+                bounds.add(ranges[t + 1] + 1);
+            }
+        } else if (node instanceof Sequence) {
+            ((Sequence) node).nodes.forEach(n -> collectBounds(n, bounds));
+        } else if (node instanceof Alternation) {
+            ((Alternation) node).alternatives.forEach(n -> collectBounds(n, bounds));
+        } else if (node instanceof Repeat) {
+            collectBounds(((Repeat) node).node, bounds);
+        }
+        bounds.remove(Character.MAX_VALUE + 1);
+    }
+
+    private int classOf(char c) {
+        int idx = Arrays.binarySearch(points, c);
+        return idx >= 0 ? idx : -idx - 2;
+    }
+
+    /**
+     * Thompson construction, from the end of the expression backwards.
+     * @return the first state of the node, continuing with out.
+     */
+    private int compile(RegexNode node, int out, int mark) {
+        if (kindList.size() - mark > MAX_NFA_STATES) {
+            throw new IllegalArgumentException("Expression too large.");
+        }
+        if (node instanceof Literal) {
+            return add(CHAR, classes(CharSet.of(((Literal) node).c)), new int[] { out });
+        } else if (node instanceof CharSet) {
+            return add(CHAR, classes((CharSet) node), new int[] { out });
+        } else if (node instanceof Assertion) {
+            Assertion.Kind kind = ((Assertion) node).kind;
+            boundaries |= kind == Assertion.Kind.WORD_BOUNDARY || kind == Assertion.Kind.NON_WORD_BOUNDARY;
+            ends |= kind == Assertion.Kind.END;
+            return add(ASSERT, kind, new int[] { out });
+        } else if (node instanceof Sequence) {
+            List<RegexNode> nodes = ((Sequence) node).nodes;
+            int cur = out;
+            for (int t = nodes.size() - 1; t >= 0; t--) {
+                cur = compile(nodes.get(t), cur, mark);
+            }
+            return cur;
+        } else if (node instanceof Alternation) {
+            List<RegexNode> alternatives = ((Alternation) node).alternatives;
+            int[] targets = new int[alternatives.size()];
+            for (int t = 0; t < targets.length; t++) {
+                targets[t] = compile(alternatives.get(t), out, mark);
+            }
+            return add(SPLIT, null, targets);
+        } else if (node instanceof Repeat) {
+            return compileRepeat((Repeat) node, out, mark);
+        }
+        throw new IllegalArgumentException(String.valueOf(node));
+    }
+
+    private int compileRepeat(Repeat repeat, int out, int mark) {
+        int cur = out;
+        if (repeat.max < 0) {
+            int loop = add(SPLIT, null, null);
+            outList.set(loop, new int[] { compile(repeat.node, loop, mark), out });
+            cur = loop;
+        } else {
+            for (int t = repeat.min; t < repeat.max; t++) {
+                cur = add(SPLIT, null, new int[] { compile(repeat.node, cur, mark), out });
+            }
+        }
+        for (int t = 0; t < repeat.min; t++) {
+            cur = compile(repeat.node, cur, mark);
+        }
+        return cur;
+    }
+
+    private BitSet classes(CharSet set) {
+        BitSet result = new BitSet(classCount);
+        for (int t = 0; t < set.ranges.length; t += 2) {
+            result.set(classOf((char) set.ranges[t]), classOf((char) set.ranges[t + 1]) + 1);
+        }
+        return result;
+    }
+
+    private int add(byte kind, Object arg, int[] out) {
+        kindList.add(kind);
+        argList.add(arg);
+        outList.add(out);
+        return kindList.size() - 1;
+    }
+
+    /**
+     * @param idx the index of the expression in the list given to the
+     *        constructor.
+     * @return true if the expression was compiled, false if it was too
+     *         large and is never reported.
+     */
+    boolean isCompiled(int idx) {
+        return compiled[idx];
+    }
+
+    /**
+     * @param value the value to scan.
+     * @return bitmap of the ids of the expressions that occur in the value,
+     *         or null if the value can not be scanned by the automaton.
+     */
+    long[] scan(CharSequence value) {
+        long[] hits = new long[words];
+        State state = initial;
+        int len = value.length();
+        int last = ends ? len - 2 : len;
+        for (int i = 0; i < len; i++) {
+            char c = value.charAt(i);
+            int idx;
+            if (c < ASCII) {
+                idx = asciiIndex[c];
+            } else if (Character.isSurrogate(c)) {
+                return null;
+            } else {
+                int word = boundaries ? wordness(c) : 0;
+                if (word < 0) {
+                    return null;
+                }
+                idx = word * classCount + classOf(c);
+            }
+            int word = idx >= classCount ? 1 : 0;
+            if (i >= last && isEndBefore(value, i)) {
+                int[] closed = close(state.set, state.flags | (word == 1 ? NEXT_WORD : 0) | AT_END);
+                or(hits, matches(closed));
+                state = step(closed, idx - word * classCount, word);
+                continue;
+            }
+            or(hits, state.matches[word]);
+            State next = state.next[idx];
+            if (next == null) {
+                next = step(close(state.set, state.flags | (word == 1 ? NEXT_WORD : 0)), idx - word * classCount, word);
+                state.next[idx] = next;
+            }
+            state = next;
+        }
+        or(hits, state.matches[2]);
+        return hits;
+    }
+
+    private static void or(long[] hits, long[] matched) {
+        for (int t = 0; t < matched.length; t++) {
+            hits[t] |= matched[t];
+        }
+    }
+
+    /**
+     * java.util.regex word-ness, 1 for word characters, -1 for the non
+     * spacing marks that it treats depending on the preceding character.
+     */
+    private static int wordness(char c) {
+        if (c < ASCII) {
+            return (c == '_' || Character.isLetterOrDigit(c)) ? 1 : 0;
+        }
+        if (Character.getType(c) == Character.NON_SPACING_MARK) {
+            return -1;
+        }
+        return Character.isLetterOrDigit(c) ? 1 : 0;
+    }
+
+    /**
+     * @return true if '$' matches before position i, that is if only a line
+     *         terminator follows.
+     */
+    private static boolean isEndBefore(CharSequence value, int i) {
+        int len = value.length();
+        char c = value.charAt(i);
+        if (i == len - 2) {
+            return c == '\r' && value.charAt(i + 1) == '\n';
+        }
+        if (c == '\n') {
+            return i == 0 || value.charAt(i - 1) != '\r';
+        }
+        return c == '\r' || c == '\u0085' || (c | 1) == 0x2029;
+    }
+
+    /**
+     * @return the NFA states reachable from the set, passing the assertions
+     *         that hold in the context.
+     */
+    private int[] close(int[] set, int ctx) {
+        boolean[] member = new boolean[kinds.length];
+        int[] stack = new int[kinds.length];
+        int size = 0;
+        int top = 0;
+        for (int s : set) {
+            if (!member[s]) {
+                member[s] = true;
+                stack[top++] = s;
+            }
+        }
+        while (top > 0) {
+            int s = stack[--top];
+            size++;
+            int[] targets = null;
+            if (kinds[s] == SPLIT || (kinds[s] == ASSERT && holds((Assertion.Kind) args[s], ctx))) {
+                targets = outs[s];
+            }
+            if (targets != null) {
+                for (int t : targets) {
+                    if (!member[t]) {
+                        member[t] = true;
+                        stack[top++] = t;
+                    }
+                }
+            }
+        }
+        int[] result = new int[size];
+        int idx = 0;
+        for (int s = 0; s < member.length; s++) {
+            if (member[s]) {
+                result[idx++] = s;
+            }
+        }
+        return result;
+    }
+
+    private static boolean holds(Assertion.Kind kind, int ctx) {
+        if (ctx == NONE) {
+            return false;
+        }
+        switch (kind) {
+        case BEGIN:
+            return (ctx & AT_START) != 0;
+        case END:
+            return (ctx & AT_END) != 0;
+        case WORD_BOUNDARY:
+            return ((ctx & PREV_WORD) != 0) != ((ctx & NEXT_WORD) != 0);
+        default:
+            return ((ctx & PREV_WORD) != 0) == ((ctx & NEXT_WORD) != 0);
+        }
+    }
+
+    private long[] matches(int[] closed) {
+        long[] result = null;
+        for (int s : closed) {
+            if (kinds[s] == ACCEPT) {
+                if (result == null) {
+                    result = new long[words];
+                }
+                int id = (Integer) args[s];
+                result[id >>> 6] |= 1L << id;
+            }
+        }
+        return result == null ? NO_MATCHES : result;
+    }
+
+    /**
+     * @return the state after consuming a character of the class from the
+     *         closed set of NFA states, restarting the search as well.
+     */
+    private State step(int[] closed, int cls, int word) {
+        int[] targets = new int[closed.length + 1];
+        int count = 0;
+        for (int s : closed) {
+            if (kinds[s] == CHAR && ((BitSet) args[s]).get(cls)) {
+                targets[count++] = outs[s][0];
+            }
+        }
+        targets[count++] = start;
+        int[] set = close(Arrays.copyOf(targets, count), NONE);
+        return state(set, word == 1 ? PREV_WORD : 0);
+    }
+
+    private synchronized State state(int[] set, int flags) {
+        Key key = new Key(set, flags);
+        State state = states.get(key);
+        if (state == null) {
+            if (states.size() >= MAX_DFA_STATES) {
+                flush();
+            }
+            state = newState(set, flags);
+            states.put(key, state);
+        }
+        return state;
+    }
+
+    private State newState(int[] set, int flags) {
+        long[][] matches = new long[3][];
+        matches[0] = matches(close(set, flags));
+        matches[1] = matches(close(set, flags | NEXT_WORD));
+        matches[2] = matches(close(set, flags | AT_END));
+        return new State(set, flags, new State[classCount * 2], matches);
+    }
+
+    /**
+     * drops the cached states. Scans in progress finish on the old states.
+     */
+    private synchronized void flush() {
+        if (initial != null) {
+            flushes++;
+        }
+        states = new HashMap<>();
+        int[] set = close(new int[] { start }, NONE);
+        State first = newState(set, AT_START);
+        states.put(new Key(set, AT_START), first);
+        initial = first;
+    }
+
+    /**
+     * @return the number of cached DFA states.
+     */
+    synchronized int size() {
+        return states.size();
+    }
+
+    /**
+     * @return the number of times the cache was flushed.
+     */
+    synchronized long getFlushes() {
+        return flushes;
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright 2016 E.Hooijmeijer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.ctrlaltdev.harbinger.rule;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+
+/**
+ * Normalizes input before it is matched against the detection rules: URL
+ * escapes are decoded and the result is converted to lower case.
+ * <p>
+ * Plain ASCII input is decoded and folded in a single pass into a buffer
+ * that is reused per thread, so normalizing does not allocate. The returned
+ * CharSequence is only valid until the next call to normalize on the same
+ * thread, use toString() to keep it. Input that does not need any change is
+ * returned as is. Non ASCII characters (encoded or not) and malformed
+ * escapes take the slower path of URLDecoder and String.toLowerCase().
+ */
+public final class Normalizer {
+
+    /** buffers larger than this are not kept around. */
+    private static final int MAX_BUFFER = 16 * 1024;
+    private static final ThreadLocal<Buffer> BUFFER = ThreadLocal.withInitial(Buffer::new);
+
+    private Normalizer() {
+    }
+
+    /**
+     * Reusable, per thread, character buffer.
+     */
+    private static final class Buffer implements CharSequence {
+        private char[] chars = new char[256];
+        private int length;
+
+        @Override
+        public int length() {
+            return length;
+        }
+
+        @Override
+        public char charAt(int index) {
+            if (index >= length) {
+                throw new IndexOutOfBoundsException(String.valueOf(index));
+            }
+            return chars[index];
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            if (end > length) {
+                throw new IndexOutOfBoundsException(String.valueOf(end));
+            }
+            return new String(chars, start, end - start);
+        }
+
+        @Override
+        public String toString() {
+            return new String(chars, 0, length);
+        }
+    }
+
+    /**
+     * @param value the value to normalize, not null.
+     * @return the normalized value.
+     */
+    public static CharSequence normalize(String value) {
+        int len = value.length();
+        int start = 0;
+        while (start < len && isPlain(value.charAt(start))) {
+            start++;
+        }
+        if (start == len) {
+            return value;
+        }
+        boolean decode = value.indexOf('%', start) >= 0;
+        Buffer buffer = len > MAX_BUFFER ? new Buffer() : BUFFER.get();
+        if (buffer.chars.length < len) {
+            buffer.chars = new char[Math.max(len, buffer.chars.length * 2)];
+        }
+        char[] out = buffer.chars;
+        value.getChars(0, start, out, 0);
+        int pos = start;
+        for (int t = start; t < len; t++) {
+            char c = value.charAt(t);
+            if (c >= 0x80) {
+                return slow(value);
+            } else if (decode && c == '+') {
+                c = ' ';
+            } else if (decode && c == '%') {
+                int hi = (t + 2 < len) ? Character.digit(value.charAt(t + 1), 16) : -1;
+                int lo = (hi >= 0) ? Character.digit(value.charAt(t + 2), 16) : -1;
+                if (lo < 0 || hi >= 8) {
+                    // malformed or non ASCII, let URLDecoder decide.
+                    return slow(value);
+                }
+                c = (char) ((hi << 4) | lo);
+                t += 2;
+            }
+            if (c >= 'A' && c <= 'Z') {
+                c += 'a' - 'A';
+            }
+            out[pos++] = c;
+        }
+        buffer.length = pos;
+        return buffer;
+    }
+
+    private static boolean isPlain(char c) {
+        return c < 0x80 && c != '%' && c != '+' && (c < 'A' || c > 'Z');
+    }
+
+    /**
+     * the original normalization: URLDecoder and String.toLowerCase().
+     */
+    static String slow(String value) {
+        return urldecode(value).toLowerCase();
+    }
+
+    private static String urldecode(String str) {
+        if (str.indexOf('%') >= 0) {
+            try {
+                return URLDecoder.decode(str, "UTF-8");
+            } catch (UnsupportedEncodingException | IllegalArgumentException ex) {
+                return str;
+            }
+        } else {
+            return str;
+        }
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright 2016 E.Hooijmeijer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.ctrlaltdev.harbinger.rule;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Syntax tree of the subset of java.util.regex that Harbinger is able to
+ * analyse. See {@link RegexParser}.
+ */
+abstract class RegexNode {
+
+    /**
+     * A single literal character.
+     */
+    static final class Literal extends RegexNode {
+        final char c;
+
+        Literal(char c) {
+            this.c = c;
+        }
+    }
+
+    /**
+     * A set of characters, stored as sorted, non overlapping, inclusive
+     * ranges.
+     */
+    static final class CharSet extends RegexNode {
+
+        static final CharSet ALL = new CharSet(new int[] { 0, Character.MAX_VALUE });
+        static final CharSet DIGIT = new CharSet(new int[] { '0', '9' });
+        static final CharSet SPACE = new CharSet(new int[] { '\t', '\r', ' ', ' ' });
+        static final CharSet WORD = new CharSet(new int[] { '0', '9', 'A', 'Z', '_', '_', 'a', 'z' });
+        static final CharSet LINE_TERMINATOR = new CharSet(new int[] { '\n', '\n', '\r', '\r', 0x85, 0x85, 0x2028, 0x2029 });
+        static final CharSet DOT = LINE_TERMINATOR.complement();
+
+        final int[] ranges;
+
+        CharSet(int[] ranges) {
+            this.ranges = ranges;
+        }
+
+        static CharSet of(char c) {
+            return new CharSet(new int[] { c, c });
+        }
+
+        static CharSet range(char from, char to) {
+            return new CharSet(new int[] { from, to });
+        }
+
+        boolean contains(char c) {
+            for (int t = 0; t < ranges.length; t += 2) {
+                if (c < ranges[t]) {
+                    return false;
+                } else if (c <= ranges[t + 1]) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        boolean isSingle() {
+            return ranges.length == 2 && ranges[0] == ranges[1];
+        }
+
+        CharSet union(CharSet other) {
+            int[] all = Arrays.copyOf(ranges, ranges.length + other.ranges.length);
+            System.arraycopy(other.ranges, 0, all, ranges.length, other.ranges.length);
+            int[][] pairs = new int[all.length / 2][];
+            for (int t = 0; t < pairs.length; t++) {
+                pairs[t] = new int[] { all[t * 2], all[t * 2 + 1] };
+            }
+            Arrays.sort(pairs, (a, b) -> Integer.compare(a[0], b[0]));
+            List<int[]> merged = new ArrayList<>();
+            for (int[] p : pairs) {
+                int[] last = merged.isEmpty() ? null : merged.get(merged.size() - 1);
+                if (last != null && p[0] <= last[1] + 1) {
+                    last[1] = Math.max(last[1], p[1]);
+                } else {
+                    merged.add(p);
+                }
+            }
+            int[] result = new int[merged.size() * 2];
+            for (int t = 0; t < merged.size(); t++) {
+                result[t * 2] = merged.get(t)[0];
+                result[t * 2 + 1] = merged.get(t)[1];
+            }
+            return new CharSet(result);
+        }
+
+        CharSet complement() {
+            List<Integer> result = new ArrayList<>();
+            int next = 0;
+            for (int t = 0; t < ranges.length; t += 2) {
+                if (ranges[t] > next) {
+                    result.add(next);
+                    result.add(ranges[t] - 1);
+                }
+                next = ranges[t + 1] + 1;
+            }
+            if (next <= Character.MAX_VALUE) {
+                result.add(next);
+                result.add((int) Character.MAX_VALUE);
+            }
+            int[] r = new int[result.size()];
+            for (int t = 0; t < r.length; t++) {
+                r[t] = result.get(t);
+            }
+            return new CharSet(r);
+        }
+    }
+
+    /**
+     * Nodes that must match one after the other.
+     */
+    static final class Sequence extends RegexNode {
+        final List<RegexNode> nodes;
+
+        Sequence(List<RegexNode> nodes) {
+            this.nodes = nodes;
+        }
+    }
+
+    /**
+     * Nodes of which one must match.
+     */
+    static final class Alternation extends RegexNode {
+        final List<RegexNode> alternatives;
+
+        Alternation(List<RegexNode> alternatives) {
+            this.alternatives = alternatives;
+        }
+    }
+
+    /**
+     * Repetition of a node, max is -1 when unbounded.
+     */
+    static final class Repeat extends RegexNode {
+        final RegexNode node;
+        final int min;
+        final int max;
+
+        Repeat(RegexNode node, int min, int max) {
+            this.node = node;
+            this.min = min;
+            this.max = max;
+        }
+    }
+
+    /**
+     * Zero width assertion.
+     */
+    static final class Assertion extends RegexNode {
+        enum Kind {
+            BEGIN, END, WORD_BOUNDARY, NON_WORD_BOUNDARY;
+        }
+
+        final Kind kind;
+
+        Assertion(Kind kind) {
+            this.kind = kind;
+        }
+    }
+
+}
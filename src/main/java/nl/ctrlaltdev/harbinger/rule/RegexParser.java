@@ -0,0 +1,334 @@
+/*
+ * Copyright 2016 E.Hooijmeijer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.ctrlaltdev.harbinger.rule;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import nl.ctrlaltdev.harbinger.rule.RegexNode.Alternation;
+import nl.ctrlaltdev.harbinger.rule.RegexNode.Assertion;
+import nl.ctrlaltdev.harbinger.rule.RegexNode.CharSet;
+import nl.ctrlaltdev.harbinger.rule.RegexNode.Literal;
+import nl.ctrlaltdev.harbinger.rule.RegexNode.Repeat;
+import nl.ctrlaltdev.harbinger.rule.RegexNode.Sequence;
+
+/**
+ * Parses the commonly used subset of java.util.regex into a {@link RegexNode}
+ * tree, so rules can be analysed. Anything outside of this subset (flags,
+ * back references, look arounds, possessive quantifiers, unicode classes,
+ * supplementary characters, ..) is rejected with an
+ * IllegalArgumentException. The pattern itself is assumed to be valid.
+ */
+final class RegexParser {
+
+    private final String regex;
+    private int pos;
+
+    private RegexParser(String regex) {
+        this.regex = regex;
+    }
+
+    /**
+     * @param pattern the pattern.
+     * @return the parsed pattern.
+     * @throws IllegalArgumentException if the pattern is not supported.
+     */
+    static RegexNode parse(Pattern pattern) {
+        if (pattern.flags() != 0) {
+            throw new IllegalArgumentException("Flags are not supported.");
+        }
+        return parse(pattern.pattern());
+    }
+
+    /**
+     * @param regex the regular expression.
+     * @return the parsed regular expression.
+     * @throws IllegalArgumentException if the expression is not supported.
+     */
+    static RegexNode parse(String regex) {
+        RegexParser parser = new RegexParser(regex);
+        RegexNode node = parser.parseAlternation();
+        if (parser.pos != regex.length()) {
+            throw parser.unsupported();
+        }
+        return node;
+    }
+
+    private RegexNode parseAlternation() {
+        List<RegexNode> alternatives = new ArrayList<>();
+        alternatives.add(parseSequence());
+        while (pos < regex.length() && regex.charAt(pos) == '|') {
+            pos++;
+            alternatives.add(parseSequence());
+        }
+        return alternatives.size() == 1 ? alternatives.get(0) : new Alternation(alternatives);
+    }
+
+    private RegexNode parseSequence() {
+        List<RegexNode> nodes = new ArrayList<>();
+        while (pos < regex.length() && regex.charAt(pos) != '|' && regex.charAt(pos) != ')') {
+            nodes.add(parseQuantifier(parseAtom()));
+        }
+        return nodes.size() == 1 ? nodes.get(0) : new Sequence(nodes);
+    }
+
+    private RegexNode parseAtom() {
+        char c = next();
+        switch (c) {
+        case '(':
+            return parseGroup();
+        case '[':
+            return parseClass();
+        case '.':
+            return CharSet.DOT;
+        case '^':
+            return new Assertion(Assertion.Kind.BEGIN);
+        case '$':
+            return new Assertion(Assertion.Kind.END);
+        case '\\':
+            return parseEscape();
+        case '*':
+        case '+':
+        case '?':
+        case '{':
+            throw unsupported();
+        default:
+            return new Literal(checked(c));
+        }
+    }
+
+    private RegexNode parseGroup() {
+        if (peek() == '?') {
+            pos++;
+            char kind = next();
+            if (kind == '<' && Character.isLetter(peek())) {
+                while (next() != '>') {
+                    // skip the group name.
+                }
+            } else if (kind != ':') {
+                throw unsupported();
+            }
+        }
+        RegexNode node = parseAlternation();
+        if (next() != ')') {
+            throw unsupported();
+        }
+        return node;
+    }
+
+    private RegexNode parseQuantifier(RegexNode node) {
+        if (pos >= regex.length()) {
+            return node;
+        }
+        int min;
+        int max;
+        switch (regex.charAt(pos)) {
+        case '*':
+            min = 0;
+            max = -1;
+            pos++;
+            break;
+        case '+':
+            min = 1;
+            max = -1;
+            pos++;
+            break;
+        case '?':
+            min = 0;
+            max = 1;
+            pos++;
+            break;
+        case '{':
+            pos++;
+            min = parseNumber();
+            if (peek() == ',') {
+                pos++;
+                max = peek() == '}' ? -1 : parseNumber();
+            } else {
+                max = min;
+            }
+            if (next() != '}') {
+                throw unsupported();
+            }
+            break;
+        default:
+            return node;
+        }
+        if (pos < regex.length()) {
+            if (regex.charAt(pos) == '+') {
+                throw unsupported();
+            } else if (regex.charAt(pos) == '?') {
+                pos++; // reluctant makes no difference when only searching.
+            }
+        }
+        if (node instanceof Assertion) {
+            throw unsupported();
+        }
+        return new Repeat(node, min, max);
+    }
+
+    private int parseNumber() {
+        int start = pos;
+        while (pos < regex.length() && Character.isDigit(regex.charAt(pos))) {
+            pos++;
+        }
+        if (start == pos || pos - start > 6) {
+            throw unsupported();
+        }
+        return Integer.parseInt(regex.substring(start, pos));
+    }
+
+    private RegexNode parseEscape() {
+        char c = next();
+        switch (c) {
+        case 'b':
+            return new Assertion(Assertion.Kind.WORD_BOUNDARY);
+        case 'B':
+            return new Assertion(Assertion.Kind.NON_WORD_BOUNDARY);
+        default:
+            CharSet set = predefined(c);
+            if (set != null) {
+                return set;
+            }
+            return new Literal(escaped(c));
+        }
+    }
+
+    private CharSet parseClass() {
+        boolean negate = false;
+        if (peek() == '^') {
+            negate = true;
+            pos++;
+        }
+        if (peek() == ']') {
+            throw unsupported();
+        }
+        CharSet set = null;
+        char c = next();
+        while (c != ']') {
+            CharSet item;
+            if (c == '[' || (c == '&' && peek() == '&')) {
+                throw unsupported();
+            } else if (c == '\\') {
+                char e = next();
+                item = predefined(e);
+                if (item == null) {
+                    item = parseRange(escaped(e));
+                }
+            } else {
+                item = parseRange(checked(c));
+            }
+            set = (set == null) ? item : set.union(item);
+            c = next();
+        }
+        return negate ? set.complement() : set;
+    }
+
+    private CharSet parseRange(char from) {
+        if (peek() == '-' && pos + 1 < regex.length() && regex.charAt(pos + 1) != ']') {
+            pos++;
+            char to = next();
+            if (to == '\\') {
+                to = escaped(next());
+            } else if (to == '[') {
+                throw unsupported();
+            }
+            return CharSet.range(from, checked(to));
+        }
+        return CharSet.of(from);
+    }
+
+    private CharSet predefined(char c) {
+        switch (c) {
+        case 'd':
+            return CharSet.DIGIT;
+        case 'D':
+            return CharSet.DIGIT.complement();
+        case 's':
+            return CharSet.SPACE;
+        case 'S':
+            return CharSet.SPACE.complement();
+        case 'w':
+            return CharSet.WORD;
+        case 'W':
+            return CharSet.WORD.complement();
+        default:
+            return null;
+        }
+    }
+
+    private char escaped(char c) {
+        switch (c) {
+        case 't':
+            return '\t';
+        case 'n':
+            return '\n';
+        case 'r':
+            return '\r';
+        case 'f':
+            return '\f';
+        case 'a':
+            return '\u0007';
+        case 'e':
+            return '\u001B';
+        case 'x':
+            return hex(2);
+        case 'u':
+            return checked(hex(4));
+        default:
+            if (Character.isLetterOrDigit(c)) {
+                throw unsupported();
+            }
+            return checked(c);
+        }
+    }
+
+    private char hex(int length) {
+        if (pos + length > regex.length()) {
+            throw unsupported();
+        }
+        try {
+            int value = Integer.parseInt(regex.substring(pos, pos + length), 16);
+            pos += length;
+            return (char) value;
+        } catch (NumberFormatException ex) {
+            throw unsupported();
+        }
+    }
+
+    private char checked(char c) {
+        if (Character.isSurrogate(c)) {
+            throw unsupported();
+        }
+        return c;
+    }
+
+    private char peek() {
+        return pos < regex.length() ? regex.charAt(pos) : 0;
+    }
+
+    private char next() {
+        if (pos >= regex.length()) {
+            throw unsupported();
+        }
+        return regex.charAt(pos++);
+    }
+
+    private IllegalArgumentException unsupported() {
+        return new IllegalArgumentException("Unsupported construct at " + pos + " in '" + regex + "'");
+    }
+}
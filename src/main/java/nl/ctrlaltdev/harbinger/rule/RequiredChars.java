@@ -0,0 +1,115 @@
+/*
+ * Copyright 2016 E.Hooijmeijer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.ctrlaltdev.harbinger.rule;
+
+import java.util.regex.Pattern;
+
+import nl.ctrlaltdev.harbinger.rule.RegexNode.Alternation;
+import nl.ctrlaltdev.harbinger.rule.RegexNode.Assertion;
+import nl.ctrlaltdev.harbinger.rule.RegexNode.CharSet;
+import nl.ctrlaltdev.harbinger.rule.RegexNode.Literal;
+import nl.ctrlaltdev.harbinger.rule.RegexNode.Repeat;
+import nl.ctrlaltdev.harbinger.rule.RegexNode.Sequence;
+
+/**
+ * Determines a set of characters of which at least one must be present in a
+ * value for a pattern to be able to match it. For example '&lt;script[^&gt;]*&gt;'
+ * requires '&lt;' and '(or|and)' requires 'o' or 'a'. Of the candidate sets
+ * the one with the fewest characters common in benign values (letters,
+ * digits, space and '-_.@') is chosen, so most benign values can be passed
+ * without evaluating the rule.
+ */
+final class RequiredChars {
+
+    private static final CharSet COMMON = new CharSet(new int[] { ' ', ' ', '-', '.', '0', '9', '@', 'Z', '_', '_', 'a', 'z' });
+
+    private RequiredChars() {
+    }
+
+    /**
+     * @param pattern the pattern.
+     * @return the required characters, or null if the pattern can not be
+     *         analysed or may match without any particular character.
+     */
+    static CharSet of(Pattern pattern) {
+        try {
+            return analyse(RegexParser.parse(pattern));
+        } catch (IllegalArgumentException ex) {
+            return null;
+        }
+    }
+
+    private static CharSet analyse(RegexNode node) {
+        if (node instanceof Literal) {
+            return CharSet.of(((Literal) node).c);
+        } else if (node instanceof CharSet) {
+            return (CharSet) node;
+        } else if (node instanceof Assertion) {
+            return null;
+        } else if (node instanceof Sequence) {
+            CharSet best = null;
+            for (RegexNode child : ((Sequence) node).nodes) {
+                best = better(best, analyse(child));
+            }
+            return best;
+        } else if (node instanceof Alternation) {
+            CharSet any = null;
+            for (RegexNode alternative : ((Alternation) node).alternatives) {
+                CharSet required = analyse(alternative);
+                if (required == null) {
+                    return null;
+                }
+                any = any == null ? required : any.union(required);
+            }
+            return any;
+        } else if (node instanceof Repeat) {
+            return ((Repeat) node).min == 0 ? null : analyse(((Repeat) node).node);
+        }
+        throw new IllegalArgumentException(String.valueOf(node));
+    }
+
+    private static CharSet better(CharSet a, CharSet b) {
+        if (a == null) {
+            return b;
+        } else if (b == null) {
+            return a;
+        }
+        int ca = common(a);
+        int cb = common(b);
+        if (ca != cb) {
+            return ca < cb ? a : b;
+        }
+        return size(a) <= size(b) ? a : b;
+    }
+
+    private static int common(CharSet set) {
+        int count = 0;
+        for (int t = 0; t < COMMON.ranges.length; t += 2) {
+            for (int c = COMMON.ranges[t]; c <= COMMON.ranges[t + 1]; c++) {
+                count += set.contains((char) c) ? 1 : 0;
+            }
+        }
+        return count;
+    }
+
+    private static long size(CharSet set) {
+        long size = 0;
+        for (int t = 0; t < set.ranges.length; t += 2) {
+            size += set.ranges[t + 1] - set.ranges[t] + 1;
+        }
+        return size;
+    }
+}
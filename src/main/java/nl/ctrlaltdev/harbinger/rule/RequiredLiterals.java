@@ -0,0 +1,172 @@
+/*
+ * Copyright 2016 E.Hooijmeijer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.ctrlaltdev.harbinger.rule;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import nl.ctrlaltdev.harbinger.rule.RegexNode.Alternation;
+import nl.ctrlaltdev.harbinger.rule.RegexNode.Assertion;
+import nl.ctrlaltdev.harbinger.rule.RegexNode.CharSet;
+import nl.ctrlaltdev.harbinger.rule.RegexNode.Literal;
+import nl.ctrlaltdev.harbinger.rule.RegexNode.Repeat;
+import nl.ctrlaltdev.harbinger.rule.RegexNode.Sequence;
+
+/**
+ * Determines the literals of which at least one must be present in a value
+ * for a pattern to be able to match it. For example '&lt;script[^&gt;]*&gt;'
+ * requires '&lt;script' and '(foo|bar)\d+' requires either 'foo' or 'bar'.
+ */
+final class RequiredLiterals {
+
+    private static final int MAX_ALTERNATIVES = 64;
+    private static final int MAX_LENGTH = 64;
+
+    /**
+     * Result of the analysis of a single node.
+     */
+    private static final class Info {
+        /** the exact string the node matches, or null if it varies. */
+        final String exact;
+        /** at least one of these must be present, or null if unknown. */
+        final Set<String> any;
+
+        Info(String exact, Set<String> any) {
+            this.exact = exact;
+            this.any = (any == null || any.isEmpty() || any.contains("")) ? null : any;
+        }
+
+        static Info exact(String str) {
+            return new Info(str, str.isEmpty() ? null : Collections.singleton(str));
+        }
+    }
+
+    private RequiredLiterals() {
+    }
+
+    /**
+     * @param pattern the pattern.
+     * @return the required literals or an empty list if the pattern cannot be
+     *         prefiltered.
+     */
+    static List<String> of(Pattern pattern) {
+        try {
+            Set<String> any = analyse(RegexParser.parse(pattern)).any;
+            return any == null ? Collections.emptyList() : new ArrayList<>(any);
+        } catch (IllegalArgumentException ex) {
+            return Collections.emptyList();
+        }
+    }
+
+    private static Info analyse(RegexNode node) {
+        if (node instanceof Literal) {
+            return Info.exact(String.valueOf(((Literal) node).c));
+        } else if (node instanceof CharSet) {
+            CharSet set = (CharSet) node;
+            return set.isSingle() ? Info.exact(String.valueOf((char) set.ranges[0])) : new Info(null, null);
+        } else if (node instanceof Assertion) {
+            return Info.exact("");
+        } else if (node instanceof Sequence) {
+            return analyseSequence((Sequence) node);
+        } else if (node instanceof Alternation) {
+            return analyseAlternation((Alternation) node);
+        } else if (node instanceof Repeat) {
+            return analyseRepeat((Repeat) node);
+        }
+        throw new IllegalArgumentException(String.valueOf(node));
+    }
+
+    private static Info analyseSequence(Sequence seq) {
+        StringBuilder run = new StringBuilder();
+        StringBuilder exact = new StringBuilder();
+        boolean isExact = true;
+        Set<String> best = null;
+        for (RegexNode node : seq.nodes) {
+            Info info = analyse(node);
+            if (info.exact != null) {
+                run.append(info.exact);
+                exact.append(info.exact);
+            } else {
+                isExact = false;
+                best = better(best, single(run));
+                run.setLength(0);
+                best = better(best, info.any);
+            }
+        }
+        best = better(best, single(run));
+        return new Info(isExact ? exact.toString() : null, best);
+    }
+
+    private static Info analyseAlternation(Alternation alt) {
+        Set<String> any = new LinkedHashSet<>();
+        for (RegexNode node : alt.alternatives) {
+            Info info = analyse(node);
+            if (info.any == null) {
+                return new Info(null, null);
+            }
+            any.addAll(info.any);
+        }
+        return new Info(null, any.size() > MAX_ALTERNATIVES ? null : any);
+    }
+
+    private static Info analyseRepeat(Repeat repeat) {
+        Info info = analyse(repeat.node);
+        if (repeat.min == 0) {
+            return repeat.max == 0 ? Info.exact("") : new Info(null, null);
+        } else if (repeat.min == repeat.max && info.exact != null && info.exact.length() * repeat.min <= MAX_LENGTH) {
+            StringBuilder sb = new StringBuilder();
+            for (int t = 0; t < repeat.min; t++) {
+                sb.append(info.exact);
+            }
+            return Info.exact(sb.toString());
+        }
+        return new Info(null, info.any);
+    }
+
+    private static Set<String> single(CharSequence run) {
+        return run.length() == 0 ? null : Collections.singleton(run.toString());
+    }
+
+    /**
+     * prefers the set of literals of which the shortest one is the longest,
+     * as longer literals are less likely to occur by chance.
+     */
+    private static Set<String> better(Set<String> a, Set<String> b) {
+        if (a == null) {
+            return b;
+        } else if (b == null) {
+            return a;
+        }
+        int ma = minLength(a);
+        int mb = minLength(b);
+        if (ma != mb) {
+            return ma > mb ? a : b;
+        }
+        return a.size() <= b.size() ? a : b;
+    }
+
+    private static int minLength(Set<String> set) {
+        int min = Integer.MAX_VALUE;
+        for (String s : set) {
+            min = Math.min(min, s.length());
+        }
+        return min;
+    }
+}
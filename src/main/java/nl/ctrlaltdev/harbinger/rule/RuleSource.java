@@ -0,0 +1,83 @@
+/*
+ * Copyright 2016 E.Hooijmeijer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.ctrlaltdev.harbinger.rule;
+
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Set;
+
+/**
+ * Source of detection rules that can change while the application runs, see
+ * {@link DetectionRuleReloader}.
+ */
+public interface RuleSource {
+
+    /**
+     * @return a version that differs whenever the rules differ, for example
+     *         a checksum of the file the rules are loaded from.
+     * @throws RuntimeException if the source cannot be read.
+     */
+    long getVersion();
+
+    /**
+     * @return the rules.
+     * @throws RuntimeException if the source cannot be read or contains an
+     *         invalid rule.
+     */
+    Set<DetectionRule> load();
+
+    /**
+     * @param path the rules file.
+     * @return a source that reads the rules from the given file.
+     */
+    static RuleSource file(Path path) {
+        return file(path, new DetectionRuleLoader());
+    }
+
+    /**
+     * @param path the rules file.
+     * @param loader the loader that parses the rules.
+     * @return a source that reads the rules from the given file.
+     */
+    static RuleSource file(Path path, DetectionRuleLoader loader) {
+        return new StreamRuleSource(path.toString(), () -> Files.newInputStream(path), loader);
+    }
+
+    /**
+     * @param resource the rules resource, for example /default-rules.txt.
+     * @return a source that reads the rules from the classpath.
+     */
+    static RuleSource classpath(String resource) {
+        return classpath(resource, new DetectionRuleLoader());
+    }
+
+    /**
+     * @param resource the rules resource.
+     * @param loader the loader that parses the rules.
+     * @return a source that reads the rules from the classpath.
+     */
+    static RuleSource classpath(String resource, DetectionRuleLoader loader) {
+        return new StreamRuleSource(resource, () -> {
+            InputStream in = RuleSource.class.getResourceAsStream(resource);
+            if (in == null) {
+                throw new RuntimeException("Failed opening " + resource + " from classpath.");
+            }
+            return in;
+        }, loader);
+    }
+
+}
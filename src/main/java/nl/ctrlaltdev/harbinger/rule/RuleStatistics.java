@@ -0,0 +1,108 @@
+/*
+ * Copyright 2016 E.Hooijmeijer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.ctrlaltdev.harbinger.rule;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Per rule evaluation counts, hits and (sampled) cost of a
+ * {@link DetectionRuleSet}, from which the order is derived in which rules
+ * are evaluated: by expected cost per hit, so cheap rules that are likely
+ * to match come first. Ties keep the canonical order.
+ */
+final class RuleStatistics {
+
+    private final LongAdder[] evaluations;
+    private final LongAdder[] hits;
+    private final LongAdder[] samples;
+    private final LongAdder[] cost;
+
+    RuleStatistics(int size) {
+        evaluations = adders(size);
+        hits = adders(size);
+        samples = adders(size);
+        cost = adders(size);
+    }
+
+    private static LongAdder[] adders(int size) {
+        LongAdder[] result = new LongAdder[size];
+        for (int t = 0; t < size; t++) {
+            result[t] = new LongAdder();
+        }
+        return result;
+    }
+
+    /**
+     * records an evaluation of a rule.
+     * @param idx the canonical index of the rule.
+     * @param hit true if the rule matched.
+     * @param sampledCost the cost of the evaluation, or -1 if not sampled.
+     */
+    void record(int idx, boolean hit, long sampledCost) {
+        evaluations[idx].increment();
+        if (hit) {
+            hits[idx].increment();
+        }
+        if (sampledCost >= 0) {
+            samples[idx].increment();
+            cost[idx].add(sampledCost);
+        }
+    }
+
+    /**
+     * @return the average cost of the rule, or the given default if it has
+     *         not been sampled.
+     */
+    double getAverageCost(int idx, double unknown) {
+        long n = samples[idx].sum();
+        return n == 0 ? unknown : Math.max(1.0, (double) cost[idx].sum() / n);
+    }
+
+    /**
+     * @return the hit rate of the rule, estimated with add-one smoothing so
+     *         rules that have not been evaluated yet are not ruled out.
+     */
+    double getHitRate(int idx) {
+        return (hits[idx].sum() + 1.0) / (evaluations[idx].sum() + 2.0);
+    }
+
+    /**
+     * @return the canonical indices of the rules in evaluation order.
+     */
+    int[] order() {
+        int size = evaluations.length;
+        long totalSamples = 0;
+        long totalCost = 0;
+        for (int t = 0; t < size; t++) {
+            totalSamples += samples[t].sum();
+            totalCost += cost[t].sum();
+        }
+        // rules without samples are assumed to be of average cost.
+        double unknown = totalSamples == 0 ? 1.0 : Math.max(1.0, (double) totalCost / totalSamples);
+        double[] expected = new double[size];
+        Integer[] order = new Integer[size];
+        for (int t = 0; t < size; t++) {
+            expected[t] = getAverageCost(t, unknown) / getHitRate(t);
+            order[t] = t;
+        }
+        Arrays.sort(order, (a, b) -> {
+            int c = Double.compare(expected[a], expected[b]);
+            return c != 0 ? c : Integer.compare(a, b);
+        });
+        return Arrays.stream(order).mapToInt(Integer::intValue).toArray();
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2016 E.Hooijmeijer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.ctrlaltdev.harbinger.rule;
+
+/**
+ * CharSequence that limits the work a regular expression can do on a value.
+ * The regex engine reads the value one character at a time, so every read
+ * is counted as a step. When the steps run out, or the thread is
+ * interrupted, the match is aborted. Also hides all but the first
+ * characters of the value from the regular expression, see
+ * {@link DetectionRule#matches(CharSequence)} for the rest. Subsequences
+ * are views that spend the same budget.
+ */
+final class ScanBudget implements CharSequence {
+
+    private static final int INTERRUPT_CHECK = 0x3FF;
+
+    private final DetectionRule rule;
+    private final CharSequence value;
+    private final int length;
+    private long remaining;
+
+    ScanBudget(DetectionRule rule, CharSequence value, int maxChars, long maxSteps) {
+        this.rule = rule;
+        this.value = value;
+        this.length = Math.min(value.length(), maxChars);
+        this.remaining = maxSteps;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (--remaining < 0) {
+            throw new ScanBudgetExceededException(rule);
+        }
+        if ((remaining & INTERRUPT_CHECK) == 0 && Thread.currentThread().isInterrupted()) {
+            throw new ScanBudgetExceededException(rule, true);
+        }
+        return value.charAt(index);
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return new View(this, 0, length).subSequence(start, end);
+    }
+
+    @Override
+    public String toString() {
+        return copy(0, length);
+    }
+
+    /**
+     * copies a part of the value, which costs a step per character.
+     */
+    private String copy(int start, int end) {
+        remaining -= end - start;
+        if (remaining < 0) {
+            throw new ScanBudgetExceededException(rule);
+        }
+        return value.subSequence(start, end).toString();
+    }
+
+    /**
+     * A part of the value, read through the budget.
+     */
+    private static final class View implements CharSequence {
+
+        private final ScanBudget budget;
+        private final int offset;
+        private final int length;
+
+        View(ScanBudget budget, int offset, int length) {
+            this.budget = budget;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        @Override
+        public char charAt(int index) {
+            if (index < 0 || index >= length) {
+                throw new IndexOutOfBoundsException(String.valueOf(index));
+            }
+            return budget.charAt(offset + index);
+        }
+
+        @Override
+        public int length() {
+            return length;
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            if (start < 0 || end > length || start > end) {
+                throw new IndexOutOfBoundsException(start + ".." + end);
+            }
+            return new View(budget, offset + start, end - start);
+        }
+
+        @Override
+        public String toString() {
+            return budget.copy(offset, offset + length);
+        }
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright 2016 E.Hooijmeijer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.ctrlaltdev.harbinger.rule;
+
+/**
+ * Thrown when evaluating a {@link DetectionRule} takes more steps than its
+ * budget allows, typically because a crafted value makes the regular
+ * expression backtrack catastrophically, or when the value is longer than
+ * the rule scans. Also thrown when the scanning thread is interrupted.
+ * Carries no stack trace, as it is expected under attack.
+ */
+public class ScanBudgetExceededException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final transient DetectionRule rule;
+    private final boolean interrupted;
+
+    public ScanBudgetExceededException(DetectionRule rule) {
+        this(rule, false);
+    }
+
+    /**
+     * @param rule the rule.
+     * @param interrupted true if the scan was aborted because the thread was
+     *        interrupted, rather than by the value itself.
+     */
+    public ScanBudgetExceededException(DetectionRule rule, boolean interrupted) {
+        super((interrupted ? "Scan of " + rule.getName() + " interrupted." : "Scan budget of " + rule.getName() + " exceeded."), null, false, false);
+        this.rule = rule;
+        this.interrupted = interrupted;
+    }
+
+    /**
+     * @return the rule that exceeded its budget.
+     */
+    public DetectionRule getRule() {
+        return rule;
+    }
+
+    /**
+     * @return true if the scan was interrupted, so another scan of the same
+     *         value may well complete.
+     */
+    public boolean isInterrupted() {
+        return interrupted;
+    }
+}
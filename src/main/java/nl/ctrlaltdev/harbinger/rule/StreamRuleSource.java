@@ -0,0 +1,87 @@
+/*
+ * Copyright 2016 E.Hooijmeijer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.ctrlaltdev.harbinger.rule;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+/**
+ * Rules read from a stream, such as a file or a classpath resource. The
+ * version is the CRC32 checksum of the content, so a change is detected even
+ * if the modification time does not change.
+ */
+final class StreamRuleSource implements RuleSource {
+
+    /**
+     * opens the stream to read the rules from.
+     */
+    @FunctionalInterface
+    interface Opener {
+        InputStream open() throws IOException;
+    }
+
+    private final String name;
+    private final Opener opener;
+    private final DetectionRuleLoader loader;
+
+    StreamRuleSource(String name, Opener opener, DetectionRuleLoader loader) {
+        this.name = name;
+        this.opener = opener;
+        this.loader = loader;
+    }
+
+    @Override
+    public long getVersion() {
+        CRC32 crc = new CRC32();
+        crc.update(read());
+        return crc.getValue();
+    }
+
+    @Override
+    public Set<DetectionRule> load() {
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(read()), StandardCharsets.UTF_8))) {
+            return loader.load(in);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed reading " + name, e);
+        }
+    }
+
+    private byte[] read() {
+        try (InputStream in = opener.open()) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int len;
+            while ((len = in.read(buffer)) >= 0) {
+                out.write(buffer, 0, len);
+            }
+            return out.toByteArray();
+        } catch (IOException e) {
+            throw new RuntimeException("Failed reading " + name, e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -0,0 +1,220 @@
+/*
+ * Copyright 2016 E.Hooijmeijer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.ctrlaltdev.harbinger.rule;
+
+import java.security.SecureRandom;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded cache of the outcome of scanning a value against a
+ * {@link DetectionRuleSet}, so values that are seen over and over again
+ * (pagination tokens, search terms, locale codes) are only scanned once.
+ * <p>
+ * Values are keyed by a randomly seeded 64-bit hash. Each entry is a single
+ * long holding 48 bits of that hash and a 16 bit verdict, kept in 8-way
+ * associative sets, so reads and writes are lock free and never see a torn
+ * entry. A small count-min sketch estimates how often values are requested,
+ * a new value only replaces the least frequently requested value of its set
+ * if it has been requested more often (TinyLFU admission), so one-off values
+ * do not flush popular ones.
+ */
+public class VerdictCache {
+
+    /** verdict for values that did not match any rule. */
+    static final int CLEAN = 0xFFFF;
+    /** verdict returned for values that are not in the cache. */
+    static final int MISS = 0;
+    /** largest rule index that can be cached. */
+    static final int MAX_RULE = CLEAN - 2;
+    /** values longer than this are not cached. */
+    static final int MAX_LENGTH = 2048;
+
+    private static final int WAYS = 8;
+    private static final long VERDICT_MASK = 0xFFFFL;
+    private static final long KEY_MASK = ~VERDICT_MASK;
+
+    private final long seed = new SecureRandom().nextLong();
+    private final AtomicLongArray entries;
+    private final int setMask;
+    private final long[] sketch;
+    private final int sketchMask;
+    private final int sampleSize;
+    private int samples;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * @param maximumSize the maximum number of cached verdicts (rounded up to
+     *        a power of two).
+     */
+    public VerdictCache(int maximumSize) {
+        if (maximumSize <= 0) {
+            throw new IllegalArgumentException("Invalid size " + maximumSize);
+        }
+        int sets = Math.max(1, Integer.highestOneBit(Math.max(WAYS, maximumSize) - 1) * 2 / WAYS);
+        this.entries = new AtomicLongArray(sets * WAYS);
+        this.setMask = sets - 1;
+        int width = Math.max(16, Integer.highestOneBit(sets * WAYS - 1) * 2);
+        this.sketch = new long[width];
+        this.sketchMask = width - 1;
+        this.sampleSize = 10 * sets * WAYS;
+    }
+
+    /**
+     * @param value the value.
+     * @return the (seeded) hash of the value, used as key.
+     */
+    long hash(CharSequence value) {
+        long h = seed ^ (value.length() * 0xC6A4A7935BD1E995L);
+        for (int t = 0; t < value.length(); t++) {
+            h = (h ^ value.charAt(t)) * 0x9E3779B97F4A7C15L;
+            h ^= h >>> 32;
+        }
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * @param value the value.
+     * @return true if the verdict for this value may be cached.
+     */
+    boolean isCacheable(CharSequence value) {
+        return value.length() <= MAX_LENGTH;
+    }
+
+    /**
+     * @param hash the hash of the value.
+     * @return the cached verdict, or MISS.
+     */
+    int get(long hash) {
+        long key = hash & KEY_MASK;
+        increment(key);
+        int base = setOf(key);
+        for (int w = 0; w < WAYS; w++) {
+            long entry = entries.get(base + w);
+            if ((entry & KEY_MASK) == key && entry != 0) {
+                hits.increment();
+                return (int) (entry & VERDICT_MASK);
+            }
+        }
+        misses.increment();
+        return MISS;
+    }
+
+    /**
+     * @param hash the hash of the value.
+     * @param verdict the verdict to cache.
+     */
+    void put(long hash, int verdict) {
+        long key = hash & KEY_MASK;
+        long entry = key | verdict;
+        int base = setOf(key);
+        int victim = -1;
+        int victimFrequency = Integer.MAX_VALUE;
+        for (int w = 0; w < WAYS; w++) {
+            long current = entries.get(base + w);
+            if (current == 0 || (current & KEY_MASK) == key) {
+                entries.set(base + w, entry);
+                return;
+            }
+            int frequency = frequency(current & KEY_MASK);
+            if (frequency < victimFrequency) {
+                victim = base + w;
+                victimFrequency = frequency;
+            }
+        }
+        if (frequency(key) > victimFrequency) {
+            entries.set(victim, entry);
+        }
+    }
+
+    /**
+     * removes all cached verdicts, for example because the rules changed.
+     */
+    public void clear() {
+        for (int t = 0; t < entries.length(); t++) {
+            entries.set(t, 0L);
+        }
+        for (int t = 0; t < sketch.length; t++) {
+            sketch[t] = 0L;
+        }
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public int capacity() {
+        return entries.length();
+    }
+
+    private int setOf(long key) {
+        return ((int) (key >>> 16) & setMask) * WAYS;
+    }
+
+    /**
+     * count-min sketch with four rows of 4-bit counters, sixteen counters per
+     * long. Updates are racy by design, the estimate only has to be
+     * approximately right. Counters are halved every sampleSize increments so
+     * the sketch follows changes in popularity.
+     */
+    private void increment(long key) {
+        for (int row = 0; row < 4; row++) {
+            int idx = index(key, row);
+            int shift = counterShift(key, row);
+            if (((sketch[idx] >>> shift) & 0xFL) < 15) {
+                sketch[idx] += 1L << shift;
+            }
+        }
+        if (++samples >= sampleSize) {
+            samples = 0;
+            for (int t = 0; t < sketch.length; t++) {
+                sketch[t] = (sketch[t] >>> 1) & 0x7777777777777777L;
+            }
+        }
+    }
+
+    private int frequency(long key) {
+        int min = 15;
+        for (int row = 0; row < 4; row++) {
+            min = Math.min(min, (int) ((sketch[index(key, row)] >>> counterShift(key, row)) & 0xFL));
+        }
+        return min;
+    }
+
+    private int index(long key, int row) {
+        return (int) (mix(key, row) >>> 40) & sketchMask;
+    }
+
+    private int counterShift(long key, int row) {
+        return (int) ((mix(key, row) >>> 36) & 0xF) << 2;
+    }
+
+    private long mix(long key, int row) {
+        long h = (key ^ (row * 0xBF58476D1CE4E5B9L)) * 0x94D049BB133111EBL;
+        return h ^ (h >>> 31);
+    }
+}
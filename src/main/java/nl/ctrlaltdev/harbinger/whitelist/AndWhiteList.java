@@ -15,7 +15,9 @@
  */
 package nl.ctrlaltdev.harbinger.whitelist;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Predicate;
 
 import nl.ctrlaltdev.harbinger.evidence.Evidence;
 
@@ -38,4 +40,58 @@ public class AndWhiteList implements WhiteList {
         }
         return true;
     }
+
+    @Override
+    public boolean isWhitelistedBeforeScan(Evidence ev) {
+        for (WhiteList w : whitelist) {
+            if (!w.isWhitelistedBeforeScan(ev)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public Predicate<String> getParametersBeforeScan(Evidence ev) {
+        List<Predicate<String>> names = new ArrayList<>();
+        for (WhiteList w : whitelist) {
+            Predicate<String> p = w.getParametersBeforeScan(ev);
+            if (p == NO_PARAMETERS) {
+                return NO_PARAMETERS;
+            } else if (p != ALL_PARAMETERS) {
+                names.add(p);
+            }
+        }
+        if (names.isEmpty()) {
+            return ALL_PARAMETERS;
+        } else if (names.size() == 1) {
+            return names.get(0);
+        }
+        return (name) -> {
+            for (int t = 0; t < names.size(); t++) {
+                if (!names.get(t).test(name)) {
+                    return false;
+                }
+            }
+            return true;
+        };
+    }
+
+    @Override
+    public boolean isEmptyBeforeScan() {
+        for (WhiteList w : whitelist) {
+            if (w.isEmptyBeforeScan()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the composites.
+     */
+    public List<WhiteList> getWhiteLists() {
+        return whitelist;
+    }
+
 }
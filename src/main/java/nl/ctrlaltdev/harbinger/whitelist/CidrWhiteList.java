@@ -0,0 +1,63 @@
+/*
+ * Copyright 2016 E.Hooijmeijer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.ctrlaltdev.harbinger.whitelist;
+
+import java.util.Collections;
+import java.util.function.Predicate;
+
+import nl.ctrlaltdev.harbinger.evidence.Evidence;
+import nl.ctrlaltdev.harbinger.ip.IpRangeSet;
+
+/**
+ * Whitelists a range of IPs in CIDR notation (10.0.0.0/8, 2001:db8::/32).
+ */
+public class CidrWhiteList implements WhiteList {
+
+    private String cidr;
+    private IpRangeSet range;
+
+    /**
+     * @param cidr the range.
+     * @throws IllegalArgumentException if the range is not valid.
+     */
+    public CidrWhiteList(String cidr) {
+        this.cidr = cidr;
+        this.range = new IpRangeSet(Collections.singleton(cidr));
+    }
+
+    @Override
+    public boolean isWhitelisted(Evidence ev) {
+        return range.contains(ev.getIp());
+    }
+
+    @Override
+    public boolean isWhitelistedBeforeScan(Evidence ev) {
+        return isWhitelisted(ev);
+    }
+
+    @Override
+    public Predicate<String> getParametersBeforeScan(Evidence ev) {
+        return isWhitelisted(ev) ? ALL_PARAMETERS : NO_PARAMETERS;
+    }
+
+    /**
+     * @return the range.
+     */
+    public String getCidr() {
+        return cidr;
+    }
+
+}
@@ -0,0 +1,448 @@
+/*
+ * Copyright 2016 E.Hooijmeijer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.ctrlaltdev.harbinger.whitelist;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+import nl.ctrlaltdev.harbinger.evidence.Evidence;
+import nl.ctrlaltdev.harbinger.ip.IpRangeSet;
+
+/**
+ * White list compiled into hash based indexes, so a lookup takes the same
+ * time no matter how many entries the white list has. Single entries are
+ * kept in a hash set per field (IP, URL, parameter, user). AND combinations
+ * are rewritten into combinations of single entries and indexed on their
+ * most selective field: the value that the fewest combinations share. A
+ * lookup checks the hash set and the combinations indexed on the value of
+ * each field of the evidence. URL patterns are kept in a {@link UrlTrie} and
+ * CIDR ranges in an {@link IpRangeSet}, a combination with a pattern or
+ * range is indexed on its other fields. White lists
+ * that cannot be indexed (custom implementations, combinations of patterns
+ * only) are checked one by one after that.
+ */
+public class IndexedWhiteList implements WhiteList {
+
+    /** maximum number of combinations a single AND may expand into. */
+    static final int MAX_COMBINATIONS = 1024;
+
+    /**
+     * The fields of the evidence that can be white listed.
+     */
+    enum Field {
+        IP(Evidence::getIp), URL(Evidence::getUrl), PARAMETER(Evidence::getParameterName), USER(Evidence::getUser);
+
+        private final Function<Evidence, String> getter;
+
+        Field(Function<Evidence, String> getter) {
+            this.getter = getter;
+        }
+
+        String of(Evidence ev) {
+            return getter.apply(ev);
+        }
+    }
+
+    private static final Field[] FIELDS = Field.values();
+
+    private static final int PARAMETER = Field.PARAMETER.ordinal();
+
+    private static final WhiteList[] NONE = new WhiteList[0];
+
+    /**
+     * Entries that must all match, the value per field or null if any value
+     * matches, and the entries that cannot be hashed (such as URL patterns).
+     */
+    private static final class Combination {
+        final String[] values;
+        final WhiteList[] patterns;
+
+        Combination(String[] values, WhiteList[] patterns) {
+            this.values = values;
+            this.patterns = patterns;
+        }
+
+        boolean matches(Evidence ev) {
+            return matches(ev, -1);
+        }
+
+        /**
+         * @param ignored the index of the field not to check, -1 for none.
+         */
+        boolean matches(Evidence ev, int ignored) {
+            for (int t = 0; t < values.length; t++) {
+                if (t != ignored && values[t] != null && !values[t].equals(FIELDS[t].of(ev))) {
+                    return false;
+                }
+            }
+            for (WhiteList p : patterns) {
+                if (!p.isWhitelisted(ev)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        int fieldCount() {
+            int count = 0;
+            for (String v : values) {
+                if (v != null) {
+                    count++;
+                }
+            }
+            return count;
+        }
+
+        /**
+         * @return the combination of both, or null if they conflict.
+         */
+        Combination and(Combination other) {
+            String[] result = values.clone();
+            for (int t = 0; t < result.length; t++) {
+                if (other.values[t] != null) {
+                    if (result[t] != null && !result[t].equals(other.values[t])) {
+                        return null;
+                    }
+                    result[t] = other.values[t];
+                }
+            }
+            WhiteList[] both = Arrays.copyOf(patterns, patterns.length + other.patterns.length);
+            System.arraycopy(other.patterns, 0, both, patterns.length, other.patterns.length);
+            return new Combination(result, both);
+        }
+    }
+
+    private final boolean all;
+    private final List<Set<String>> singles;
+    private final UrlTrie urls;
+    private final IpRangeSet ranges;
+    private final List<Map<String, Combination[]>> combinations;
+    private final Combination[] unindexed;
+    private final WhiteList[] others;
+    private final int size;
+    private final Predicate<String> parameters;
+    private final boolean emptyBeforeScan;
+
+    private IndexedWhiteList(boolean all, List<Set<String>> singles, UrlTrie urls, IpRangeSet ranges,
+            List<Map<String, Combination[]>> combinations, List<Combination> unindexed, List<WhiteList> others, int size) {
+        this.all = all;
+        this.singles = singles;
+        this.urls = urls;
+        this.ranges = ranges;
+        this.combinations = combinations;
+        this.unindexed = unindexed.toArray(new Combination[unindexed.size()]);
+        this.others = others.toArray(new WhiteList[others.size()]);
+        this.size = size;
+        Set<String> names = singles.get(PARAMETER);
+        this.parameters = names.isEmpty() ? NO_PARAMETERS : names::contains;
+        boolean empty = !all && size == others.size();
+        for (WhiteList w : others) {
+            empty &= w.isEmptyBeforeScan();
+        }
+        this.emptyBeforeScan = empty;
+    }
+
+    /**
+     * @param whiteList the white list to compile, usually a tree of
+     *        {@link OrWhiteList}s and {@link AndWhiteList}s.
+     * @return the white list with the same semantics, indexed.
+     */
+    public static IndexedWhiteList compile(WhiteList whiteList) {
+        List<Combination> all = new ArrayList<>();
+        List<WhiteList> others = new ArrayList<>();
+        collect(whiteList, all, others);
+
+        boolean always = false;
+        UrlTrie urls = new UrlTrie();
+        List<String> cidrs = new ArrayList<>();
+        List<Combination> unindexed = new ArrayList<>();
+        List<Set<String>> singles = new ArrayList<>();
+        List<Map<String, List<Combination>>> multi = new ArrayList<>();
+        for (int t = 0; t < FIELDS.length; t++) {
+            singles.add(new HashSet<>());
+            multi.add(new HashMap<>());
+        }
+        Map<String, Integer> shared = new HashMap<>();
+        for (Combination c : all) {
+            if (c.fieldCount() > 1 || c.patterns.length > 0) {
+                for (int t = 0; t < c.values.length; t++) {
+                    if (c.values[t] != null) {
+                        shared.merge(t + ":" + c.values[t], 1, Integer::sum);
+                    }
+                }
+            }
+        }
+        for (Combination c : all) {
+            int count = c.fieldCount();
+            if (count == 0 && c.patterns.length == 0) {
+                always = true;
+            } else if (count == 0 && c.patterns.length == 1 && c.patterns[0] instanceof UrlPatternWhiteList) {
+                urls.add(((UrlPatternWhiteList) c.patterns[0]).getPattern());
+            } else if (count == 0 && c.patterns.length == 1 && c.patterns[0] instanceof CidrWhiteList) {
+                cidrs.add(((CidrWhiteList) c.patterns[0]).getCidr());
+            } else if (count == 0) {
+                unindexed.add(c);
+            } else if (count == 1 && c.patterns.length == 0) {
+                int t = 0;
+                while (c.values[t] == null) {
+                    t++;
+                }
+                singles.get(t).add(c.values[t]);
+            } else {
+                int key = -1;
+                int keyShared = Integer.MAX_VALUE;
+                for (int t = 0; t < c.values.length; t++) {
+                    if (c.values[t] != null && shared.get(t + ":" + c.values[t]) < keyShared) {
+                        key = t;
+                        keyShared = shared.get(t + ":" + c.values[t]);
+                    }
+                }
+                multi.get(key).computeIfAbsent(c.values[key], (k) -> new ArrayList<>()).add(c);
+            }
+        }
+
+        List<Map<String, Combination[]>> combinations = new ArrayList<>();
+        for (int t = 0; t < FIELDS.length; t++) {
+            if (singles.get(t).isEmpty()) {
+                singles.set(t, Collections.emptySet());
+            }
+            Map<String, Combination[]> index = new HashMap<>();
+            for (Map.Entry<String, List<Combination>> e : multi.get(t).entrySet()) {
+                index.put(e.getKey(), e.getValue().toArray(new Combination[e.getValue().size()]));
+            }
+            combinations.add(index.isEmpty() ? Collections.emptyMap() : index);
+        }
+        return new IndexedWhiteList(always, singles, urls.size() == 0 ? null : urls, cidrs.isEmpty() ? null : new IpRangeSet(cidrs),
+                combinations, unindexed, others, all.size() + others.size());
+    }
+
+    /**
+     * flattens the OR's, anything else is either expanded into combinations
+     * or kept as is.
+     */
+    private static void collect(WhiteList whiteList, List<Combination> all, List<WhiteList> others) {
+        if (whiteList instanceof OrWhiteList) {
+            for (WhiteList w : ((OrWhiteList) whiteList).getWhiteLists()) {
+                collect(w, all, others);
+            }
+        } else if (whiteList instanceof IndexedWhiteList) {
+            others.add(whiteList);
+        } else {
+            List<Combination> expanded = expand(whiteList);
+            if (expanded == null) {
+                others.add(whiteList);
+            } else {
+                all.addAll(expanded);
+            }
+        }
+    }
+
+    /**
+     * @return the combinations of which one must match, or null if the white
+     *         list cannot be expanded.
+     */
+    private static List<Combination> expand(WhiteList whiteList) {
+        if (whiteList instanceof IpWhiteList) {
+            return single(Field.IP, ((IpWhiteList) whiteList).getIp());
+        } else if (whiteList instanceof UrlWhiteList) {
+            return single(Field.URL, ((UrlWhiteList) whiteList).getUrl());
+        } else if (whiteList instanceof ParameterWhiteList) {
+            return single(Field.PARAMETER, ((ParameterWhiteList) whiteList).getParameter());
+        } else if (whiteList instanceof UserWhiteList) {
+            return single(Field.USER, ((UserWhiteList) whiteList).getUser());
+        } else if (whiteList instanceof UrlPatternWhiteList || whiteList instanceof CidrWhiteList) {
+            return Collections.singletonList(new Combination(new String[FIELDS.length], new WhiteList[] { whiteList }));
+        } else if (whiteList instanceof OrWhiteList) {
+            List<Combination> result = new ArrayList<>();
+            for (WhiteList w : ((OrWhiteList) whiteList).getWhiteLists()) {
+                List<Combination> expanded = expand(w);
+                if (expanded == null) {
+                    return null;
+                }
+                result.addAll(expanded);
+            }
+            return result;
+        } else if (whiteList instanceof AndWhiteList) {
+            List<Combination> result = Collections.singletonList(new Combination(new String[FIELDS.length], NONE));
+            for (WhiteList w : ((AndWhiteList) whiteList).getWhiteLists()) {
+                List<Combination> expanded = expand(w);
+                if (expanded == null || (long) result.size() * expanded.size() > MAX_COMBINATIONS) {
+                    return null;
+                }
+                List<Combination> next = new ArrayList<>();
+                for (Combination a : result) {
+                    for (Combination b : expanded) {
+                        Combination c = a.and(b);
+                        if (c != null) {
+                            next.add(c);
+                        }
+                    }
+                }
+                result = next;
+            }
+            return result;
+        }
+        return null;
+    }
+
+    private static List<Combination> single(Field field, String value) {
+        if (value == null) {
+            return Collections.emptyList();
+        }
+        String[] values = new String[FIELDS.length];
+        values[field.ordinal()] = value;
+        return Collections.singletonList(new Combination(values, NONE));
+    }
+
+    @Override
+    public boolean isWhitelisted(Evidence ev) {
+        if (isIndexed(ev)) {
+            return true;
+        }
+        for (WhiteList w : others) {
+            if (w.isWhitelisted(ev)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public boolean isWhitelistedBeforeScan(Evidence ev) {
+        if (isIndexed(ev)) {
+            return true;
+        }
+        for (WhiteList w : others) {
+            if (w.isWhitelistedBeforeScan(ev)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * the parameter names that are white listed on their own, of the
+     * combinations indexed on the IP, URL or user of the request, and of the
+     * combinations indexed on the name itself.
+     */
+    @Override
+    public Predicate<String> getParametersBeforeScan(Evidence ev) {
+        if (all) {
+            return ALL_PARAMETERS;
+        }
+        Set<String> matched = Collections.emptySet();
+        for (int t = 0; t < FIELDS.length; t++) {
+            String value = FIELDS[t].of(ev);
+            Combination[] candidates = t == PARAMETER || value == null ? null : combinations.get(t).get(value);
+            if (candidates != null) {
+                for (Combination c : candidates) {
+                    if (c.values[PARAMETER] != null && c.matches(ev, PARAMETER)) {
+                        if (matched.isEmpty()) {
+                            matched = new HashSet<>();
+                        }
+                        matched.add(c.values[PARAMETER]);
+                    }
+                }
+            }
+        }
+        Map<String, Combination[]> byName = combinations.get(PARAMETER);
+        Predicate<String> result = parameters;
+        if (!matched.isEmpty() || !byName.isEmpty()) {
+            Set<String> names = matched;
+            Predicate<String> singleNames = parameters;
+            result = (name) -> singleNames.test(name) || names.contains(name) || matches(byName.get(name), ev);
+        }
+        for (WhiteList w : others) {
+            Predicate<String> p = w.getParametersBeforeScan(ev);
+            if (p == ALL_PARAMETERS) {
+                return ALL_PARAMETERS;
+            } else if (p != NO_PARAMETERS) {
+                result = result == NO_PARAMETERS ? p : result.or(p);
+            }
+        }
+        return result;
+    }
+
+    private static boolean matches(Combination[] candidates, Evidence ev) {
+        if (candidates != null) {
+            for (Combination c : candidates) {
+                if (c.matches(ev, PARAMETER)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public boolean isEmptyBeforeScan() {
+        return emptyBeforeScan;
+    }
+
+    private boolean isIndexed(Evidence ev) {
+        if (all) {
+            return true;
+        }
+        for (int t = 0; t < FIELDS.length; t++) {
+            String value = FIELDS[t].of(ev);
+            if (value != null) {
+                if (singles.get(t).contains(value)) {
+                    return true;
+                }
+                Combination[] candidates = combinations.get(t).get(value);
+                if (candidates != null) {
+                    for (Combination c : candidates) {
+                        if (c.matches(ev)) {
+                            return true;
+                        }
+                    }
+                }
+            }
+        }
+        if (urls != null && urls.matches(ev.getUrl())) {
+            return true;
+        }
+        if (ranges != null && ranges.contains(ev.getIp())) {
+            return true;
+        }
+        for (Combination c : unindexed) {
+            if (c.matches(ev)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the number of combinations and other white lists.
+     */
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public String toString() {
+        return "IndexedWhiteList[" + size + " entries, " + others.length + " unindexed" + (all ? ", all" : "") + "]";
+    }
+}
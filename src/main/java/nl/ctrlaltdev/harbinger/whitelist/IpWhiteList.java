@@ -15,6 +15,8 @@
  */
 package nl.ctrlaltdev.harbinger.whitelist;
 
+import java.util.function.Predicate;
+
 import nl.ctrlaltdev.harbinger.evidence.Evidence;
 
 /**
@@ -32,4 +34,22 @@ public class IpWhiteList implements WhiteList {
     public boolean isWhitelisted(Evidence ev) {
         return ip.equals(ev.getIp());
     }
+
+    @Override
+    public boolean isWhitelistedBeforeScan(Evidence ev) {
+        return isWhitelisted(ev);
+    }
+
+    @Override
+    public Predicate<String> getParametersBeforeScan(Evidence ev) {
+        return isWhitelisted(ev) ? ALL_PARAMETERS : NO_PARAMETERS;
+    }
+
+    /**
+     * @return the ip.
+     */
+    public String getIp() {
+        return ip;
+    }
+
 }
@@ -17,6 +17,7 @@ package nl.ctrlaltdev.harbinger.whitelist;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Predicate;
 
 import nl.ctrlaltdev.harbinger.evidence.Evidence;
 
@@ -45,4 +46,57 @@ public class OrWhiteList implements WhiteList {
         return false;
     }
 
+    @Override
+    public boolean isWhitelistedBeforeScan(Evidence ev) {
+        for (WhiteList w : whitelist) {
+            if (w.isWhitelistedBeforeScan(ev)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public Predicate<String> getParametersBeforeScan(Evidence ev) {
+        List<Predicate<String>> names = new ArrayList<>();
+        for (WhiteList w : whitelist) {
+            Predicate<String> p = w.getParametersBeforeScan(ev);
+            if (p == ALL_PARAMETERS) {
+                return ALL_PARAMETERS;
+            } else if (p != NO_PARAMETERS) {
+                names.add(p);
+            }
+        }
+        if (names.isEmpty()) {
+            return NO_PARAMETERS;
+        } else if (names.size() == 1) {
+            return names.get(0);
+        }
+        return (name) -> {
+            for (int t = 0; t < names.size(); t++) {
+                if (names.get(t).test(name)) {
+                    return true;
+                }
+            }
+            return false;
+        };
+    }
+
+    @Override
+    public boolean isEmptyBeforeScan() {
+        for (WhiteList w : whitelist) {
+            if (!w.isEmptyBeforeScan()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the composites.
+     */
+    public List<WhiteList> getWhiteLists() {
+        return whitelist;
+    }
+
 }
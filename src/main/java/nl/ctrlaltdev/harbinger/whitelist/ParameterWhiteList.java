@@ -15,6 +15,8 @@
  */
 package nl.ctrlaltdev.harbinger.whitelist;
 
+import java.util.function.Predicate;
+
 import nl.ctrlaltdev.harbinger.evidence.Evidence;
 
 /**
@@ -33,4 +35,21 @@ public class ParameterWhiteList implements WhiteList {
         return parameter.equals(ev.getParameterName());
     }
 
+    @Override
+    public boolean isWhitelistedBeforeScan(Evidence ev) {
+        return isWhitelisted(ev);
+    }
+
+    @Override
+    public Predicate<String> getParametersBeforeScan(Evidence ev) {
+        return parameter::equals;
+    }
+
+    /**
+     * @return the parameter.
+     */
+    public String getParameter() {
+        return parameter;
+    }
+
 }
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2016 E.Hooijmeijer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.ctrlaltdev.harbinger.whitelist;
+
+import java.util.function.Predicate;
+
+import nl.ctrlaltdev.harbinger.evidence.Evidence;
+
+/**
+ * Whitelists URLs by pattern: a '*' segment matches any single segment, so
+ * /api/v1/docs/* matches /api/v1/docs/123, and a trailing '**' segment any
+ * number of segments, so /static/** matches everything below /static.
+ */
+public class UrlPatternWhiteList implements WhiteList {
+
+    private String pattern;
+    private UrlTrie trie = new UrlTrie();
+
+    /**
+     * @param pattern the pattern.
+     * @throws IllegalArgumentException if '**' is not the last segment.
+     */
+    public UrlPatternWhiteList(String pattern) {
+        this.pattern = pattern;
+        this.trie.add(pattern);
+    }
+
+    /**
+     * @param url the URL or URL pattern.
+     * @return true if the URL contains a '*' or '**' segment.
+     */
+    public static boolean isPattern(String url) {
+        return UrlTrie.isPattern(url);
+    }
+
+    @Override
+    public boolean isWhitelisted(Evidence ev) {
+        return trie.matches(ev.getUrl());
+    }
+
+    @Override
+    public boolean isWhitelistedBeforeScan(Evidence ev) {
+        return isWhitelisted(ev);
+    }
+
+    @Override
+    public Predicate<String> getParametersBeforeScan(Evidence ev) {
+        return isWhitelisted(ev) ? ALL_PARAMETERS : NO_PARAMETERS;
+    }
+
+    /**
+     * @return the pattern.
+     */
+    public String getPattern() {
+        return pattern;
+    }
+
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2016 E.Hooijmeijer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.ctrlaltdev.harbinger.whitelist;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Trie over the '/' separated segments of URL patterns. A '*' segment
+ * matches any single segment, a '**' as last segment matches any number of
+ * segments, including none. Matching a URL takes time proportional to its
+ * number of segments, not to the number of patterns.
+ */
+final class UrlTrie {
+
+    private static final String ANY = "*";
+    private static final String REST = "**";
+
+    private static final class Node {
+        final Map<String, Node> children = new HashMap<>();
+        Node any;
+        boolean end;
+        boolean rest;
+    }
+
+    private final Node root = new Node();
+    private int size;
+
+    /**
+     * @param url the URL or URL pattern.
+     * @return true if the URL contains a wildcard segment.
+     */
+    static boolean isPattern(String url) {
+        for (String segment : url.split("/", -1)) {
+            if (ANY.equals(segment) || REST.equals(segment)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param pattern the pattern to add.
+     * @throws IllegalArgumentException if '**' is not the last segment.
+     */
+    void add(String pattern) {
+        String[] segments = pattern.split("/", -1);
+        Node node = root;
+        for (int t = 0; t < segments.length; t++) {
+            String segment = segments[t];
+            if (REST.equals(segment)) {
+                if (t != segments.length - 1) {
+                    throw new IllegalArgumentException("'**' must be the last segment of '" + pattern + "'");
+                }
+                node.rest = true;
+                size++;
+                return;
+            } else if (ANY.equals(segment)) {
+                if (node.any == null) {
+                    node.any = new Node();
+                }
+                node = node.any;
+            } else {
+                node = node.children.computeIfAbsent(segment, (k) -> new Node());
+            }
+        }
+        node.end = true;
+        size++;
+    }
+
+    /**
+     * @param url the URL.
+     * @return true if any pattern matches the URL.
+     */
+    boolean matches(String url) {
+        return url != null && matches(root, url, 0);
+    }
+
+    private static boolean matches(Node node, String url, int start) {
+        if (node.rest) {
+            return true;
+        } else if (start > url.length()) {
+            return node.end;
+        }
+        int end = url.indexOf('/', start);
+        if (end < 0) {
+            end = url.length();
+        }
+        if (!node.children.isEmpty()) {
+            Node child = node.children.get(url.substring(start, end));
+            if (child != null && matches(child, url, end + 1)) {
+                return true;
+            }
+        }
+        return node.any != null && matches(node.any, url, end + 1);
+    }
+
+    /**
+     * @return the number of patterns.
+     */
+    int size() {
+        return size;
+    }
+}
@@ -15,6 +15,8 @@
  */
 package nl.ctrlaltdev.harbinger.whitelist;
 
+import java.util.function.Predicate;
+
 import nl.ctrlaltdev.harbinger.evidence.Evidence;
 
 /**
@@ -32,4 +34,22 @@ public class UrlWhiteList implements WhiteList {
     public boolean isWhitelisted(Evidence ev) {
         return url.equals(ev.getUrl());
     }
+
+    @Override
+    public boolean isWhitelistedBeforeScan(Evidence ev) {
+        return isWhitelisted(ev);
+    }
+
+    @Override
+    public Predicate<String> getParametersBeforeScan(Evidence ev) {
+        return isWhitelisted(ev) ? ALL_PARAMETERS : NO_PARAMETERS;
+    }
+
+    /**
+     * @return the url.
+     */
+    public String getUrl() {
+        return url;
+    }
+
 }
@@ -15,6 +15,8 @@
  */
 package nl.ctrlaltdev.harbinger.whitelist;
 
+import java.util.function.Predicate;
+
 import nl.ctrlaltdev.harbinger.evidence.Evidence;
 
 /**
@@ -33,4 +35,21 @@ public class UserWhiteList implements WhiteList {
         return user.equals(ev.getUser());
     }
 
+    @Override
+    public boolean isWhitelistedBeforeScan(Evidence ev) {
+        return isWhitelisted(ev);
+    }
+
+    @Override
+    public Predicate<String> getParametersBeforeScan(Evidence ev) {
+        return isWhitelisted(ev) ? ALL_PARAMETERS : NO_PARAMETERS;
+    }
+
+    /**
+     * @return the user.
+     */
+    public String getUser() {
+        return user;
+    }
+
 }
@@ -15,6 +15,8 @@
  */
 package nl.ctrlaltdev.harbinger.whitelist;
 
+import java.util.function.Predicate;
+
 import nl.ctrlaltdev.harbinger.evidence.Evidence;
 
 /**
@@ -23,6 +25,12 @@ import nl.ctrlaltdev.harbinger.evidence.Evidence;
  */
 public interface WhiteList {
 
+    /** matches every parameter name. */
+    Predicate<String> ALL_PARAMETERS = (name) -> true;
+
+    /** matches no parameter name. */
+    Predicate<String> NO_PARAMETERS = (name) -> false;
+
     /**
      * checks if the evidence is white listed.
      * Whitelisted evidence is not checked for malicious content.
@@ -30,4 +38,37 @@ public interface WhiteList {
      * @return true if the evidene is whitelisted.
      */
     boolean isWhitelisted(Evidence ev);
+
+    /**
+     * checks if the evidence is white listed based only on what is known
+     * before its input is scanned: the IP, URL, user and parameter name. If
+     * so the input is not normalized, scanned or logged at all. White lists
+     * that depend on anything else must return false (the default).
+     * @param ev the evidence, without rule and value.
+     * @return true if the evidence is whitelisted whatever its input.
+     */
+    default boolean isWhitelistedBeforeScan(Evidence ev) {
+        return false;
+    }
+
+    /**
+     * resolves the IP, URL and user of a request once, so checking its
+     * parameters before scan is only a lookup of their name. The default
+     * checks {@link #isWhitelistedBeforeScan(Evidence)} per name.
+     * @param ev the evidence of a request that is not whitelisted before
+     *        scan, without parameter name, rule and value.
+     * @return the names of the parameters whose input is whitelisted before
+     *         scan.
+     */
+    default Predicate<String> getParametersBeforeScan(Evidence ev) {
+        return (name) -> isWhitelistedBeforeScan(new Evidence(ev, null, name, null));
+    }
+
+    /**
+     * @return true if {@link #isWhitelistedBeforeScan(Evidence)} is false for
+     *         any evidence, so it need not be asked at all.
+     */
+    default boolean isEmptyBeforeScan() {
+        return false;
+    }
 }
@@ -0,0 +1,262 @@
+/*
+ * Copyright 2016 E.Hooijmeijer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.ctrlaltdev.harbinger.whitelist.builder;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import nl.ctrlaltdev.harbinger.evidence.Evidence;
+import nl.ctrlaltdev.harbinger.whitelist.WhiteList;
+
+/**
+ * White list backed by a file that is parsed again when it changes, so
+ * entries can be added without a restart (which would lose all evidence).
+ * The file is parsed and compiled by the thread calling {@link #reload()},
+ * normally the background thread started with {@link #start(Duration)},
+ * which watches the directory of the file and also checks the modification
+ * time and size every interval, for file systems without watch support. The
+ * new white list is published with a single volatile write, lookups never
+ * block. If the file cannot be read or parsed the previous white list stays
+ * in use.
+ */
+public class ReloadingWhiteList implements WhiteList, AutoCloseable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ReloadingWhiteList.class);
+
+    private final Path file;
+    private final WhiteListParser parser;
+
+    private volatile WhiteList current;
+    private volatile long checksum;
+    private volatile long lastModified;
+    private volatile long lastSize;
+    private volatile long reloads;
+    private volatile long failures;
+    private volatile Instant lastReload;
+    private volatile Duration lastReloadDuration;
+    private volatile Thread watcher;
+
+    /**
+     * @param file the white list file.
+     * @throws IOException if the file cannot be read.
+     * @throws IllegalArgumentException if the file cannot be parsed.
+     */
+    public ReloadingWhiteList(Path file) throws IOException {
+        this(file, new WhiteListParser());
+    }
+
+    public ReloadingWhiteList(Path file, WhiteListParser parser) throws IOException {
+        this.file = file;
+        this.parser = parser;
+        long start = System.nanoTime();
+        long modified = Files.getLastModifiedTime(file).toMillis();
+        byte[] content = Files.readAllBytes(file);
+        this.current = parser.parse(new ByteArrayInputStream(content));
+        this.checksum = checksum(content);
+        this.lastModified = modified;
+        this.lastSize = content.length;
+        this.lastReload = Instant.now();
+        this.lastReloadDuration = Duration.ofNanos(System.nanoTime() - start);
+    }
+
+    @Override
+    public boolean isWhitelisted(Evidence ev) {
+        return current.isWhitelisted(ev);
+    }
+
+    @Override
+    public boolean isWhitelistedBeforeScan(Evidence ev) {
+        return current.isWhitelistedBeforeScan(ev);
+    }
+
+    @Override
+    public Predicate<String> getParametersBeforeScan(Evidence ev) {
+        return current.getParametersBeforeScan(ev);
+    }
+
+    @Override
+    public boolean isEmptyBeforeScan() {
+        return current.isEmptyBeforeScan();
+    }
+
+    /**
+     * parses the file and publishes the result if its content changed.
+     * @return true if a new white list was published.
+     */
+    public synchronized boolean reload() {
+        long start = System.nanoTime();
+        try {
+            long modified = Files.getLastModifiedTime(file).toMillis();
+            byte[] content = Files.readAllBytes(file);
+            lastModified = modified;
+            lastSize = content.length;
+            long crc = checksum(content);
+            if (crc == checksum) {
+                return false;
+            }
+            WhiteList parsed = parser.parse(new ByteArrayInputStream(content));
+            current = parsed;
+            checksum = crc;
+            reloads++;
+            lastReload = Instant.now();
+            lastReloadDuration = Duration.ofNanos(System.nanoTime() - start);
+            LOGGER.info("Reloaded white list {} in {} ms", file, lastReloadDuration.toMillis());
+            return true;
+        } catch (IOException | RuntimeException ex) {
+            failures++;
+            LOGGER.error("Failed reloading white list {}, keeping the previous version.", file, ex);
+            return false;
+        }
+    }
+
+    /**
+     * reloads only if the modification time or size of the file changed.
+     */
+    private void reloadIfModified() {
+        try {
+            if (Files.getLastModifiedTime(file).toMillis() != lastModified || Files.size(file) != lastSize) {
+                reload();
+            }
+        } catch (IOException ex) {
+            reload(); // logs and counts the failure.
+        }
+    }
+
+    /**
+     * starts watching the file for changes in the background.
+     * @param interval the time between checks of the modification time and
+     *        size of the file.
+     */
+    public synchronized void start(Duration interval) {
+        if (watcher != null) {
+            return;
+        }
+        Thread thread = new Thread(() -> watch(interval.toMillis()), "harbinger-whitelist-reload");
+        thread.setDaemon(true);
+        thread.start();
+        watcher = thread;
+    }
+
+    private void watch(long interval) {
+        WatchService service = null;
+        try {
+            Path dir = file.toAbsolutePath().getParent();
+            service = dir.getFileSystem().newWatchService();
+            dir.register(service, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        } catch (IOException | UnsupportedOperationException ex) {
+            LOGGER.warn("Cannot watch {}, polling every {} ms instead.", file, interval);
+            service = close(service);
+        }
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                WatchKey key = service == null ? null : service.poll(interval, TimeUnit.MILLISECONDS);
+                if (service == null) {
+                    Thread.sleep(interval);
+                }
+                if (key != null) {
+                    key.pollEvents();
+                    key.reset();
+                    reload();
+                } else {
+                    reloadIfModified();
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } finally {
+            close(service);
+        }
+    }
+
+    private static WatchService close(WatchService service) {
+        if (service != null) {
+            try {
+                service.close();
+            } catch (IOException ex) {
+                LOGGER.debug("Failed closing watch service", ex);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * stops watching the file.
+     */
+    @Override
+    public void close() {
+        Thread thread = watcher;
+        if (thread != null) {
+            thread.interrupt();
+        }
+    }
+
+    private static long checksum(byte[] content) {
+        CRC32 crc = new CRC32();
+        crc.update(content);
+        return crc.getValue();
+    }
+
+    /**
+     * @return the white list currently in use.
+     */
+    public WhiteList getCurrent() {
+        return current;
+    }
+
+    /**
+     * @return the number of times a changed file was published, not
+     *         counting the initial one.
+     */
+    public long getReloads() {
+        return reloads;
+    }
+
+    /**
+     * @return the number of times the file failed to load or parse.
+     */
+    public long getFailures() {
+        return failures;
+    }
+
+    /**
+     * @return when the current white list was published.
+     */
+    public Instant getLastReload() {
+        return lastReload;
+    }
+
+    /**
+     * @return the time it took to read, parse and compile the current white
+     *         list.
+     */
+    public Duration getLastReloadDuration() {
+        return lastReloadDuration;
+    }
+
+}
@@ -19,9 +19,12 @@ import java.util.ArrayList;
 import java.util.List;
 
 import nl.ctrlaltdev.harbinger.whitelist.AndWhiteList;
+import nl.ctrlaltdev.harbinger.whitelist.CidrWhiteList;
+import nl.ctrlaltdev.harbinger.whitelist.IndexedWhiteList;
 import nl.ctrlaltdev.harbinger.whitelist.IpWhiteList;
 import nl.ctrlaltdev.harbinger.whitelist.OrWhiteList;
 import nl.ctrlaltdev.harbinger.whitelist.ParameterWhiteList;
+import nl.ctrlaltdev.harbinger.whitelist.UrlPatternWhiteList;
 import nl.ctrlaltdev.harbinger.whitelist.UrlWhiteList;
 import nl.ctrlaltdev.harbinger.whitelist.UserWhiteList;
 import nl.ctrlaltdev.harbinger.whitelist.WhiteList;
@@ -74,13 +77,26 @@ public class WhiteListBuilder {
         return this;
     }
 
+    /**
+     * @param cidr a range of IPs in CIDR notation (10.0.0.0/8, 2001:db8::/32).
+     * @throws IllegalArgumentException if the range is not valid.
+     */
+    public WhiteListBuilder cidr(String cidr) {
+        rules.add(new CidrWhiteList(cidr));
+        return this;
+    }
+
     public WhiteListBuilder parameter(String parameter) {
         rules.add(new ParameterWhiteList(parameter));
         return this;
     }
 
+    /**
+     * @param url the URL, or a pattern with '*' segments (any single
+     *        segment) or a last '**' segment (any number of segments).
+     */
     public WhiteListBuilder url(String url) {
-        rules.add(new UrlWhiteList(url));
+        rules.add(UrlPatternWhiteList.isPattern(url) ? new UrlPatternWhiteList(url) : new UrlWhiteList(url));
         return this;
     }
 
@@ -100,11 +116,14 @@ public class WhiteListBuilder {
         }
     }
 
+    /**
+     * @return the white list, compiled into an {@link IndexedWhiteList}.
+     */
     public WhiteList build() {
         if (parent != null) {
             throw new IllegalStateException("Missing call to end()");
         }
-        return buildInternal();
+        return IndexedWhiteList.compile(buildInternal());
     }
 
 }
@@ -31,7 +31,7 @@ import nl.ctrlaltdev.harbinger.whitelist.WhiteList;
 public class WhiteListParser {
 
     private static enum Keyword {
-        AND, IP, OR, PARAMETER, URL, USER;
+        AND, CIDR, IP, OR, PARAMETER, URL, USER;
     }
 
     private static final String SYMBOLS = "(),:";
@@ -125,6 +125,9 @@ public class WhiteListParser {
             case IP:
                 builder = builder.ip(token);
                 break;
+            case CIDR:
+                builder = builder.cidr(token);
+                break;
             case PARAMETER:
                 builder = builder.parameter(token);
                 break;
@@ -159,7 +162,7 @@ public class WhiteListParser {
             }
         }
         if (sb.length() > 0) {
-            tokens.add(sb.toString());
+            tokens.add(urlDecode(sb.toString()));
         }
         return tokens;
     }
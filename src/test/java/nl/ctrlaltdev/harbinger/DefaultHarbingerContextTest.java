@@ -16,20 +16,39 @@
 package nl.ctrlaltdev.harbinger;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 
 import java.time.Instant;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
 
+import org.junit.After;
 import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
 
+import nl.ctrlaltdev.harbinger.evidence.Evidence;
+import nl.ctrlaltdev.harbinger.evidence.EvidenceCollector;
+import nl.ctrlaltdev.harbinger.response.SimpleResponseDecider;
+import nl.ctrlaltdev.harbinger.rule.DetectionRule;
 import nl.ctrlaltdev.harbinger.rule.DetectionRuleLoader;
+import nl.ctrlaltdev.harbinger.rule.DetectionRuleReloader;
+import nl.ctrlaltdev.harbinger.rule.InMemoryRuleSource;
+import nl.ctrlaltdev.harbinger.whitelist.builder.WhiteListParser;
 
 
 public class DefaultHarbingerContextTest {
 
     private DefaultHarbingerContext ctx = new DefaultHarbingerContext(new DetectionRuleLoader().load());
 
+    @After
+    public void close() {
+        ctx.close();
+    }
+
     @Test
     public void shouldHoldDependencies() {
         assertNotNull(ctx.getEvidenceCollector());
@@ -43,12 +62,70 @@ public class DefaultHarbingerContextTest {
         assertTrue(ctx.isValid("<%53CRIPT>ALERT(1);</SCRIPT>"));
     }
 
+    @Test
+    public void shouldUseReloadedRules() {
+        InMemoryRuleSource source = new InMemoryRuleSource(Collections.emptySet());
+        DetectionRuleReloader reloader = new DetectionRuleReloader(source);
+        EvidenceCollector collector = new EvidenceCollector();
+        DefaultHarbingerContext reloading = new DefaultHarbingerContext(reloader, collector, new SimpleResponseDecider(collector));
+        assertTrue(reloading.isValid("tripwire"));
+
+        source.set(Collections.singleton(new DetectionRule(new String[] { "Tripwire", "HIGH", "tripwire" })));
+        reloader.reload();
+        assertFalse(reloading.isValid("tripwire"));
+    }
+
+    @Test
+    public void shouldNotScanWhitelistedParameters() {
+        EvidenceCollector collector = new EvidenceCollector(new WhiteListParser().parse("parameter:body"));
+        Set<DetectionRule> rules = Collections.singleton(new DetectionRule(new String[] { "Tripwire", "HIGH", "tripwire" }));
+        DefaultHarbingerContext whitelisting = new DefaultHarbingerContext(rules, collector, new SimpleResponseDecider(collector));
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        Evidence source = new Evidence(request);
+        assertTrue(whitelisting.isValidParameter(source, "body", "tripwire"));
+        assertEquals(0, collector.findByIp(source).getDetections());
+        assertFalse(whitelisting.isValidParameter(source, "title", "tripwire"));
+    }
+
+    @Test
+    public void shouldNotScanWhitelistedParametersOfRequest() {
+        EvidenceCollector collector = new EvidenceCollector(new WhiteListParser().parse("or(parameter:body,and(ip:8.8.4.4,parameter:title))"));
+        Set<DetectionRule> rules = Collections.singleton(new DetectionRule(new String[] { "Tripwire", "HIGH", "tripwire" }));
+        DefaultHarbingerContext whitelisting = new DefaultHarbingerContext(rules, collector, new SimpleResponseDecider(collector));
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setRemoteAddr("8.8.4.4");
+        Evidence source = new Evidence(request);
+        Map<String, String[]> parameters = new HashMap<>();
+        parameters.put("body", new String[] { "tripwire" });
+        parameters.put("title", new String[] { "tripwire", "tripwire" });
+        assertTrue(whitelisting.isValidParameters(source, parameters));
+        assertEquals(0, collector.findByIp(source).getDetections());
+        parameters.put("name", new String[] { "tripwire" });
+        assertFalse(whitelisting.isValidParameters(source, parameters));
+    }
+
     @Test
     public void shouldBlacklist() {
         ctx.blacklist("8.8.8.8", Instant.now().plusSeconds(1L));
         assertTrue(ctx.isBlacklisted("8.8.8.8", Instant.now()));
     }
 
+    @Test
+    public void shouldStopBlacklistPurgeOnClose() throws InterruptedException {
+        long before = purgeThreads();
+        ctx.blacklist("8.8.8.8", Instant.now().plusSeconds(1L));
+        assertEquals(before + 1, purgeThreads());
+        ctx.close();
+        for (int t = 0; t < 100 && purgeThreads() > before; t++) {
+            Thread.sleep(10);
+        }
+        assertEquals(before, purgeThreads());
+    }
+
+    private static long purgeThreads() {
+        return Thread.getAllStackTraces().keySet().stream().filter(t -> t.isAlive() && "harbinger-blacklist-purge".equals(t.getName())).count();
+    }
+
     @Test
     public void shouldFilterForLog() {
         assertEquals("", DefaultHarbingerContext.filterForLog("\t\n\r"));
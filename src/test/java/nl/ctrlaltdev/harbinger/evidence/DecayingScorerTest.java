@@ -0,0 +1,102 @@
+/*
+ * Copyright 2016 E.Hooijmeijer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.ctrlaltdev.harbinger.evidence;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.time.Duration;
+import java.time.Instant;
+
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+public class DecayingScorerTest {
+
+    private static final Instant T0 = Instant.parse("2016-01-01T00:00:00Z");
+
+    private DecayingScorer scorer = new DecayingScorer(Duration.ofMinutes(1), (aggr, ev) -> 10);
+
+    private Evidence at(Instant timestamp) {
+        return new Evidence(new Evidence(new Evidence(), new MockHttpServletResponse())) {
+            @Override
+            public Instant getTimestamp() {
+                return timestamp;
+            }
+        };
+    }
+
+    @Test
+    public void shouldHalveEveryHalfLife() {
+        EvidenceStore store = new EvidenceStore();
+        store.setScorer(scorer);
+        EvidenceAggregation aggr = store.add("a", at(T0));
+        store.add("a", at(T0));
+        assertEquals(20.0, scorer.getScore(aggr, T0), 0.001);
+        assertEquals(10.0, scorer.getScore(aggr, T0.plusSeconds(60)), 0.001);
+        assertEquals(5.0, scorer.getScore(aggr, T0.plusSeconds(120)), 0.001);
+        store.add("a", at(T0.plusSeconds(120)));
+        assertEquals(15.0, scorer.getScore(aggr, T0.plusSeconds(120)), 0.001);
+    }
+
+    @Test
+    public void shouldNotDecayForOlderEvidence() {
+        EvidenceStore store = new EvidenceStore();
+        store.setScorer(scorer);
+        EvidenceAggregation aggr = store.add("a", at(T0.plusSeconds(60)));
+        store.add("a", at(T0));
+        assertEquals(20.0, scorer.getScore(aggr, T0.plusSeconds(60)), 0.001);
+    }
+
+    @Test
+    public void shouldIgnoreEvidenceWithoutWeight() {
+        DecayingScorer benign = new DecayingScorer(Duration.ofMinutes(1), (aggr, ev) -> 0);
+        EvidenceStore store = new EvidenceStore();
+        store.setScorer(benign);
+        assertEquals(0, store.add("a", at(T0)).getScore());
+    }
+
+    @Test
+    public void shouldBeNegligibleWhenIdleAndDecayed() {
+        EvidenceStore store = new EvidenceStore();
+        store.setScorer(scorer);
+        EvidenceAggregation aggr = store.add("a", at(T0));
+        assertFalse(scorer.isNegligible(aggr, T0.plusSeconds(60).toEpochMilli()));
+        assertTrue(scorer.isNegligible(aggr, T0.plusSeconds(3600).toEpochMilli()));
+    }
+
+    @Test
+    public void shouldEvictNegligibleKeysFirst() {
+        EvidenceStore store = new EvidenceStore(EvidenceStore.Keys.STRING, 2, null);
+        store.setScorer(scorer);
+        for (int t = 0; t < 5; t++) {
+            store.add("busy", at(T0));
+        }
+        store.add("calm", at(T0));
+        store.add("busy", at(T0.plusSeconds(3590)));
+        store.add("new", at(T0.plusSeconds(3600)));
+        assertNotNull(store.get("busy"));
+        assertNotNull(store.get("new"));
+        assertEquals(1, store.getEvictions());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectShortHalfLife() {
+        new DecayingScorer(Duration.ofMillis(10), (aggr, ev) -> 1);
+    }
+}
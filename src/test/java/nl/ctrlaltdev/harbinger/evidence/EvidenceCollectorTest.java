@@ -16,9 +16,15 @@
 package nl.ctrlaltdev.harbinger.evidence;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
+import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
+import java.util.function.Predicate;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -31,6 +37,7 @@ import org.springframework.security.core.context.SecurityContextImpl;
 import org.springframework.web.context.request.RequestContextHolder;
 import org.springframework.web.context.request.ServletRequestAttributes;
 
+import nl.ctrlaltdev.harbinger.whitelist.WhiteList;
 import nl.ctrlaltdev.harbinger.whitelist.builder.WhiteListBuilder;
 
 public class EvidenceCollectorTest {
@@ -112,4 +119,116 @@ public class EvidenceCollectorTest {
         assertEquals(0, collector.findByIp(evidence).getNumberOfRequests());
     }
 
+    @Test
+    public void shouldNotLoseConcurrentUpdates() throws InterruptedException {
+        Evidence ev = new Evidence(new Evidence(evidence, request), response);
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            threads.add(new Thread(() -> {
+                for (int i = 0; i < 10000; i++) {
+                    collector.store(ev);
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(80000, collector.findByIp(ev).getNumberOfRequests());
+        assertEquals(80000, collector.findBySession(ev).getHttp2xx());
+    }
+
+
+    @Test
+    public void shouldEvictBeyondCapacity() {
+        collector = new EvidenceCollector(WhiteListBuilder.empty(), 10);
+        for (int t = 0; t < 20; t++) {
+            request.setRemoteAddr("10.0.0." + t);
+            collector.store(new Evidence(new Evidence(evidence, request), response));
+        }
+        assertEquals(10, collector.getEvictions());
+    }
+
+    @Test
+    public void shouldExpireIdleEvidence() {
+        collector = new EvidenceCollector(WhiteListBuilder.empty(), 0, Duration.ofMinutes(5));
+        evidence = new Evidence(new Evidence(evidence, request), response);
+        collector.store(evidence);
+        collector.expire(Instant.now().plus(Duration.ofMinutes(1)));
+        assertEquals(0, collector.getExpirations());
+        collector.expire(Instant.now().plus(Duration.ofMinutes(10)));
+        assertEquals(2, collector.getExpirations());
+        assertEquals(1, collector.findByIp(evidence).getNumberOfRequests());
+    }
+
+    @Test
+    public void shouldStoreBenignRequestInPlace() {
+        evidence = new Evidence(evidence, request);
+        assertTrue(collector.storeRequest(evidence, 200));
+        assertTrue(collector.storeRequest(evidence, 302));
+        assertEquals(2, collector.findByIp(evidence).getNumberOfRequests());
+        assertEquals(1, collector.findByIp(evidence).getHttp2xx());
+        assertEquals(1, collector.findBySession(evidence).getHttp3xx());
+    }
+
+    @Test
+    public void shouldNotStoreWhiteListedBenignRequest() {
+        request.setRemoteAddr("8.8.8.8");
+        collector = new EvidenceCollector(WhiteListBuilder.create().ip("8.8.8.8").build());
+        evidence = new Evidence(evidence, request);
+        assertFalse(collector.storeRequest(evidence, 200));
+        assertEquals(0, collector.findByIp(evidence).getHttp2xx());
+    }
+
+    @Test
+    public void shouldResolveWhitelistedParametersOncePerRequest() {
+        request.setRemoteAddr("8.8.8.8");
+        evidence = new Evidence(evidence, request);
+        collector = new EvidenceCollector(WhiteListBuilder.create().and().ip("8.8.8.8").parameter("body").end().build());
+        Predicate<String> names = collector.getParametersWhitelistedBeforeScan(evidence);
+        assertTrue(names.test("body"));
+        assertFalse(names.test("title"));
+        collector = new EvidenceCollector(WhiteListBuilder.create().ip("8.8.8.8").build());
+        assertTrue(collector.getParametersWhitelistedBeforeScan(evidence) == WhiteList.ALL_PARAMETERS);
+    }
+
+    @Test
+    public void shouldNotConsultEmptyWhiteListBeforeScan() {
+        collector = new EvidenceCollector(new WhiteList() {
+            @Override
+            public boolean isWhitelisted(Evidence ev) {
+                return false;
+            }
+
+            @Override
+            public boolean isWhitelistedBeforeScan(Evidence ev) {
+                throw new AssertionError("Should not be consulted.");
+            }
+
+            @Override
+            public boolean isEmptyBeforeScan() {
+                return true;
+            }
+        });
+        evidence = new Evidence(evidence, request);
+        assertFalse(collector.isWhitelistedBeforeScan(evidence, "body"));
+        assertTrue(collector.getParametersWhitelistedBeforeScan(evidence) == WhiteList.NO_PARAMETERS);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectNonBenignRequestOnFastPath() {
+        collector.storeRequest(new Evidence(evidence, request), 500);
+    }
+
+    @Test
+    public void shouldMaintainScore() {
+        evidence = new Evidence(new Evidence(evidence, request), response);
+        collector.store(evidence);
+        collector.register((aggr, ev, previous) -> aggr.getNumberOfRequests() * 10);
+        assertEquals(10, collector.findByIp(evidence).getScore());
+        collector.store(evidence);
+        collector.storeRequest(evidence, 200);
+        assertEquals(30, collector.findByIp(evidence).getScore());
+        assertEquals(30, collector.findBySession(evidence).getScore());
+    }
 }
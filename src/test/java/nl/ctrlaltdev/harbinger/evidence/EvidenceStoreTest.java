@@ -0,0 +1,104 @@
+/*
+ * Copyright 2016 E.Hooijmeijer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.ctrlaltdev.harbinger.evidence;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.time.Instant;
+
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+public class EvidenceStoreTest {
+
+    private Evidence evidence = new Evidence(new Evidence(), new MockHttpServletResponse());
+
+    @Test
+    public void shouldBeUnboundedByDefault() {
+        EvidenceStore store = new EvidenceStore();
+        for (int t = 0; t < 1000; t++) {
+            store.add("key" + t, evidence);
+        }
+        assertEquals(1000, store.size());
+        assertEquals(0, store.getEvictions());
+    }
+
+    @Test
+    public void shouldAggregatePerKey() {
+        EvidenceStore store = new EvidenceStore(10);
+        store.add("a", evidence);
+        store.add("a", evidence);
+        assertEquals(2, store.get("a").getNumberOfRequests());
+        assertNull(store.get("b"));
+    }
+
+    @Test
+    public void shouldStayWithinCapacity() {
+        EvidenceStore store = new EvidenceStore(100);
+        for (int t = 0; t < 10000; t++) {
+            store.add("key" + t, evidence);
+        }
+        assertEquals(100, store.size());
+        assertEquals(9900, store.getEvictions());
+    }
+
+    @Test
+    public void shouldKeepHeavyHittersDuringFlood() {
+        EvidenceStore store = new EvidenceStore(100);
+        for (int t = 0; t < 100000; t++) {
+            if (t % 10 == 0) {
+                store.add("heavy1", evidence);
+                store.add("heavy2", evidence);
+            }
+            store.add("flood" + t, evidence);
+        }
+        assertNotNull(store.get("heavy1"));
+        assertNotNull(store.get("heavy2"));
+        assertTrue(store.get("heavy1").getNumberOfRequests() > 1000);
+        assertEquals(100, store.size());
+    }
+
+    @Test
+    public void shouldReuseSlotsOfRemovedKeys() {
+        EvidenceStore store = new EvidenceStore(2);
+        store.add("a", evidence);
+        store.add("b", evidence);
+        store.remove("a");
+        store.add("c", evidence);
+        assertEquals(0, store.getEvictions());
+        assertNotNull(store.get("b"));
+        assertNotNull(store.get("c"));
+    }
+
+    @Test
+    public void shouldRemoveOld() {
+        EvidenceStore store = new EvidenceStore(2);
+        store.add("a", evidence);
+        store.removeOlderThan(Instant.now().plusSeconds(1));
+        assertEquals(0, store.size());
+        store.add("b", evidence);
+        store.add("c", evidence);
+        assertEquals(0, store.getEvictions());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectNegativeCapacity() {
+        new EvidenceStore(-1);
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2016 E.Hooijmeijer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.ctrlaltdev.harbinger.evidence;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.time.Duration;
+import java.time.Instant;
+
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+public class ExpiryWheelTest {
+
+    private static final Instant T0 = Instant.parse("2016-01-01T00:00:00Z");
+
+    private EvidenceStore store = new EvidenceStore(0, Duration.ofMinutes(1));
+
+    private Evidence at(Instant timestamp) {
+        return new Evidence(new Evidence(new Evidence(), new MockHttpServletResponse())) {
+            @Override
+            public Instant getTimestamp() {
+                return timestamp;
+            }
+        };
+    }
+
+    @Test
+    public void shouldExpireIdleKeys() {
+        store.add("a", at(T0));
+        store.add("b", at(T0.plusSeconds(30)));
+        store.expire(T0.plusSeconds(59));
+        assertEquals(2, store.size());
+        store.expire(T0.plusSeconds(61));
+        assertNull(store.get("a"));
+        assertNotNull(store.get("b"));
+        store.expire(T0.plusSeconds(91));
+        assertEquals(0, store.size());
+        assertEquals(2, store.getExpirations());
+    }
+
+    @Test
+    public void shouldKeepActiveKeys() {
+        for (int t = 0; t < 600; t += 10) {
+            store.add("a", at(T0.plusSeconds(t)));
+            store.expire(T0.plusSeconds(t + 5));
+        }
+        assertEquals(60, store.get("a").getNumberOfRequests());
+        assertEquals(0, store.getExpirations());
+    }
+
+    @Test
+    public void shouldExpireIncrementallyDuringStore() {
+        for (int t = 0; t < 100; t++) {
+            store.add("key" + t, at(T0));
+        }
+        store.add("other", at(T0.plusSeconds(120)));
+        assertEquals(8, store.getExpirations());
+        for (int t = 0; t < 20; t++) {
+            store.add("other", at(T0.plusSeconds(120)));
+        }
+        assertEquals(1, store.size());
+        assertEquals(100, store.getExpirations());
+    }
+
+    @Test
+    public void shouldCatchUpAfterLongPause() {
+        store.add("a", at(T0));
+        store.add("b", at(T0.plus(Duration.ofDays(1))));
+        store.expire(T0.plus(Duration.ofDays(1)));
+        assertNull(store.get("a"));
+        assertNotNull(store.get("b"));
+    }
+
+    @Test
+    public void shouldUnscheduleRemovedKeys() {
+        store.add("a", at(T0));
+        store.remove("a");
+        store.add("a", at(T0.plusSeconds(50)));
+        store.expire(T0.plusSeconds(70));
+        assertNotNull(store.get("a"));
+        assertEquals(0, store.getExpirations());
+    }
+
+    @Test
+    public void shouldExpireFromBoundedStore() {
+        store = new EvidenceStore(2, Duration.ofMinutes(1));
+        store.add("a", at(T0));
+        store.add("b", at(T0));
+        store.expire(T0.plusSeconds(61));
+        store.add("c", at(T0.plusSeconds(61)));
+        store.add("d", at(T0.plusSeconds(61)));
+        assertEquals(0, store.getEvictions());
+        assertEquals(2, store.getExpirations());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectZeroTtl() {
+        new EvidenceStore(0, Duration.ZERO);
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2016 E.Hooijmeijer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.ctrlaltdev.harbinger.evidence;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class RateWindowTest {
+
+    private RateWindow window = new RateWindow(1000L, 64);
+
+    @Test
+    public void shouldCountInWindow() {
+        for (int t = 0; t < 10; t++) {
+            window.increment(100000L + t * 1000L);
+        }
+        assertEquals(10, window.count(109000L, 10000L));
+        assertEquals(5, window.count(109000L, 5000L));
+        assertEquals(1.0, window.rate(109000L, 10000L), 0.001);
+        assertEquals(0.5, window.rate(109000L, 20000L), 0.001);
+    }
+
+    @Test
+    public void shouldForgetOldBuckets() {
+        window.increment(100000L);
+        window.increment(100000L + 64000L);
+        assertEquals(1, window.count(164000L, 64000L));
+        assertEquals(0, window.count(300000L, 64000L));
+    }
+
+    @Test
+    public void shouldIgnoreEventsOlderThanRing() {
+        window.increment(200000L);
+        window.increment(200000L - 64000L);
+        assertEquals(1, window.count(200000L, 64000L));
+    }
+
+    @Test
+    public void shouldLimitWindowToRing() {
+        window.increment(100000L);
+        assertEquals(1, window.count(100000L, 1000000L));
+        assertEquals(0.0, window.rate(100000L, 0L), 0.001);
+    }
+
+    @Test
+    public void shouldCopy() {
+        window.increment(100000L);
+        RateWindow copy = new RateWindow(window);
+        window.increment(100000L);
+        assertEquals(2, window.count(100000L, 1000L));
+        assertEquals(1, copy.count(100000L, 1000L));
+    }
+
+    @Test
+    public void shouldCountCurrentTimestamps() {
+        long now = 1792000000000L + 500L;
+        for (long t = 0; t < 4097 * 64; t++) {
+            window.increment(now + t * 1000L);
+            assertEquals(1, window.count(now + t * 1000L, 1000L));
+        }
+        assertEquals(64, window.count(now + (4097 * 64 - 1) * 1000L, 64000L));
+    }
+
+    @Test
+    public void shouldMistakeBucketsIdleForTheFullTagRange() {
+        // the known trade-off of the 12 bit lap tag, see RateWindow.
+        window.increment(100000L);
+        long aliased = 100000L + 4096L * 64 * 1000L;
+        assertEquals(1, window.count(aliased, 1000L));
+        window.increment(aliased + 1000L);
+        assertEquals(0, window.count(aliased + 64000L, 1000L));
+    }
+
+    @Test
+    public void shouldResetBucketsAfterLongIdle() {
+        window.increment(100000L);
+        window.increment(100000L);
+        long later = 100000L + 64 * 70 * 1000L;
+        window.increment(later);
+        assertEquals(1, window.count(later, 1000L));
+    }
+
+    @Test
+    public void shouldHandleEarlyTimestamps() {
+        window.increment(0L);
+        assertEquals(1, window.count(0L, 60000L));
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright 2016 E.Hooijmeijer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.ctrlaltdev.harbinger.filter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.After;
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.mock.web.MockHttpSession;
+
+import nl.ctrlaltdev.harbinger.DefaultHarbingerContext;
+import nl.ctrlaltdev.harbinger.evidence.Evidence;
+import nl.ctrlaltdev.harbinger.evidence.EvidenceCollector;
+import nl.ctrlaltdev.harbinger.filter.EvidencePipeline.FullPolicy;
+import nl.ctrlaltdev.harbinger.response.InvalidateSessionAction;
+import nl.ctrlaltdev.harbinger.response.NoAction;
+import nl.ctrlaltdev.harbinger.response.ResponseDecider;
+
+public class EvidencePipelineTest {
+
+    private EvidenceCollector collector = new EvidenceCollector();
+    private CountDownLatch started = new CountDownLatch(1);
+    private CountDownLatch release = new CountDownLatch(1);
+    private AtomicBoolean first = new AtomicBoolean(true);
+    private ResponseDecider blocking = ev -> {
+        if (first.getAndSet(false)) {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return new NoAction();
+    };
+    private DefaultHarbingerContext ctx = new DefaultHarbingerContext(Collections.emptySet(), collector, blocking);
+    private Evidence evidence;
+    private EvidencePipeline pipeline;
+
+    public EvidencePipelineTest() {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setRemoteAddr("8.8.8.8");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        evidence = new Evidence(new Evidence(request), response);
+    }
+
+    @After
+    public void close() {
+        release.countDown();
+        if (pipeline != null) {
+            pipeline.close();
+        }
+    }
+
+    /**
+     * publishes one evidence and waits until the consumer is stuck on it.
+     */
+    private void block() throws InterruptedException {
+        pipeline.publish(evidence);
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void shouldProcessAsynchronously() {
+        release.countDown();
+        pipeline = new EvidencePipeline(ctx, 16, 2, FullPolicy.BLOCK, 1);
+        for (int t = 0; t < 1000; t++) {
+            pipeline.publish(evidence);
+        }
+        pipeline.close();
+        assertEquals(1000, pipeline.getPublished());
+        assertEquals(1000, pipeline.getProcessed());
+        assertEquals(1000, collector.findByIp(evidence).getNumberOfRequests());
+        assertEquals(0, pipeline.getQueueDepth());
+        assertTrue(pipeline.getMaxQueueDepth() <= 16);
+    }
+
+    @Test
+    public void shouldDropWhenFull() throws InterruptedException {
+        pipeline = new EvidencePipeline(ctx, 4);
+        block();
+        for (int t = 0; t < 10; t++) {
+            pipeline.publish(evidence);
+        }
+        assertEquals(4, pipeline.getQueueDepth());
+        assertEquals(6, pipeline.getDropped());
+        release.countDown();
+        pipeline.close();
+        assertEquals(5, pipeline.getProcessed());
+    }
+
+    @Test
+    public void shouldSampleWhenFull() throws InterruptedException {
+        pipeline = new EvidencePipeline(ctx, 4, 1, FullPolicy.SAMPLE, 3);
+        block();
+        for (int t = 0; t < 10; t++) {
+            pipeline.publish(evidence);
+        }
+        assertEquals(5, pipeline.getPublished());
+        assertEquals(2, pipeline.getSampled());
+        assertEquals(4, pipeline.getDropped());
+        // the blocked one and the sampled ones.
+        assertEquals(3, collector.findByIp(evidence).getNumberOfRequests());
+    }
+
+    @Test
+    public void shouldBlockWhenFull() throws InterruptedException {
+        pipeline = new EvidencePipeline(ctx, 2, 1, FullPolicy.BLOCK, 1);
+        block();
+        pipeline.publish(evidence);
+        pipeline.publish(evidence);
+        Thread publisher = new Thread(() -> pipeline.publish(evidence));
+        publisher.start();
+        publisher.join(100);
+        assertTrue(publisher.isAlive());
+        release.countDown();
+        publisher.join(5000);
+        pipeline.close();
+        assertEquals(4, pipeline.getProcessed());
+        assertEquals(0, pipeline.getDropped());
+    }
+
+    @Test
+    public void shouldInvalidatePublishedSession() {
+        MockHttpSession session = new MockHttpSession();
+        DefaultHarbingerContext invalidating = new DefaultHarbingerContext(Collections.emptySet(), collector, ev -> new InvalidateSessionAction());
+        pipeline = new EvidencePipeline(invalidating, 16);
+        pipeline.publish(evidence, session);
+        pipeline.close();
+        assertTrue(session.isInvalid());
+    }
+
+    @Test
+    public void shouldParkIdleConsumers() throws InterruptedException {
+        release.countDown();
+        pipeline = new EvidencePipeline(ctx, 16, 2, FullPolicy.DROP, 1);
+        for (int round = 0; round < 3; round++) {
+            assertTrue(awaitParkedConsumers(round));
+            pipeline.publish(evidence);
+        }
+        pipeline.close();
+        assertEquals(3, pipeline.getProcessed());
+        assertEquals(1, pipeline.getMaxQueueDepth());
+    }
+
+    /**
+     * waits until the published evidence is processed and both consumers
+     * are parked without timeout.
+     */
+    private boolean awaitParkedConsumers(int processed) throws InterruptedException {
+        for (int t = 0; t < 500; t++) {
+            long waiting = Thread.getAllStackTraces().keySet().stream()
+                    .filter(thread -> thread.getName().startsWith("harbinger-evidence-") && thread.getState() == Thread.State.WAITING).count();
+            if (pipeline.getProcessed() == processed && waiting == 2) {
+                return true;
+            }
+            Thread.sleep(10);
+        }
+        return false;
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectInvalidCapacity() {
+        pipeline = new EvidencePipeline(ctx, 1, 0, FullPolicy.DROP, 1);
+    }
+}
@@ -16,9 +16,13 @@
 package nl.ctrlaltdev.harbinger.filter;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 import java.io.IOException;
+import java.time.Instant;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.servlet.FilterChain;
 import javax.servlet.ServletException;
@@ -37,8 +41,10 @@ import nl.ctrlaltdev.harbinger.evidence.EvidenceCollector;
 import nl.ctrlaltdev.harbinger.response.RejectInputAction;
 import nl.ctrlaltdev.harbinger.response.ResponseAction;
 import nl.ctrlaltdev.harbinger.response.ResponseDecider;
+import nl.ctrlaltdev.harbinger.response.SimpleResponseDecider;
 import nl.ctrlaltdev.harbinger.rule.DetectionRule;
 import nl.ctrlaltdev.harbinger.rule.DetectionRuleLoader;
+import nl.ctrlaltdev.harbinger.whitelist.builder.WhiteListParser;
 
 public class HttpEvidenceFilterTest {
 
@@ -105,6 +111,64 @@ public class HttpEvidenceFilterTest {
         assertEquals(1, collector.findByIp(new Evidence(request)).getExceptions());
     }
     
+    @Test
+    public void shouldNotScanWhitelistedParameters() throws IOException, ServletException {
+        EvidenceCollector whitelisting = new EvidenceCollector(new WhiteListParser().parse("or(ip:8.8.4.4,parameter:body)"));
+        filter = new HttpEvidenceFilter(new DefaultHarbingerContext(rules, whitelisting, decider));
+        new Expectations() {{
+                chain.doFilter(withInstanceOf(MockHttpServletRequest.class), withInstanceOf(MockHttpServletResponse.class));
+                times = 2;
+        }};
+        request.setRemoteAddr("8.8.4.4");
+        request.addParameter("name", "' or '1'='1");
+        filter.doFilter(request, response, chain);
+        assertEquals(HttpServletResponse.SC_OK, response.getStatus());
+
+        MockHttpServletRequest other = new MockHttpServletRequest();
+        other.setRemoteAddr("8.8.8.8");
+        other.addParameter("body", "' or '1'='1");
+        MockHttpServletResponse otherResponse = new MockHttpServletResponse();
+        filter.doFilter(other, otherResponse, chain);
+        assertEquals(HttpServletResponse.SC_OK, otherResponse.getStatus());
+        assertEquals(0, whitelisting.findByIp(new Evidence(other)).getDetections());
+    }
+
+    @Test
+    public void shouldNotActOnWhitelistedRequests() throws IOException, ServletException {
+        EvidenceCollector whitelisting = new EvidenceCollector(new WhiteListParser().parse("url:/health"));
+        AtomicInteger decisions = new AtomicInteger();
+        SimpleResponseDecider simple = new SimpleResponseDecider(whitelisting, 100, 20);
+        ResponseDecider counting = new ResponseDecider() {
+
+            @Override
+            public ResponseAction decide(Evidence evidence) {
+                decisions.incrementAndGet();
+                return simple.decide(evidence);
+            }
+
+            @Override
+            public boolean isDecisionRequired(Evidence evidence) {
+                return simple.isDecisionRequired(evidence);
+            }
+        };
+        HarbingerContext ctx = new DefaultHarbingerContext(rules, whitelisting, counting);
+        filter = new HttpEvidenceFilter(ctx);
+        request.setRemoteAddr("8.8.8.8");
+        request.setRequestURI("/health");
+        // earlier evidence of the address puts it past the threshold.
+        DetectionRule high = new DetectionRule(new String[] { "Bad", "HIGH", "bad" });
+        MockHttpServletRequest login = new MockHttpServletRequest("GET", "/login");
+        login.setRemoteAddr("8.8.8.8");
+        whitelisting.store(new Evidence(new Evidence(login), high, "bad"));
+        assertTrue(simple.isDecisionRequired(new Evidence(request)));
+
+        for (int t = 0; t < 200; t++) {
+            filter.doFilter(request, new MockHttpServletResponse(), chain);
+        }
+        assertEquals(0, decisions.get());
+        assertFalse(ctx.isBlacklisted("8.8.8.8", Instant.now()));
+    }
+
     @Test
     public void shouldRejectBadParameters() throws IOException, ServletException {
         request.setRemoteAddr("8.8.8.8");
@@ -151,4 +215,57 @@ public class HttpEvidenceFilterTest {
         assertEquals(HttpServletResponse.SC_OK, response.getStatus());
     }
 
+    @Test
+    public void shouldCollectThroughPipeline() throws IOException, ServletException {
+        new Expectations() {{
+                chain.doFilter(request, response);
+        }};
+        EvidencePipeline pipeline = new EvidencePipeline(context, 16);
+        filter = new HttpEvidenceFilter(context, true, pipeline);
+        request.setRemoteAddr("8.8.8.8");
+        filter.doFilter(request, response, chain);
+        pipeline.close();
+
+        assertEquals(1, pipeline.getProcessed());
+        assertEquals(1, collector.findByIp(new Evidence(request)).getNumberOfRequests());
+    }
+
+    @Test
+    public void shouldRejectBadParametersSynchronouslyWithPipeline() throws IOException, ServletException {
+        EvidencePipeline pipeline = new EvidencePipeline(context, 16);
+        filter = new HttpEvidenceFilter(context, true, pipeline);
+        request.setRemoteAddr("8.8.8.8");
+        request.addParameter("name", new String[] { "' or '1'='1" });
+
+        filter.doFilter(request, response, chain);
+        pipeline.close();
+
+        assertEquals(0, pipeline.getPublished());
+        assertEquals(5, collector.findByIp(new Evidence(request)).getDetections());
+        assertEquals(HttpServletResponse.SC_SERVICE_UNAVAILABLE, response.getStatus());
+    }
+
+    @Test
+    public void shouldSkipDeciderOnFastPath() throws IOException, ServletException {
+        new Expectations() {{
+                chain.doFilter(request, response);
+        }};
+        ResponseDecider notRequired = new ResponseDecider() {
+
+            @Override
+            public ResponseAction decide(Evidence evidence) {
+                throw new AssertionError("Decision is not required.");
+            }
+
+            @Override
+            public boolean isDecisionRequired(Evidence evidence) {
+                return false;
+            }
+        };
+        filter = new HttpEvidenceFilter(new DefaultHarbingerContext(rules, collector, notRequired));
+        request.setRemoteAddr("8.8.8.8");
+        filter.doFilter(request, response, chain);
+
+        assertEquals(1, collector.findByIp(new Evidence(request)).getHttp2xx());
+    }
 }
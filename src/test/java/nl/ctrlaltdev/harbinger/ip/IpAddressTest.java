@@ -0,0 +1,111 @@
+/*
+ * Copyright 2016 E.Hooijmeijer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.ctrlaltdev.harbinger.ip;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class IpAddressTest {
+
+    private long[] addr = new long[2];
+
+    private long[] parse(String value) {
+        assertTrue(value, IpAddress.parse(value, addr));
+        return new long[] { addr[0], addr[1] };
+    }
+
+    @Test
+    public void shouldParseIpv4() {
+        assertArrayEquals(new long[] { 0, 0xFFFF08080808L }, parse("8.8.8.8"));
+        assertArrayEquals(new long[] { 0, 0xFFFFC0A80001L }, parse("192.168.0.1"));
+        assertArrayEquals(new long[] { 0, 0xFFFF00000000L }, parse("0.0.0.0"));
+        assertArrayEquals(new long[] { 0, 0xFFFFFFFFFFFFL }, parse("255.255.255.255"));
+        assertTrue(IpAddress.isIpv4(addr[0], addr[1]));
+    }
+
+    @Test
+    public void shouldParseIpv6() {
+        assertArrayEquals(new long[] { 0, 1 }, parse("::1"));
+        assertArrayEquals(new long[] { 0, 1 }, parse("0:0:0:0:0:0:0:1"));
+        assertArrayEquals(new long[] { 0, 0 }, parse("::"));
+        assertArrayEquals(new long[] { 0x20010DB800000000L, 0 }, parse("2001:db8::"));
+        assertArrayEquals(new long[] { 0x20010DB800000000L, 0x0000000000000001L }, parse("2001:DB8::1"));
+        assertArrayEquals(new long[] { 0x20010DB885A30000L, 0x00008A2E03707334L }, parse("2001:0db8:85a3:0000:0000:8a2e:0370:7334"));
+        assertArrayEquals(new long[] { 0x0001000200030004L, 0x0005000600070008L }, parse("1:2:3:4:5:6:7:8"));
+        assertArrayEquals(new long[] { 0x0001000000000000L, 0x0000000000000008L }, parse("1::8"));
+        assertArrayEquals(new long[] { 0xFE80000000000000L, 1 }, parse("fe80::1%eth0"));
+        assertArrayEquals(new long[] { 0, 1 }, parse("[::1]"));
+        assertFalse(IpAddress.isIpv4(addr[0], addr[1]));
+    }
+
+    @Test
+    public void shouldMapIpv4InIpv6() {
+        assertArrayEquals(parse("8.8.8.8"), parse("::ffff:8.8.8.8"));
+        assertArrayEquals(parse("8.8.8.8"), parse("::ffff:808:808"));
+        assertArrayEquals(parse("8.8.8.8"), parse("0:0:0:0:0:ffff:8.8.8.8"));
+    }
+
+    @Test
+    public void shouldRejectInvalid() {
+        String[] invalid = { "", "unknown", "1.2.3", "1.2.3.4.5", "256.1.1.1", "1.2.3.4 ", "1..2.3", "1.2.3.", "1234.1.1.1",
+                ":", ":::", "1:2", "1:2:3:4:5:6:7:8:9", "1::2::3", "12345::", "1::8:", ":1::", "g::1", "1:2:3:4:5:6:7::8:9",
+                "::1.2.3", "::1.2.3.4:1", "1:2:3:4:5:6:7:1.2.3.4", "[::1", "１.2.3.4" };
+        for (String value : invalid) {
+            assertFalse(value, IpAddress.parse(value, addr));
+        }
+        assertFalse(IpAddress.parse(null, addr));
+    }
+
+    @Test
+    public void shouldFormat() {
+        assertEquals("8.8.8.8", IpAddress.format(0, 0xFFFF08080808L));
+        assertEquals("2001:db8:0:0:0:0:0:1", IpAddress.format(0x20010DB800000000L, 1));
+        parse("1:2:3:4:5:6:7:8");
+        assertEquals("1:2:3:4:5:6:7:8", IpAddress.format(addr[0], addr[1]));
+    }
+
+    @Test
+    public void shouldParseCidr() {
+        assertEquals(120, IpAddress.parseCidr("10.1.2.3/24", addr));
+        assertEquals("10.1.2.0/24", IpAddress.formatCidr(addr[0], addr[1], 120));
+        assertEquals(64, IpAddress.parseCidr("2001:db8:1:2:3::/64", addr));
+        assertEquals("2001:db8:1:2:0:0:0:0/64", IpAddress.formatCidr(addr[0], addr[1], 64));
+        assertEquals(128, IpAddress.parseCidr("::1", addr));
+        assertEquals(96, IpAddress.parseCidr("0.0.0.0/0", addr));
+        assertEquals(-1, IpAddress.parseCidr("10.1.2.3/33", addr));
+        assertEquals(-1, IpAddress.parseCidr("::/129", addr));
+        assertEquals(-1, IpAddress.parseCidr("10.1.2.3/", addr));
+        assertEquals(-1, IpAddress.parseCidr("10.1.2.3/a", addr));
+        assertEquals(-1, IpAddress.parseCidr("unknown/8", addr));
+    }
+
+    @Test
+    public void shouldParseMappedCidrInIpv6Notation() {
+        long[] v4 = new long[2];
+        assertEquals(96, IpAddress.parseCidr("::ffff:0:0/96", addr));
+        assertEquals(96, IpAddress.parseCidr("0.0.0.0/0", v4));
+        assertArrayEquals(v4, addr);
+        assertEquals(104, IpAddress.parseCidr("::ffff:10.0.0.0/104", addr));
+        assertEquals(104, IpAddress.parseCidr("10.0.0.0/8", v4));
+        assertArrayEquals(v4, addr);
+        assertEquals(8, IpAddress.parseCidr("::ffff:10.0.0.0/8", addr));
+        assertEquals(-1, IpAddress.parseCidr("::ffff:10.0.0.0/129", addr));
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright 2016 E.Hooijmeijer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.ctrlaltdev.harbinger.ip;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class IpBlacklistTest {
+
+    private static final Instant NOW = Instant.parse("2016-01-01T00:00:00Z");
+
+    private IpBlacklist blacklist = new IpBlacklist(null);
+
+    @After
+    public void close() {
+        blacklist.close();
+    }
+
+    @Test
+    public void shouldBlacklistAddress() {
+        blacklist.add("8.8.8.8", NOW.plusSeconds(60));
+        assertTrue(blacklist.isBlacklisted("8.8.8.8", NOW));
+        assertTrue(blacklist.isBlacklisted("::ffff:8.8.8.8", NOW));
+        assertFalse(blacklist.isBlacklisted("8.8.8.9", NOW));
+        assertFalse(blacklist.isBlacklisted("8.8.8.8", NOW.plusSeconds(60)));
+    }
+
+    @Test
+    public void shouldBlacklistRanges() {
+        blacklist.add("10.1.2.0/24", NOW.plusSeconds(60));
+        blacklist.add("2001:db8:1:2::/64", NOW.plusSeconds(60));
+        assertTrue(blacklist.isBlacklisted("10.1.2.0", NOW));
+        assertTrue(blacklist.isBlacklisted("10.1.2.255", NOW));
+        assertFalse(blacklist.isBlacklisted("10.1.3.0", NOW));
+        assertTrue(blacklist.isBlacklisted("2001:db8:1:2:abcd::1", NOW));
+        assertFalse(blacklist.isBlacklisted("2001:db8:1:3::1", NOW));
+        assertFalse(blacklist.isBlacklisted("::1", NOW));
+    }
+
+    @Test
+    public void shouldClearHostBits() {
+        blacklist.add("10.1.2.77/24", NOW.plusSeconds(60));
+        assertTrue(blacklist.isBlacklisted("10.1.2.1", NOW));
+    }
+
+    @Test
+    public void shouldNestRanges() {
+        blacklist.add("10.1.2.3", NOW.plusSeconds(120));
+        blacklist.add("10.0.0.0/8", NOW.plusSeconds(60));
+        blacklist.add("10.1.0.0/16", NOW.plusSeconds(90));
+        assertTrue(blacklist.isBlacklisted("10.200.0.1", NOW.plusSeconds(30)));
+        assertFalse(blacklist.isBlacklisted("10.200.0.1", NOW.plusSeconds(61)));
+        assertTrue(blacklist.isBlacklisted("10.1.0.1", NOW.plusSeconds(61)));
+        assertTrue(blacklist.isBlacklisted("10.1.2.3", NOW.plusSeconds(91)));
+        assertFalse(blacklist.isBlacklisted("10.1.2.4", NOW.plusSeconds(91)));
+    }
+
+    @Test
+    public void shouldUpdateExpiry() {
+        blacklist.add("10.1.2.3", NOW.plusSeconds(60));
+        blacklist.add("10.1.2.3", NOW.plusSeconds(10));
+        assertFalse(blacklist.isBlacklisted("10.1.2.3", NOW.plusSeconds(20)));
+        assertEquals(1, blacklist.size());
+    }
+
+    @Test
+    public void shouldPurgeExpired() {
+        blacklist.add("10.1.2.3", NOW.plusSeconds(60));
+        blacklist.add("10.1.2.4", NOW.plusSeconds(10));
+        blacklist.add("10.1.0.0/16", NOW.plusSeconds(10));
+        blacklist.add("unknown", NOW.plusSeconds(10));
+        assertEquals(4, blacklist.size());
+        assertEquals(3, blacklist.purge(NOW.plusSeconds(20)));
+        assertEquals(1, blacklist.size());
+        assertTrue(blacklist.isBlacklisted("10.1.2.3", NOW.plusSeconds(20)));
+        assertEquals(0, blacklist.purge(NOW.plusSeconds(20)));
+    }
+
+    @Test
+    public void shouldBlacklistInvalidAddressesAsIs() {
+        blacklist.add("unknown", NOW.plusSeconds(60));
+        assertTrue(blacklist.isBlacklisted("unknown", NOW));
+        assertFalse(blacklist.isBlacklisted("other", NOW));
+    }
+
+    @Test
+    public void shouldMatchBruteForce() {
+        Random random = new Random(42);
+        long[][] ranges = new long[200][];
+        for (int t = 0; t < ranges.length; t++) {
+            int prefix = 96 + 8 + random.nextInt(25);
+            long lo = (0xFFFFL << 32 | (random.nextInt() & 0xFFFFFFFFL)) & IpAddress.lowMask(prefix);
+            lo = (lo & ~0xFF000000L) | 0x0A000000L;
+            ranges[t] = new long[] { lo, prefix, random.nextInt(100) };
+            blacklist.add(0, lo, prefix, NOW.plusSeconds(ranges[t][2]));
+        }
+        blacklist.purge(NOW.plusSeconds(50));
+        for (int t = 0; t < 10000; t++) {
+            long lo = 0xFFFF0A000000L | random.nextInt(1 << 24);
+            boolean expected = false;
+            for (long[] range : ranges) {
+                expected |= (lo & IpAddress.lowMask((int) range[1])) == range[0] && range[2] > 60;
+            }
+            assertEquals(expected, blacklist.isBlacklisted(0, lo, NOW.plusSeconds(60).toEpochMilli()));
+        }
+    }
+
+    @Test
+    public void shouldPurgeInBackground() throws InterruptedException {
+        blacklist = new IpBlacklist(Duration.ofMillis(10));
+        blacklist.add("10.1.2.3", Instant.now().minusSeconds(1));
+        for (int t = 0; t < 100 && blacklist.size() > 0; t++) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, blacklist.size());
+    }
+}
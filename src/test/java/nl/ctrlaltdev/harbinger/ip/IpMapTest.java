@@ -0,0 +1,131 @@
+/*
+ * Copyright 2016 E.Hooijmeijer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.ctrlaltdev.harbinger.ip;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class IpMapTest {
+
+    private IpMap<String> map = new IpMap<>();
+
+    @Test
+    public void shouldMapAddresses() {
+        assertNull(map.put("8.8.8.8", "google"));
+        assertNull(map.put("::1", "localhost"));
+        assertEquals("google", map.get("8.8.8.8"));
+        assertEquals("google", map.get("::ffff:8.8.8.8"));
+        assertEquals("localhost", map.get("0:0:0:0:0:0:0:1"));
+        assertNull(map.get("8.8.4.4"));
+        assertEquals(2, map.size());
+    }
+
+    @Test
+    public void shouldSeedTheHashPerMap() {
+        IpMap<String> other = new IpMap<>();
+        int same = 0;
+        for (long lo = 0; lo < 64; lo++) {
+            if ((map.hash(0x20010db800000000L, lo) & 0xFF) == (other.hash(0x20010db800000000L, lo) & 0xFF)) {
+                same++;
+            }
+        }
+        assertTrue(same < 16);
+        for (long lo = 0; lo < 1024; lo++) {
+            map.put("2001:db8::" + Long.toHexString(lo), "v" + lo);
+        }
+        assertEquals("v1000", map.get("2001:db8::3e8"));
+        assertEquals(1024, map.size());
+    }
+
+    @Test
+    public void shouldMapInvalidAddressesAsString() {
+        map.put("unknown", "value");
+        assertEquals("value", map.get("unknown"));
+        assertEquals(1, map.size());
+        assertEquals("value", map.remove("unknown"));
+        assertEquals(0, map.size());
+    }
+
+    @Test
+    public void shouldPutIfAbsent() {
+        assertNull(map.putIfAbsent("8.8.8.8", "a"));
+        assertEquals("a", map.putIfAbsent("8.8.8.8", "b"));
+        assertEquals("a", map.get("8.8.8.8"));
+    }
+
+    @Test
+    public void shouldRemoveOnlyExpectedValue() {
+        map.put("8.8.8.8", "a");
+        assertFalse(map.remove("8.8.8.8", "b"));
+        assertTrue(map.remove("8.8.8.8", "a"));
+        assertNull(map.get("8.8.8.8"));
+    }
+
+    @Test
+    public void shouldGrowAndShrink() {
+        IpMap<Integer> ints = new IpMap<>(1);
+        Random random = new Random(42);
+        List<long[]> keys = new ArrayList<>();
+        for (int t = 0; t < 10000; t++) {
+            long[] key = { random.nextInt(4), random.nextInt(1 << 16) };
+            if (ints.putIfAbsent(key[0], key[1], t) == null) {
+                keys.add(key);
+            }
+        }
+        assertEquals(keys.size(), ints.size());
+        for (int t = 0; t < keys.size(); t += 2) {
+            assertTrue(ints.remove(keys.get(t)[0], keys.get(t)[1]) != null);
+        }
+        for (int t = 0; t < keys.size(); t++) {
+            assertEquals(t % 2 == 1, ints.get(keys.get(t)[0], keys.get(t)[1]) != null);
+        }
+        assertEquals(keys.size() / 2, ints.size());
+        assertEquals(keys.size() / 2, ints.values().size());
+    }
+
+    @Test
+    public void shouldHandleConcurrentUpdates() throws InterruptedException {
+        IpMap<Integer> ints = new IpMap<>(4);
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            long hi = t;
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 20000; i++) {
+                    ints.put(hi, i, i);
+                    if (ints.get(hi, i) != i) {
+                        throw new IllegalStateException();
+                    }
+                    if (i % 2 == 0) {
+                        ints.remove(hi, i);
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(40000, ints.size());
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2016 E.Hooijmeijer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.ctrlaltdev.harbinger.ip;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class IpRangeSetTest {
+
+    @Test
+    public void shouldContainAddressesInRanges() {
+        IpRangeSet set = new IpRangeSet(Arrays.asList("10.0.0.0/8", "192.168.1.0/24", "2001:db8::/32", "8.8.8.8"));
+        assertTrue(set.contains("10.255.255.255"));
+        assertTrue(set.contains("192.168.1.77"));
+        assertTrue(set.contains("2001:db8:1::1"));
+        assertTrue(set.contains("::ffff:10.1.2.3"));
+        assertTrue(set.contains("8.8.8.8"));
+        assertFalse(set.contains("8.8.8.9"));
+        assertFalse(set.contains("11.0.0.0"));
+        assertFalse(set.contains("192.168.2.1"));
+        assertFalse(set.contains("2001:db9::1"));
+        assertFalse(set.contains("not an address"));
+        assertFalse(set.contains(null));
+    }
+
+    @Test
+    public void shouldMergeRanges() {
+        IpRangeSet set = new IpRangeSet(Arrays.asList("10.0.0.0/24", "10.0.1.0/24", "10.0.0.128/25", "10.0.3.0/24"));
+        assertEquals(2, set.size());
+        assertTrue(set.contains("10.0.1.255"));
+        assertFalse(set.contains("10.0.2.0"));
+        assertTrue(set.contains("10.0.3.0"));
+    }
+
+    @Test
+    public void shouldHandleFullRange() {
+        IpRangeSet set = new IpRangeSet(Arrays.asList("::/0", "::1"));
+        assertEquals(1, set.size());
+        assertTrue(set.contains("ffff:ffff:ffff:ffff:ffff:ffff:ffff:ffff"));
+        assertTrue(set.contains("0.0.0.0"));
+        assertFalse(new IpRangeSet(Collections.emptyList()).contains("1.2.3.4"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectInvalidRanges() {
+        new IpRangeSet(Collections.singleton("10.0.0.0/33"));
+    }
+
+    @Test
+    public void shouldMatchLinearScan() {
+        Random random = new Random(42);
+        List<String> cidrs = new ArrayList<>();
+        for (int t = 0; t < 300; t++) {
+            cidrs.add("10." + random.nextInt(4) + "." + random.nextInt(256) + ".0/" + (16 + random.nextInt(17)));
+        }
+        IpRangeSet set = new IpRangeSet(cidrs);
+        long[] key = new long[2];
+        long[] range = new long[2];
+        for (int t = 0; t < 10000; t++) {
+            String addr = "10." + random.nextInt(5) + "." + random.nextInt(256) + "." + random.nextInt(256);
+            IpAddress.parse(addr, key);
+            boolean expected = false;
+            for (String cidr : cidrs) {
+                int prefix = IpAddress.parseCidr(cidr, range);
+                if ((key[0] & IpAddress.highMask(prefix)) == range[0] && (key[1] & IpAddress.lowMask(prefix)) == range[1]) {
+                    expected = true;
+                }
+            }
+            assertEquals(addr, expected, set.contains(addr));
+        }
+    }
+}
@@ -62,4 +62,18 @@ public class BlacklistIpActionTest {
 
         assertEquals(0, ctx.getEvidenceCollector().findByIp(src).getExceptions());
     }
+
+    @Test
+    public void shouldBlacklistRange() {
+        action = new BlacklistIpAction(new Evidence(request), 1, 24, 64);
+        assertTrue(action.perform(ctx));
+        assertTrue(ctx.isBlacklisted("8.8.8.200", Instant.now()));
+        assertFalse(ctx.isBlacklisted("8.8.9.8", Instant.now()));
+
+        request.setRemoteAddr("2001:db8:1:2::5");
+        action = new BlacklistIpAction(new Evidence(request), 1, 24, 64);
+        assertTrue(action.perform(ctx));
+        assertTrue(ctx.isBlacklisted("2001:db8:1:2:ffff::1", Instant.now()));
+        assertFalse(ctx.isBlacklisted("2001:db8:1:3::5", Instant.now()));
+    }
 }
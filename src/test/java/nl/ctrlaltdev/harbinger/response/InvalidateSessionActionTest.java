@@ -23,6 +23,7 @@ import java.util.Collections;
 import org.junit.Test;
 import org.springframework.mock.web.MockHttpServletRequest;
 import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.mock.web.MockHttpSession;
 import org.springframework.web.context.request.RequestContextHolder;
 import org.springframework.web.context.request.ServletRequestAttributes;
 
@@ -45,6 +46,17 @@ public class InvalidateSessionActionTest {
         assertEquals(String.valueOf(id + 1), request.getSession(true).getId());
     }
 
+    @Test
+    public void shouldInvalidateGivenSession() {
+        MockHttpSession session = new MockHttpSession();
+        RequestContextHolder.setRequestAttributes(null);
+
+        assertTrue(new InvalidateSessionAction().perform(ctx, session));
+        assertTrue(session.isInvalid());
+        assertTrue(new InvalidateSessionAction().perform(ctx, session));
+        assertTrue(new InvalidateSessionAction().perform(ctx, null));
+    }
+
     @Test
     public void shouldNotInvalidateSessionIfThereIsNone() {
         RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(request, response));
@@ -15,12 +15,19 @@
  */
 package nl.ctrlaltdev.harbinger.response;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
+import java.time.Duration;
+import java.time.Instant;
+
 import org.junit.Test;
 import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
 
 import nl.ctrlaltdev.harbinger.evidence.Evidence;
+import nl.ctrlaltdev.harbinger.evidence.EvidenceAggregation;
 import nl.ctrlaltdev.harbinger.evidence.EvidenceCollector;
 import nl.ctrlaltdev.harbinger.rule.DetectionRule;
 
@@ -45,6 +52,16 @@ public class SimpleResponseDeciderTest {
         assertTrue(decider.decide(ev) instanceof BlacklistIpAction);
     }
 
+    @Test
+    public void shouldDecideBlacklistIPActionOnBurst() {
+        Evidence request = new Evidence(ev, new MockHttpServletResponse());
+        for (int t = 0; t < 200; t++) {
+            coll.store(request);
+        }
+        SimpleResponseDecider decider = new SimpleResponseDecider(coll, 100, 20);
+        assertTrue(decider.decide(ev) instanceof BlacklistIpAction);
+    }
+
     @Test
     public void shouldDecideInvalidateSessionAction() {
         request.getSession(true);
@@ -63,4 +80,97 @@ public class SimpleResponseDeciderTest {
         SimpleResponseDecider decider = new SimpleResponseDecider(coll, 1, 1);
         assertTrue(decider.decide(evidence) instanceof RejectInputAction);
     }
+
+    @Test
+    public void shouldOnlyRequireDecisionAboveThreshold() {
+        request.setRemoteAddr("8.8.8.8");
+        Evidence evidence = new Evidence(request);
+        SimpleResponseDecider decider = new SimpleResponseDecider(coll, 100, 20);
+        for (int t = 0; t < 100; t++) {
+            coll.storeRequest(evidence, 200);
+        }
+        assertFalse(decider.isDecisionRequired(evidence));
+        for (int t = 0; t < 100; t++) {
+            coll.storeRequest(evidence, 200);
+        }
+        assertTrue(decider.isDecisionRequired(evidence));
+    }
+
+    @Test
+    public void shouldMaintainScoreOnStore() {
+        request.setRemoteAddr("8.8.8.8");
+        SimpleResponseDecider decider = new SimpleResponseDecider(coll, 100, 100);
+        Evidence evidence = new Evidence(new Evidence(request), rule, "");
+        coll.store(evidence);
+        coll.store(evidence);
+        assertEquals(2 * rule.getLevel().getScore(), coll.findByIp(evidence).getScore());
+        assertEquals(coll.findByIp(evidence).getDetections(), coll.findByIp(evidence).getScore());
+        assertFalse(decider.isDecisionRequired(evidence));
+    }
+
+    @Test
+    public void shouldTakeRateWhenDeciding() {
+        request.setRemoteAddr("8.8.8.8");
+        SimpleResponseDecider decider = new SimpleResponseDecider(coll, 100, 20);
+        Evidence evidence = new Evidence(request);
+        for (int t = 0; t < 200; t++) {
+            coll.storeRequest(evidence, 200);
+        }
+        assertTrue(decider.isDecisionRequired(evidence));
+        Evidence later = new Evidence(request) {
+            @Override
+            public Instant getTimestamp() {
+                return evidence.getTimestamp().plusSeconds(120);
+            }
+        };
+        assertFalse(decider.isDecisionRequired(later));
+        assertTrue(decider.decide(later) instanceof NoAction);
+    }
+
+    @Test
+    public void shouldHonourOverriddenScore() {
+        request.setRemoteAddr("8.8.8.8");
+        SimpleResponseDecider decider = new SimpleResponseDecider(coll, 100, 20) {
+            @Override
+            protected long score(EvidenceAggregation agg) {
+                return agg.getDetections() * 10;
+            }
+        };
+        Evidence evidence = new Evidence(new Evidence(request), rule, "");
+        coll.store(evidence);
+        assertEquals(10 * rule.getLevel().getScore(), coll.findByIp(evidence).getScore());
+        assertTrue(decider.decide(evidence) instanceof BlacklistIpAction);
+    }
+
+    @Test
+    public void shouldLetTheLastDeciderScore() {
+        request.setRemoteAddr("8.8.8.8");
+        Evidence evidence = new Evidence(new Evidence(request), rule, "");
+        new SimpleResponseDecider(coll, 100, 40, Duration.ofMinutes(1));
+        coll.store(evidence);
+        SimpleResponseDecider last = new SimpleResponseDecider(coll, 100, 40);
+        assertEquals(rule.getLevel().getScore(), coll.findByIp(evidence).getScore());
+        assertFalse(last.isDecisionRequired(evidence));
+        coll.store(evidence);
+        assertEquals(2 * rule.getLevel().getScore(), coll.findByIp(evidence).getScore());
+        assertTrue(last.decide(evidence) instanceof BlacklistIpAction);
+    }
+
+    @Test
+    public void shouldForgetWithDecayingScore() {
+        request.setRemoteAddr("8.8.8.8");
+        SimpleResponseDecider decider = new SimpleResponseDecider(coll, 100, 40, Duration.ofSeconds(1));
+        Evidence evidence = new Evidence(new Evidence(request), rule, "");
+        coll.store(evidence);
+        coll.store(evidence);
+        assertTrue(decider.decide(evidence) instanceof BlacklistIpAction);
+        Evidence later = new Evidence(new Evidence(request), rule, "") {
+            @Override
+            public Instant getTimestamp() {
+                return evidence.getTimestamp().plusSeconds(60);
+            }
+        };
+        assertTrue(decider.isDecisionRequired(evidence));
+        assertFalse(decider.isDecisionRequired(later));
+    }
 }
@@ -0,0 +1,59 @@
+/*
+ * Copyright 2016 E.Hooijmeijer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.ctrlaltdev.harbinger.rule;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class AhoCorasickTest {
+
+    private AhoCorasick ac = new AhoCorasick(Arrays.asList("he", "she", "his", "hers", "été"), new int[] { 0, 1, 2, 3, 4 });
+
+    @Test
+    public void shouldFindNothing() {
+        long[] hits = new long[1];
+        assertFalse(ac.scan("nothing to see", hits));
+        assertEquals(0L, hits[0]);
+    }
+
+    @Test
+    public void shouldFindOverlappingLiterals() {
+        long[] hits = new long[1];
+        assertTrue(ac.scan("ushers", hits));
+        assertEquals(0b1011L, hits[0]);
+    }
+
+    @Test
+    public void shouldFindNonAscii() {
+        long[] hits = new long[1];
+        assertTrue(ac.scan("en été", hits));
+        assertEquals(0b10000L, hits[0]);
+    }
+
+    @Test
+    public void shouldMarkLargeIds() {
+        AhoCorasick large = new AhoCorasick(Arrays.asList("a", "b"), new int[] { 64, 130 });
+        long[] hits = new long[3];
+        assertTrue(large.scan("ba", hits));
+        assertEquals(1L, hits[1]);
+        assertEquals(4L, hits[2]);
+    }
+}
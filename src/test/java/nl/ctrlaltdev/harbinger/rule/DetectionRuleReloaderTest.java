@@ -0,0 +1,87 @@
+/*
+ * Copyright 2016 E.Hooijmeijer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.ctrlaltdev.harbinger.rule;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.time.Duration;
+import java.util.Collections;
+
+import org.junit.Test;
+
+public class DetectionRuleReloaderTest {
+
+    private static final DetectionRule AAA = new DetectionRule(new String[] { "A", "HIGH", "aaa" });
+    private static final DetectionRule BBB = new DetectionRule(new String[] { "B", "HIGH", "bbb" });
+
+    @Test
+    public void shouldReloadOnlyWhenChanged() {
+        InMemoryRuleSource source = new InMemoryRuleSource(Collections.singleton(AAA));
+        DetectionRuleReloader reloader = new DetectionRuleReloader(source);
+        DetectionRuleSet initial = reloader.get();
+        assertSame(AAA, initial.find("aaa"));
+        assertNull(initial.find("bbb"));
+        assertNotNull(reloader.getLastCompileTime());
+
+        assertFalse(reloader.reload());
+        assertSame(initial, reloader.get());
+        assertEquals(0, reloader.getReloads());
+
+        source.set(Collections.singleton(BBB));
+        assertTrue(reloader.reload());
+        assertEquals(1, reloader.getReloads());
+        assertEquals(source.getVersion(), reloader.getVersion());
+        assertNull(reloader.get().find("aaa"));
+        assertSame(BBB, reloader.get().find("bbb"));
+        // the previous snapshot is left untouched.
+        assertSame(AAA, initial.find("aaa"));
+    }
+
+    @Test
+    public void shouldKeepPreviousRulesOnFailure() {
+        InMemoryRuleSource source = new InMemoryRuleSource(Collections.singleton(AAA));
+        DetectionRuleReloader reloader = new DetectionRuleReloader(source, (rules) -> {
+            if (rules.contains(BBB)) {
+                throw new IllegalArgumentException("bad rule");
+            }
+            return new DetectionRuleSet(rules);
+        });
+        DetectionRuleSet initial = reloader.get();
+        source.set(Collections.singleton(BBB));
+        assertFalse(reloader.reload());
+        assertSame(initial, reloader.get());
+        assertEquals(1, reloader.getFailures());
+        assertEquals(0, reloader.getReloads());
+    }
+
+    @Test(timeout = 10000)
+    public void shouldReloadInBackground() throws InterruptedException {
+        InMemoryRuleSource source = new InMemoryRuleSource(Collections.singleton(AAA));
+        try (DetectionRuleReloader reloader = new DetectionRuleReloader(source)) {
+            reloader.start(Duration.ofMillis(10));
+            source.set(Collections.singleton(BBB));
+            while (reloader.getReloads() == 0) {
+                Thread.sleep(10);
+            }
+            assertSame(BBB, reloader.get().find("bbb"));
+        }
+    }
+}
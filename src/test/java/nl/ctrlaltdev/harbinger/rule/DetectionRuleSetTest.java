@@ -0,0 +1,176 @@
+/*
+ * Copyright 2016 E.Hooijmeijer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.ctrlaltdev.harbinger.rule;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Set;
+
+import org.junit.Test;
+
+import nl.ctrlaltdev.harbinger.rule.DetectionRuleSet.Engine;
+import nl.ctrlaltdev.harbinger.rule.DetectionRuleSet.Ordering;
+
+public class DetectionRuleSetTest {
+
+    private static final String[] VALUES = { "", "somewhere", "overtherainbow", "john.doe@example.com", "<script>alert(1);</script>",
+            " onclick='alert(1);'", " style=\"background:url(javascript:alert(1))", "' or '1'='1", "../../etc/passwd", "'", ";  --",
+            "a/b", "web.xml", "boot.ini", "<meta http-equiv>", "1 and 2", "x\\y" };
+
+    private Set<DetectionRule> rules = new DetectionRuleLoader().load();
+    private DetectionRuleSet set = new DetectionRuleSet(rules);
+
+    @Test
+    public void shouldPrefilterDefaultRules() {
+        for (DetectionRule rule : rules) {
+            assertTrue(rule.getPattern().pattern(), set.isPrefiltered(rule));
+        }
+    }
+
+    @Test
+    public void shouldFindTheSameRulesAsTheLoop() {
+        for (String value : VALUES) {
+            DetectionRule expected = null;
+            for (DetectionRule rule : set.getRules()) {
+                if (rule.matches(value)) {
+                    expected = rule;
+                    break;
+                }
+            }
+            assertEquals(value, expected, set.find(value));
+        }
+    }
+
+    @Test
+    public void shouldAlwaysEvaluateRulesWithoutLiterals() {
+        DetectionRule digits = new DetectionRule(new String[] { "Digits", "LOW", "[0-9]{4}" });
+        DetectionRuleSet digitSet = new DetectionRuleSet(Arrays.asList(digits));
+        assertFalse(digitSet.isPrefiltered(digits));
+        assertEquals(digits, digitSet.find("pin 1234"));
+        assertNull(digitSet.find("pin 12"));
+    }
+
+    @Test
+    public void shouldHandleEmptySet() {
+        assertNull(new DetectionRuleSet(Arrays.asList()).find("<script>"));
+    }
+
+    @Test
+    public void shouldReportExceededScanBudget() {
+        // a back reference cannot be prefiltered, so the regex must read the value.
+        DetectionRule redos = new DetectionRule(new String[] { "Repeat", "LOW", "(\\w)\\1{5}x" }, 1000, 10);
+        DetectionRule script = new DetectionRule(new String[] { "XSS", "MID", "<script" });
+        DetectionRuleSet redosSet = new DetectionRuleSet(Arrays.asList(redos, script), 16, false);
+        String value = "abcdefghijklmnopqrstuvwxyzabcdefghijklmn";
+        assertEquals(DetectionRule.SCAN_BUDGET_EXCEEDED, redosSet.find(value));
+        assertEquals(DetectionRule.SCAN_BUDGET_EXCEEDED, redosSet.find(value));
+        assertEquals(script, redosSet.find(value + "<script>"));
+        assertNull(redosSet.find("xyz"));
+    }
+
+    @Test
+    public void shouldNotMissPayloadAfterMaxChars() {
+        String payload = "<script>alert(1)</script>";
+        StringBuilder padding = new StringBuilder();
+        for (int t = 0; t < DetectionRule.DEFAULT_MAX_CHARS; t++) {
+            padding.append('a');
+        }
+        DetectionRule xss = set.find(Normalizer.normalize(payload));
+        assertNotNull(xss);
+        assertEquals(xss, set.find(Normalizer.normalize("aaaa" + payload)));
+        assertEquals(DetectionRule.SCAN_BUDGET_EXCEEDED, set.find(Normalizer.normalize(padding + payload)));
+        assertEquals(DetectionRule.SCAN_BUDGET_EXCEEDED, new DetectionRuleSet(rules, 0, false).find(Normalizer.normalize(padding + payload)));
+        assertEquals(xss, set.find(Normalizer.normalize(payload + padding)));
+    }
+
+    @Test
+    public void shouldNotCacheInterruptedScan() {
+        DetectionRule redos = new DetectionRule(new String[] { "Repeat", "LOW", "(\\w)\\1{5}x" });
+        DetectionRuleSet cached = new DetectionRuleSet(Arrays.asList(redos), 16, false);
+        StringBuilder value = new StringBuilder();
+        for (int t = 0; t < 1000; t++) {
+            value.append("abx");
+        }
+        Thread.currentThread().interrupt();
+        try {
+            assertEquals(DetectionRule.SCAN_BUDGET_EXCEEDED, cached.find(value));
+        } finally {
+            Thread.interrupted();
+        }
+        assertNull(cached.find(value));
+    }
+
+    @Test
+    public void shouldEvaluateRegularRulesWithTheAutomaton() {
+        for (DetectionRule rule : rules) {
+            assertEquals(rule.getPattern().pattern(), Engine.AUTOMATON, set.getEngine(rule));
+        }
+        DetectionRule backref = new DetectionRule(new String[] { "Repeat", "LOW", "(ab)\\1" });
+        DetectionRuleSet mixed = new DetectionRuleSet(Arrays.asList(backref, rules.iterator().next()));
+        assertEquals(Engine.REGEX, mixed.getEngine(backref));
+        assertEquals(backref, mixed.find("xabab"));
+        assertNull(mixed.getEngine(DetectionRule.SCAN_BUDGET_EXCEEDED));
+    }
+
+    @Test
+    public void shouldFallBackForSupplementaryCharacters() {
+        DetectionRule dot = new DetectionRule(new String[] { "Dot", "LOW", "a.b" });
+        DetectionRuleSet dotSet = new DetectionRuleSet(Arrays.asList(dot));
+        assertEquals(Engine.AUTOMATON, dotSet.getEngine(dot));
+        assertEquals(dot, dotSet.find("a\ud83d\ude00b"));
+        assertEquals(dot, dotSet.find("axb"));
+    }
+
+    @Test
+    public void shouldTryLikelyRulesFirst() {
+        DetectionRule rare = new DetectionRule(new String[] { "Rare", "LOW", "rare" });
+        DetectionRule common = new DetectionRule(new String[] { "Common", "LOW", "common" });
+        DetectionRuleSet ordered = new DetectionRuleSet(Arrays.asList(rare, common), 0, false, Ordering.DETERMINISTIC);
+        assertEquals(Arrays.asList(rare, common), ordered.getEvaluationOrder());
+        for (int t = 0; t < DetectionRuleSet.REORDER_INTERVAL; t++) {
+            assertEquals(common, ordered.find("common value"));
+        }
+        assertEquals(Arrays.asList(common, rare), ordered.getEvaluationOrder());
+        assertEquals(rare, ordered.find("rare and common"));
+        assertEquals(common, ordered.find("common"));
+    }
+
+    @Test
+    public void shouldKeepVerdictsWhenReordered() {
+        DetectionRuleSet fixed = new DetectionRuleSet(rules, 0, false);
+        DetectionRuleSet adaptive = new DetectionRuleSet(rules, 0, false, Ordering.ADAPTIVE);
+        for (String value : VALUES) {
+            adaptive.find(value);
+        }
+        adaptive.reorder();
+        for (String value : VALUES) {
+            assertEquals(value, fixed.find(value), adaptive.find(value));
+        }
+    }
+
+    @Test
+    public void shouldSkipRulesWithoutTheirCharacters() {
+        DetectionRule tag = new DetectionRule(new String[] { "Tag", "LOW", "[<>]x?" }, 100, 1);
+        DetectionRuleSet tagSet = new DetectionRuleSet(Arrays.asList(tag), 0, false);
+        assertNull(tagSet.find("john.doe@example.com"));
+        assertEquals(DetectionRule.SCAN_BUDGET_EXCEEDED, tagSet.find("<<"));
+    }
+}
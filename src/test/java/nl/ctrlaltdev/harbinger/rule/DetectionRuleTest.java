@@ -49,4 +49,28 @@ public class DetectionRuleTest {
         new DetectionRule(new String[] { "test", "XXX", "A" });
     }
 
+    @Test(expected = ScanBudgetExceededException.class)
+    public void shouldAbortWhenBudgetIsExceeded() {
+        DetectionRule rule = new DetectionRule(new String[] { "test", "LOW", "b" }, 1000, 10);
+        rule.matches("aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa");
+    }
+
+    @Test
+    public void shouldOnlyScanMaxChars() {
+        DetectionRule rule = new DetectionRule(new String[] { "test", "LOW", "test" }, 8, 1000);
+        assertTrue(rule.matches("1234test"));
+        assertTrue(rule.matches("test12345"));
+        assertFalse(rule.matches("12345678"));
+    }
+
+    @Test(expected = ScanBudgetExceededException.class)
+    public void shouldNotTreatLongerValuesAsClean() {
+        new DetectionRule(new String[] { "test", "LOW", "test" }, 8, 1000).matches("12345test");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldNotConstructWithoutBudget() {
+        new DetectionRule(new String[] { "test", "LOW", "A" }, 0, 1);
+    }
+
 }
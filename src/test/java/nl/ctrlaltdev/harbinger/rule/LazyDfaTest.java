@@ -0,0 +1,107 @@
+/*
+ * Copyright 2016 E.Hooijmeijer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.ctrlaltdev.harbinger.rule;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+public class LazyDfaTest {
+
+    private static final String[] PATTERNS = { "<script[^>]*>", "([\\s\\\"'`;\\/0-9\\=]+on\\w+\\s*=)",
+            "(?:[\\s]style=[\\s\\S]|<style[^>]*>[\\s\\S]*?|<object[^>]*>[\\s\\S]*?|<meta[^>]*>[\\s\\S]*?|<applet[^>]*>[\\s\\S]*?)",
+            "(?:\\/etc\\/|\\/..|\\\\..|web\\.xml|boot\\.ini\\b)", "^'$", ";[ ]*--", "['\"`] *(or|and) *['\"`]", "a.c", "^abc", "abc$",
+            "\\bword\\b", "\\Bor\\B", "x{2,3}y", "(a|ab)(c|bcd)(d*)", "[^a-z]{3}$", "\\d+\\.\\d+", "a$\\n" };
+
+    private static final String[] VALUES = { "", "'", "'\n", "'\r\n", "'\n\n", "' ", "<script>", "<script", " onclick=", "x style=1",
+            "<meta http-equiv>", "../etc/passwd", "boot.ini", "boot.inix", "boot.ini.", "a\nc", "abc", "xabc", "abc\n", "abc\r\n", "abc\r",
+            "abc ", "abc\n\n", "word", "a word.", "swordfish", "for", "or", "xxy", "xxxxy", "abcd", "ABC", "12.5", "a\n", "1 or '",
+            "éoré", "caféword", ";--", "; --", "' and '" };
+
+    private List<Pattern> patterns = new ArrayList<>();
+    private LazyDfa dfa;
+
+    public LazyDfaTest() {
+        List<RegexNode> nodes = new ArrayList<>();
+        int[] ids = new int[PATTERNS.length];
+        for (int t = 0; t < PATTERNS.length; t++) {
+            patterns.add(Pattern.compile(PATTERNS[t]));
+            nodes.add(RegexParser.parse(PATTERNS[t]));
+            ids[t] = t;
+        }
+        dfa = new LazyDfa(nodes, ids);
+    }
+
+    @Test
+    public void shouldMatchLikeJavaUtilRegex() {
+        for (String value : VALUES) {
+            long[] hits = dfa.scan(value);
+            for (int t = 0; t < PATTERNS.length; t++) {
+                boolean expected = patterns.get(t).matcher(value).find();
+                assertEquals(PATTERNS[t] + " on '" + value + "'", expected, (hits[t >>> 6] & (1L << t)) != 0);
+            }
+        }
+    }
+
+    @Test
+    public void shouldNotScanSupplementaryCharacters() {
+        assertNull(dfa.scan("a😀c"));
+    }
+
+    @Test
+    public void shouldNotScanNonSpacingMarksWithWordBoundaries() {
+        assertNull(dfa.scan("word́"));
+    }
+
+    @Test
+    public void shouldScanInLinearTime() {
+        LazyDfa redos = new LazyDfa(Arrays.asList(RegexParser.parse("(a+)+b")), new int[] { 0 });
+        char[] value = new char[100000];
+        Arrays.fill(value, 'a');
+        assertFalse((redos.scan(new String(value))[0] & 1) != 0);
+        assertTrue(redos.size() < 10);
+    }
+
+    @Test
+    public void shouldNotCompileHugeExpressions() {
+        LazyDfa huge = new LazyDfa(Arrays.asList(RegexParser.parse("(?:a{100}){100}"), RegexParser.parse("b")), new int[] { 0, 1 });
+        assertFalse(huge.isCompiled(0));
+        assertTrue(huge.isCompiled(1));
+        assertEquals(2L, huge.scan("b")[0]);
+    }
+
+    @Test
+    public void shouldFlushWhenFull() {
+        LazyDfa wide = new LazyDfa(Arrays.asList(RegexParser.parse("a[ab]{11}c")), new int[] { 0 });
+        Random random = new Random(42);
+        StringBuilder sb = new StringBuilder();
+        for (int t = 0; t < 50000; t++) {
+            sb.append(random.nextBoolean() ? 'a' : 'b');
+        }
+        assertEquals(0, wide.scan(sb)[0]);
+        assertTrue(wide.getFlushes() > 0);
+        assertEquals(1, wide.scan(sb.append('c'))[0]);
+    }
+}
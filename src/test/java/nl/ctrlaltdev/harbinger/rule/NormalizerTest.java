@@ -0,0 +1,65 @@
+/*
+ * Copyright 2016 E.Hooijmeijer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.ctrlaltdev.harbinger.rule;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+public class NormalizerTest {
+
+    private static final String[] VALUES = { "", "plain", "Mixed Case", "a+b", "a+b%20c", "%3Cscript%3E", "%3cSCRIPT%3e",
+            "<%53CRIPT>ALERT(1);</SCRIPT>", "100%", "%4", "%zz", "%+1", "%-1", "%2B", "%25", "caf%C3%A9", "CAFÉ", "ÇA+%41" };
+
+    @Test
+    public void shouldReturnPlainValueAsIs() {
+        String value = "nothing-to_do.here@all";
+        assertSame(value, Normalizer.normalize(value));
+    }
+
+    @Test
+    public void shouldDecodeAndFold() {
+        assertEquals("<script>", Normalizer.normalize("%3CSCRIPT%3e").toString());
+        assertEquals("a b c", Normalizer.normalize("A+B%20C").toString());
+        assertEquals("a+b", Normalizer.normalize("A+B").toString());
+    }
+
+    @Test
+    public void shouldNormalizeLikeUrlDecoderAndToLowerCase() {
+        for (String value : VALUES) {
+            assertEquals(value, Normalizer.slow(value), Normalizer.normalize(value).toString());
+        }
+    }
+
+    @Test
+    public void shouldReuseBuffer() {
+        CharSequence first = Normalizer.normalize("ABC");
+        assertEquals("abc", first.toString());
+        assertSame(first, Normalizer.normalize("DEF"));
+        assertEquals("def", first.toString());
+        assertEquals("ef", first.subSequence(1, 3));
+    }
+
+    @Test
+    public void shouldNormalizeLargeValues() {
+        StringBuilder sb = new StringBuilder();
+        for (int t = 0; t < 20000; t++) {
+            sb.append('A');
+        }
+        assertEquals(sb.toString().toLowerCase(), Normalizer.normalize(sb.toString()).toString());
+    }
+}
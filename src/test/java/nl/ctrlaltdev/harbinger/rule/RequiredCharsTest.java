@@ -0,0 +1,72 @@
+/*
+ * Copyright 2016 E.Hooijmeijer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.ctrlaltdev.harbinger.rule;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+import nl.ctrlaltdev.harbinger.rule.RegexNode.CharSet;
+
+public class RequiredCharsTest {
+
+    @Test
+    public void shouldPreferUncommonCharacters() {
+        assertEquals("<", chars("<script[^>]*>"));
+        assertEquals("=", chars("([\\s\\\"'`;\\/0-9\\=]+on\\w+\\s*=)"));
+        assertEquals(";", chars(";[ ]*--"));
+        assertEquals("'", chars("^'$"));
+        assertEquals("\"'`", chars("['\"`] *(or|and) *['\"`]"));
+    }
+
+    @Test
+    public void shouldCombineAlternatives() {
+        assertEquals("/\\bw", chars("(?:\\/etc\\/|\\/..|\\\\..|web\\.xml|boot\\.ini\\b)"));
+        assertEquals("<=", chars("(?:[\\s]style=[\\s\\S]|<style[^>]*>[\\s\\S]*?|<object[^>]*>[\\s\\S]*?)"));
+    }
+
+    @Test
+    public void shouldIncludeNonAscii() {
+        CharSet set = RequiredChars.of(Pattern.compile("[^a-z]"));
+        assertTrue(set.contains('é'));
+        assertFalse(set.contains('a'));
+    }
+
+    @Test
+    public void shouldNotRequireOptionalCharacters() {
+        assertNull(RequiredChars.of(Pattern.compile("a?")));
+        assertNull(RequiredChars.of(Pattern.compile("a|b*")));
+        assertNull(RequiredChars.of(Pattern.compile("^$")));
+        assertNull(RequiredChars.of(Pattern.compile("(?i)abc")));
+        assertNull(RequiredChars.of(Pattern.compile("(a)\\1")));
+    }
+
+    private String chars(String regex) {
+        CharSet set = RequiredChars.of(Pattern.compile(regex));
+        StringBuilder sb = new StringBuilder();
+        for (char c = 0; c < 128; c++) {
+            if (set.contains(c)) {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+}
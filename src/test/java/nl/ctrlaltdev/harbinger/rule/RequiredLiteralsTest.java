@@ -0,0 +1,78 @@
+/*
+ * Copyright 2016 E.Hooijmeijer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.ctrlaltdev.harbinger.rule;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+public class RequiredLiteralsTest {
+
+    @Test
+    public void shouldFindLiteralPrefix() {
+        assertEquals(Collections.singletonList("<script"), of("<script[^>]*>"));
+    }
+
+    @Test
+    public void shouldPickLongestRun() {
+        assertEquals(Collections.singletonList("--"), of(";[ ]*--"));
+        assertEquals(Collections.singletonList("on"), of("([\\s\\\"'`;\\/0-9\\=]+on\\w+\\s*=)"));
+    }
+
+    @Test
+    public void shouldCollectAlternatives() {
+        assertEquals(Arrays.asList("or", "and"), of("['\"`] *(or|and) *['\"`]"));
+        assertEquals(Arrays.asList("/etc/", "/", "\\", "web.xml", "boot.ini"), of("(?:\\/etc\\/|\\/..|\\\\..|web\\.xml|boot\\.ini\\b)"));
+    }
+
+    @Test
+    public void shouldIgnoreAnchors() {
+        assertEquals(Collections.singletonList("'"), of("^'$"));
+    }
+
+    @Test
+    public void shouldExpandFixedRepeats() {
+        assertEquals(Collections.singletonList("abab"), of("(?:ab){2}"));
+        assertEquals(Collections.singletonList("ab"), of("(?:ab)+"));
+    }
+
+    @Test
+    public void shouldNotPrefilterOptionalParts() {
+        assertTrue(of("a?").isEmpty());
+        assertTrue(of("a|b*").isEmpty());
+        assertTrue(of("[a-z]+").isEmpty());
+        assertTrue(of("").isEmpty());
+    }
+
+    @Test
+    public void shouldNotPrefilterUnsupportedPatterns() {
+        assertTrue(of("(a)\\1").isEmpty());
+        assertTrue(of("(?=abc)abc").isEmpty());
+        assertTrue(of("(?i)abc").isEmpty());
+        assertTrue(RequiredLiterals.of(Pattern.compile("abc", Pattern.CASE_INSENSITIVE)).isEmpty());
+        assertTrue(of("a*+").isEmpty());
+    }
+
+    private List<String> of(String regex) {
+        return RequiredLiterals.of(Pattern.compile(regex));
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2016 E.Hooijmeijer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.ctrlaltdev.harbinger.rule;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class RuleSourceTest {
+
+    private Path file;
+
+    @After
+    public void cleanup() throws IOException {
+        if (file != null) {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public void shouldDetectFileChanges() throws IOException {
+        file = Files.createTempFile("rules", ".txt");
+        Files.write(file, "#comment\nA,HIGH,aaa\n".getBytes(StandardCharsets.UTF_8));
+        RuleSource source = RuleSource.file(file);
+        long v1 = source.getVersion();
+        assertEquals(v1, source.getVersion());
+        assertEquals(1, source.load().size());
+
+        Files.write(file, "A,HIGH,aaa\nB,LOW,bbb\n".getBytes(StandardCharsets.UTF_8));
+        assertNotEquals(v1, source.getVersion());
+        assertEquals(2, source.load().size());
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void shouldFailOnMissingFile() throws IOException {
+        file = Files.createTempFile("rules", ".txt");
+        Files.delete(file);
+        RuleSource.file(file).getVersion();
+    }
+
+    @Test
+    public void shouldLoadFromClasspath() {
+        RuleSource source = RuleSource.classpath("/default-rules.txt");
+        assertEquals(source.getVersion(), source.getVersion());
+        assertEquals(new DetectionRuleLoader().load().size(), source.load().size());
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void shouldFailOnMissingResource() {
+        RuleSource.classpath("/nonexisting.txt").load();
+    }
+
+    @Test
+    public void shouldVersionInMemoryRules() {
+        InMemoryRuleSource source = new InMemoryRuleSource(Collections.emptySet());
+        long v1 = source.getVersion();
+        source.set(Collections.singleton(new DetectionRule(new String[] { "A", "HIGH", "aaa" })));
+        assertNotEquals(v1, source.getVersion());
+        assertEquals(1, source.load().size());
+    }
+}
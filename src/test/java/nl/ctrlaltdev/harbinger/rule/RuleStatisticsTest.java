@@ -0,0 +1,52 @@
+/*
+ * Copyright 2016 E.Hooijmeijer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.ctrlaltdev.harbinger.rule;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class RuleStatisticsTest {
+
+    private RuleStatistics statistics = new RuleStatistics(3);
+
+    @Test
+    public void shouldKeepCanonicalOrderWithoutStatistics() {
+        assertArrayEquals(new int[] { 0, 1, 2 }, statistics.order());
+    }
+
+    @Test
+    public void shouldPreferCheapRules() {
+        for (int t = 0; t < 10; t++) {
+            statistics.record(0, false, 100);
+            statistics.record(1, false, 10);
+            statistics.record(2, false, 100);
+        }
+        assertArrayEquals(new int[] { 1, 0, 2 }, statistics.order());
+    }
+
+    @Test
+    public void shouldPreferLikelyRules() {
+        for (int t = 0; t < 10; t++) {
+            statistics.record(0, false, 10);
+            statistics.record(1, false, 10);
+            statistics.record(2, true, 10);
+        }
+        assertArrayEquals(new int[] { 2, 0, 1 }, statistics.order());
+        assertEquals(11.0 / 12.0, statistics.getHitRate(2), 0.0001);
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2016 E.Hooijmeijer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.ctrlaltdev.harbinger.rule;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+public class ScanBudgetTest {
+
+    private DetectionRule rule = new DetectionRule(new String[] { "test", "LOW", "test" });
+
+    @Test
+    public void shouldCountSteps() {
+        ScanBudget budget = new ScanBudget(rule, "abcdef", 100, 3);
+        assertEquals('a', budget.charAt(0));
+        assertEquals('b', budget.charAt(1));
+        assertEquals('a', budget.charAt(0));
+        try {
+            budget.charAt(2);
+            fail();
+        } catch (ScanBudgetExceededException ex) {
+            assertSame(rule, ex.getRule());
+        }
+    }
+
+    @Test(expected = ScanBudgetExceededException.class)
+    public void shouldAbortWhenInterrupted() {
+        Thread.currentThread().interrupt();
+        try {
+            ScanBudget budget = new ScanBudget(rule, "abcdef", 100, 1024);
+            for (int t = 0; t < 1024; t++) {
+                budget.charAt(0);
+            }
+        } catch (ScanBudgetExceededException ex) {
+            assertTrue(ex.isInterrupted());
+            throw ex;
+        } finally {
+            Thread.interrupted();
+        }
+    }
+
+    @Test
+    public void shouldOnlyExposeMaxChars() {
+        ScanBudget budget = new ScanBudget(rule, "abcdef", 4, 100);
+        assertEquals(4, budget.length());
+        assertEquals("abcd", budget.toString());
+        assertEquals("bc", budget.subSequence(1, 3).toString());
+    }
+
+    @Test
+    public void shouldSpendBudgetInSubSequences() {
+        ScanBudget budget = new ScanBudget(rule, "abcdef", 100, 3);
+        CharSequence view = budget.subSequence(2, 5);
+        assertEquals('c', view.charAt(0));
+        assertEquals("de", view.subSequence(1, 3).toString());
+        try {
+            view.charAt(2);
+            fail();
+        } catch (ScanBudgetExceededException ex) {
+            assertFalse(ex.isInterrupted());
+        }
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void shouldNotExposeMoreThanMaxChars() {
+        new ScanBudget(rule, "abcdef", 4, 100).subSequence(2, 5);
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2016 E.Hooijmeijer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.ctrlaltdev.harbinger.rule;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+public class VerdictCacheTest {
+
+    private VerdictCache cache = new VerdictCache(64);
+
+    @Test
+    public void shouldRoundUpCapacity() {
+        assertEquals(64, cache.capacity());
+        assertEquals(128, new VerdictCache(100).capacity());
+        assertEquals(8, new VerdictCache(1).capacity());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectInvalidSize() {
+        new VerdictCache(0);
+    }
+
+    @Test
+    public void shouldHashValues() {
+        assertEquals(cache.hash("abc"), cache.hash(new StringBuilder("abc")));
+        assertNotEquals(cache.hash("abc"), cache.hash("abd"));
+        assertNotEquals(cache.hash("abc"), new VerdictCache(64).hash("abc"));
+    }
+
+    @Test
+    public void shouldCacheVerdicts() {
+        long clean = cache.hash("clean");
+        long dirty = cache.hash("dirty");
+        assertEquals(VerdictCache.MISS, cache.get(clean));
+        cache.put(clean, VerdictCache.CLEAN);
+        cache.put(dirty, 3);
+        assertEquals(VerdictCache.CLEAN, cache.get(clean));
+        assertEquals(3, cache.get(dirty));
+        assertEquals(2, cache.getHits());
+        assertEquals(1, cache.getMisses());
+
+        cache.clear();
+        assertEquals(VerdictCache.MISS, cache.get(clean));
+    }
+
+    @Test
+    public void shouldKeepFrequentValues() {
+        VerdictCache small = new VerdictCache(8);
+        long popular = small.hash("popular");
+        for (int t = 0; t < 10; t++) {
+            small.get(popular);
+        }
+        small.put(popular, VerdictCache.CLEAN);
+        for (int t = 0; t < 1000; t++) {
+            if (t % 4 == 0) {
+                small.get(popular);
+            }
+            long once = small.hash("once" + t);
+            small.get(once);
+            small.put(once, VerdictCache.CLEAN);
+        }
+        assertEquals(VerdictCache.CLEAN, small.get(popular));
+    }
+
+    @Test
+    public void shouldCacheRuleSetVerdicts() {
+        DetectionRuleSet set = new DetectionRuleSet(new DetectionRuleLoader().load(), 1024);
+        DetectionRule rule = set.find("<script>");
+        assertEquals(rule, set.find("<script>"));
+        assertNull(set.find("harmless"));
+        assertNull(set.find("harmless"));
+        assertEquals(2, set.getVerdictCache().getHits());
+        assertEquals(2, set.getVerdictCache().getMisses());
+    }
+}
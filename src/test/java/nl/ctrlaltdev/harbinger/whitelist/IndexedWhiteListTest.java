@@ -0,0 +1,207 @@
+/*
+ * Copyright 2016 E.Hooijmeijer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.ctrlaltdev.harbinger.whitelist;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Predicate;
+
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.security.authentication.TestingAuthenticationToken;
+
+import nl.ctrlaltdev.harbinger.evidence.Evidence;
+import nl.ctrlaltdev.harbinger.rule.DetectionRule;
+
+public class IndexedWhiteListTest {
+
+    private static final DetectionRule RULE = new DetectionRule(new String[] { "", "MID", ".*" });
+
+    private static Evidence evidence(String ip, String url, String parameter, String user) {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setRemoteAddr(ip);
+        request.setRequestURI(url);
+        Evidence ev = new Evidence(request);
+        if (user != null) {
+            ev = new Evidence(ev, new TestingAuthenticationToken(user, ""));
+        }
+        return parameter == null ? ev : new Evidence(ev, RULE, parameter, "value");
+    }
+
+    @Test
+    public void shouldIndexSingleEntries() {
+        List<WhiteList> entries = new ArrayList<>();
+        for (int t = 0; t < 10000; t++) {
+            entries.add(new IpWhiteList("10.0." + (t >> 8) + "." + (t & 255)));
+        }
+        entries.add(new UserWhiteList("service"));
+        IndexedWhiteList wl = IndexedWhiteList.compile(new OrWhiteList(entries));
+        assertEquals(10001, wl.size());
+        assertTrue(wl.isWhitelisted(evidence("10.0.39.15", "/", null, null)));
+        assertTrue(wl.isWhitelisted(evidence("8.8.8.8", "/", null, "service")));
+        assertFalse(wl.isWhitelisted(evidence("10.1.0.0", "/", null, null)));
+    }
+
+    @Test
+    public void shouldIndexCombinations() {
+        IndexedWhiteList wl = IndexedWhiteList.compile(new OrWhiteList(Arrays.asList(
+                new AndWhiteList(Arrays.asList(new IpWhiteList("10.0.0.1"), new ParameterWhiteList("body"))),
+                new AndWhiteList(Arrays.asList(new IpWhiteList("10.0.0.2"), new ParameterWhiteList("body"))),
+                new AndWhiteList(Arrays.asList(new UrlWhiteList("/upload"),
+                        new OrWhiteList(Arrays.asList(new UserWhiteList("a"), new UserWhiteList("b"))))))));
+        assertTrue(wl.isWhitelisted(evidence("10.0.0.1", "/", "body", null)));
+        assertTrue(wl.isWhitelisted(evidence("10.0.0.2", "/", "body", null)));
+        assertFalse(wl.isWhitelisted(evidence("10.0.0.3", "/", "body", null)));
+        assertFalse(wl.isWhitelisted(evidence("10.0.0.1", "/", "title", null)));
+        assertTrue(wl.isWhitelisted(evidence("10.0.0.3", "/upload", null, "b")));
+        assertFalse(wl.isWhitelisted(evidence("10.0.0.3", "/upload", null, "c")));
+    }
+
+    @Test
+    public void shouldIndexUrlPatterns() {
+        List<WhiteList> entries = new ArrayList<>();
+        for (int t = 0; t < 1000; t++) {
+            entries.add(new UrlPatternWhiteList("/api/v" + t + "/docs/*"));
+        }
+        entries.add(new UrlPatternWhiteList("/static/**"));
+        entries.add(new AndWhiteList(Arrays.asList(new UrlPatternWhiteList("/upload/*"), new ParameterWhiteList("body"))));
+        IndexedWhiteList wl = IndexedWhiteList.compile(new OrWhiteList(entries));
+        assertTrue(wl.isWhitelisted(evidence("1.1.1.1", "/api/v999/docs/123", null, null)));
+        assertFalse(wl.isWhitelisted(evidence("1.1.1.1", "/api/v999/docs/123/edit", null, null)));
+        assertFalse(wl.isWhitelisted(evidence("1.1.1.1", "/api/v1000/docs/123", null, null)));
+        assertTrue(wl.isWhitelisted(evidence("1.1.1.1", "/static/css/site.css", null, null)));
+        assertTrue(wl.isWhitelisted(evidence("1.1.1.1", "/upload/1", "body", null)));
+        assertFalse(wl.isWhitelisted(evidence("1.1.1.1", "/upload/1", "title", null)));
+    }
+
+    @Test
+    public void shouldIndexCidrRanges() {
+        List<WhiteList> entries = new ArrayList<>();
+        for (int t = 0; t < 500; t++) {
+            entries.add(new CidrWhiteList("172." + (16 + (t >> 8)) + "." + (t & 255) + ".0/24"));
+        }
+        entries.add(new AndWhiteList(Arrays.asList(new CidrWhiteList("192.168.0.0/16"), new UserWhiteList("admin"))));
+        IndexedWhiteList wl = IndexedWhiteList.compile(new OrWhiteList(entries));
+        assertTrue(wl.isWhitelisted(evidence("172.17.243.9", "/", null, null)));
+        assertFalse(wl.isWhitelisted(evidence("172.17.244.9", "/", null, null)));
+        assertTrue(wl.isWhitelisted(evidence("192.168.1.1", "/", null, "admin")));
+        assertFalse(wl.isWhitelisted(evidence("192.168.1.1", "/", null, "guest")));
+        assertFalse(wl.isWhitelisted(evidence("unknown", "/", null, null)));
+    }
+
+    @Test
+    public void shouldHandleEdgeCases() {
+        assertTrue(IndexedWhiteList.compile(new AndWhiteList(new ArrayList<>())).isWhitelisted(evidence("1.1.1.1", "/", null, null)));
+        assertFalse(IndexedWhiteList.compile(new OrWhiteList()).isWhitelisted(evidence("1.1.1.1", "/", null, null)));
+        WhiteList conflict = new AndWhiteList(Arrays.asList(new IpWhiteList("1.1.1.1"), new IpWhiteList("2.2.2.2")));
+        assertFalse(IndexedWhiteList.compile(conflict).isWhitelisted(evidence("1.1.1.1", "/", null, null)));
+        WhiteList custom = (ev) -> ev.getUrl().startsWith("/public/");
+        WhiteList wl = IndexedWhiteList.compile(new OrWhiteList(Arrays.asList(new IpWhiteList("1.1.1.1"), custom)));
+        assertTrue(wl.isWhitelisted(evidence("2.2.2.2", "/public/x", null, null)));
+        assertFalse(wl.isWhitelisted(evidence("2.2.2.2", "/private/x", null, null)));
+    }
+
+    @Test
+    public void shouldBehaveAsTheOriginal() {
+        Random random = new Random(42);
+        for (int run = 0; run < 200; run++) {
+            WhiteList original = randomWhiteList(random, 3);
+            WhiteList compiled = IndexedWhiteList.compile(original);
+            for (int t = 0; t < 50; t++) {
+                Evidence ev = evidence(pick(random, "1.1.1.1", pick(random, "2.2.2.2", "1.1.9.9")), pick(random, "/a", pick(random, "/b", "/a/b")),
+                        random.nextBoolean() ? pick(random, "p", "q") : null, random.nextBoolean() ? pick(random, "u", "v") : null);
+                assertEquals(original.isWhitelisted(ev), compiled.isWhitelisted(ev));
+            }
+        }
+    }
+
+    @Test
+    public void shouldResolveParametersAsTheOriginal() {
+        Random random = new Random(42);
+        for (int run = 0; run < 200; run++) {
+            WhiteList original = randomWhiteList(random, 3);
+            WhiteList compiled = IndexedWhiteList.compile(original);
+            for (int t = 0; t < 50; t++) {
+                Evidence ev = evidence(pick(random, "1.1.1.1", pick(random, "2.2.2.2", "1.1.9.9")), pick(random, "/a", pick(random, "/b", "/a/b")),
+                        null, random.nextBoolean() ? pick(random, "u", "v") : null);
+                if (compiled.isEmptyBeforeScan()) {
+                    assertFalse(original.isWhitelistedBeforeScan(new Evidence(ev, null, "p", null)));
+                }
+                if (!original.isWhitelistedBeforeScan(ev)) {
+                    for (String name : new String[] { "p", "q", "r" }) {
+                        boolean expected = original.isWhitelistedBeforeScan(new Evidence(ev, null, name, null));
+                        assertEquals(expected, original.getParametersBeforeScan(ev).test(name));
+                        assertEquals(expected, compiled.getParametersBeforeScan(ev).test(name));
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void shouldResolveParameterCombinations() {
+        IndexedWhiteList wl = IndexedWhiteList.compile(new OrWhiteList(Arrays.asList(
+                new ParameterWhiteList("password"),
+                new AndWhiteList(Arrays.asList(new IpWhiteList("10.0.0.1"), new ParameterWhiteList("body"))),
+                new AndWhiteList(Arrays.asList(new UrlPatternWhiteList("/upload/*"), new ParameterWhiteList("file"))))));
+        Predicate<String> names = wl.getParametersBeforeScan(evidence("10.0.0.1", "/upload/1", null, null));
+        assertTrue(names.test("password"));
+        assertTrue(names.test("body"));
+        assertTrue(names.test("file"));
+        assertFalse(names.test("title"));
+        names = wl.getParametersBeforeScan(evidence("10.0.0.2", "/", null, null));
+        assertTrue(names.test("password"));
+        assertFalse(names.test("body"));
+        assertFalse(names.test("file"));
+        assertFalse(wl.isEmptyBeforeScan());
+        assertTrue(IndexedWhiteList.compile(new OrWhiteList()).isEmptyBeforeScan());
+        assertFalse(IndexedWhiteList.compile(new AndWhiteList(new ArrayList<>())).isEmptyBeforeScan());
+    }
+
+    private static WhiteList randomWhiteList(Random random, int depth) {
+        int kind = random.nextInt(depth == 0 ? 6 : 8);
+        switch (kind) {
+        case 5:
+            return new CidrWhiteList(pick(random, "1.1.0.0/16", "2.2.2.0/24"));
+        case 4:
+            return new UrlPatternWhiteList(pick(random, "/*", "/**"));
+        case 0:
+            return new IpWhiteList(pick(random, "1.1.1.1", "2.2.2.2"));
+        case 1:
+            return new UrlWhiteList(pick(random, "/a", "/b"));
+        case 2:
+            return new ParameterWhiteList(pick(random, "p", "q"));
+        case 3:
+            return new UserWhiteList(pick(random, "u", "v"));
+        default:
+            List<WhiteList> children = new ArrayList<>();
+            for (int t = random.nextInt(4); t > 0; t--) {
+                children.add(randomWhiteList(random, depth - 1));
+            }
+            return kind == 6 ? new AndWhiteList(children) : new OrWhiteList(children);
+        }
+    }
+
+    private static String pick(Random random, String a, String b) {
+        return random.nextBoolean() ? a : b;
+    }
+}
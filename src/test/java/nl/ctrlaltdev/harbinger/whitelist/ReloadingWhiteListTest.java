@@ -0,0 +1,108 @@
+/*
+ * Copyright 2016 E.Hooijmeijer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.ctrlaltdev.harbinger.whitelist;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+
+import nl.ctrlaltdev.harbinger.evidence.Evidence;
+import nl.ctrlaltdev.harbinger.whitelist.builder.ReloadingWhiteList;
+
+public class ReloadingWhiteListTest {
+
+    private Path file;
+
+    @Before
+    public void setup() throws IOException {
+        file = Files.createTempFile("whitelist", ".txt");
+        write("ip:10.0.0.1\n");
+    }
+
+    @After
+    public void cleanup() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    private void write(String content) throws IOException {
+        Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static Evidence from(String ip) {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setRemoteAddr(ip);
+        return new Evidence(request);
+    }
+
+    @Test
+    public void shouldReloadChangedFile() throws IOException {
+        ReloadingWhiteList wl = new ReloadingWhiteList(file);
+        assertTrue(wl.isWhitelisted(from("10.0.0.1")));
+        assertFalse(wl.reload());
+        assertNotNull(wl.getLastReload());
+        assertNotNull(wl.getLastReloadDuration());
+
+        write("ip:10.0.0.1\nip:10.0.0.2\n");
+        assertTrue(wl.reload());
+        assertEquals(1, wl.getReloads());
+        assertTrue(wl.isWhitelisted(from("10.0.0.2")));
+        assertTrue(wl.isWhitelistedBeforeScan(from("10.0.0.2")));
+    }
+
+    @Test
+    public void shouldKeepPreviousVersionOnError() throws IOException {
+        ReloadingWhiteList wl = new ReloadingWhiteList(file);
+        write("nasi:goreng\n");
+        assertFalse(wl.reload());
+        assertEquals(1, wl.getFailures());
+        assertTrue(wl.isWhitelisted(from("10.0.0.1")));
+
+        Files.delete(file);
+        assertFalse(wl.reload());
+        assertEquals(2, wl.getFailures());
+        assertTrue(wl.isWhitelisted(from("10.0.0.1")));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldFailOnInitialError() throws IOException {
+        write("nasi:goreng\n");
+        new ReloadingWhiteList(file);
+    }
+
+    @Test(timeout = 30000)
+    public void shouldReloadInBackground() throws IOException, InterruptedException {
+        try (ReloadingWhiteList wl = new ReloadingWhiteList(file)) {
+            wl.start(Duration.ofMillis(20));
+            write("ip:10.0.0.33\n");
+            while (!wl.isWhitelisted(from("10.0.0.33"))) {
+                Thread.sleep(10);
+            }
+            assertFalse(wl.isWhitelisted(from("10.0.0.1")));
+        }
+    }
+}
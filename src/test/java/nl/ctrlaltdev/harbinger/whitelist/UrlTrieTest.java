@@ -0,0 +1,82 @@
+/*
+ * Copyright 2016 E.Hooijmeijer
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package nl.ctrlaltdev.harbinger.whitelist;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class UrlTrieTest {
+
+    @Test
+    public void shouldMatchExactUrls() {
+        UrlTrie trie = new UrlTrie();
+        trie.add("/a/b");
+        assertTrue(trie.matches("/a/b"));
+        assertFalse(trie.matches("/a"));
+        assertFalse(trie.matches("/a/b/"));
+        assertFalse(trie.matches("/a/bc"));
+        assertFalse(trie.matches(null));
+    }
+
+    @Test
+    public void shouldMatchSingleSegmentWildcard() {
+        UrlTrie trie = new UrlTrie();
+        trie.add("/api/*/docs/*");
+        assertTrue(trie.matches("/api/v1/docs/123"));
+        assertTrue(trie.matches("/api/v2/docs/"));
+        assertFalse(trie.matches("/api/v1/docs"));
+        assertFalse(trie.matches("/api/v1/docs/123/edit"));
+        assertFalse(trie.matches("/api/v1/x/docs/123"));
+    }
+
+    @Test
+    public void shouldMatchPrefix() {
+        UrlTrie trie = new UrlTrie();
+        trie.add("/static/**");
+        assertTrue(trie.matches("/static"));
+        assertTrue(trie.matches("/static/"));
+        assertTrue(trie.matches("/static/css/site.css"));
+        assertFalse(trie.matches("/staticfiles"));
+        assertFalse(trie.matches("/"));
+    }
+
+    @Test
+    public void shouldBacktrackBetweenLiteralAndWildcard() {
+        UrlTrie trie = new UrlTrie();
+        trie.add("/a/b/c");
+        trie.add("/a/*/d");
+        assertTrue(trie.matches("/a/b/c"));
+        assertTrue(trie.matches("/a/b/d"));
+        assertFalse(trie.matches("/a/b/e"));
+        assertEquals(2, trie.size());
+    }
+
+    @Test
+    public void shouldDetectPatterns() {
+        assertTrue(UrlTrie.isPattern("/a/*"));
+        assertTrue(UrlTrie.isPattern("/**"));
+        assertFalse(UrlTrie.isPattern("/a*b"));
+        assertFalse(UrlTrie.isPattern("/a/b"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectRestInTheMiddle() {
+        new UrlTrie().add("/a/**/b");
+    }
+}
@@ -40,6 +40,22 @@ public class WhiteListParserTest {
         assertFalse(parser.parse("ip:10.0.0.1").isWhitelisted(new Evidence(new MockHttpServletRequest())));
     }
 
+    @Test
+    public void shouldParseCidr() {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setRemoteAddr("10.1.2.3");
+        assertTrue(parser.parse("cidr:10.0.0.0/8").isWhitelisted(new Evidence(request)));
+        assertFalse(parser.parse("cidr:10.1.3.0/24").isWhitelisted(new Evidence(request)));
+        request.setRemoteAddr("2001:db8::1");
+        assertTrue(parser.parse("cidr:2001%3Adb8%3A%3A/32").isWhitelisted(new Evidence(request)));
+        assertTrue(parser.parse("or(cidr:2001%3Adb8%3A%3A/32,ip:10.0.0.1)").isWhitelisted(new Evidence(request)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldFailParsingInvalidCidr() {
+        parser.parse("cidr:10.0.0.0/33");
+    }
+
     @Test
     public void shouldParseParameter() {
         MockHttpServletRequest request = new MockHttpServletRequest();
@@ -60,6 +76,17 @@ public class WhiteListParserTest {
         assertFalse(parser.parse("url:/wodkasju").isWhitelisted(ev));
     }
 
+    @Test
+    public void shouldParseUrlPatterns() {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setRequestURI("/api/v1/docs/123");
+        Evidence ev = new Evidence(request);
+
+        assertTrue(parser.parse("url:/api/v1/docs/*").isWhitelisted(ev));
+        assertTrue(parser.parse("url:/api/**").isWhitelisted(ev));
+        assertFalse(parser.parse("url:/api/*").isWhitelisted(ev));
+    }
+
     @Test
     public void shouldParseUser() {
         MockHttpServletRequest request = new MockHttpServletRequest();
@@ -18,6 +18,8 @@ package nl.ctrlaltdev.harbinger.whitelist;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
+import java.util.Arrays;
+
 import org.junit.Test;
 import org.springframework.mock.web.MockHttpServletRequest;
 import org.springframework.security.authentication.TestingAuthenticationToken;
@@ -85,4 +87,39 @@ public class WhiteListTest {
         assertFalse(WhiteListBuilder.create().or().ip("8.8.8.9").user("abuser").end().build().isWhitelisted(ev));
     }
 
+    @Test
+    public void shouldWhitelistBeforeScan() {
+        request.setRemoteAddr("8.8.8.8");
+        Evidence ev = new Evidence(new Evidence(request), null, "param", null);
+        assertTrue(new IpWhiteList("8.8.8.8").isWhitelistedBeforeScan(ev));
+        assertTrue(WhiteListBuilder.create().and().ip("8.8.8.8").parameter("param").end().build().isWhitelistedBeforeScan(ev));
+        assertFalse(WhiteListBuilder.create().or().ip("8.8.8.9").parameter("other").end().build().isWhitelistedBeforeScan(ev));
+        WhiteList byRule = (e) -> e.getRule() == rule;
+        assertFalse(byRule.isWhitelistedBeforeScan(ev));
+        assertFalse(new OrWhiteList(Arrays.asList(byRule)).isWhitelistedBeforeScan(ev));
+    }
+
+    @Test
+    public void shouldBeEmptyBeforeScan() {
+        assertTrue(WhiteListBuilder.empty().isEmptyBeforeScan());
+        assertTrue(WhiteListBuilder.create().build().isEmptyBeforeScan());
+        assertFalse(WhiteListBuilder.create().parameter("param").build().isEmptyBeforeScan());
+        WhiteList byRule = (e) -> e.getRule() == rule;
+        assertFalse(byRule.isEmptyBeforeScan());
+    }
+
+    @Test
+    public void shouldResolveParametersBeforeScan() {
+        request.setRemoteAddr("8.8.8.8");
+        Evidence ev = new Evidence(request);
+        WhiteList wl = new OrWhiteList(Arrays.asList(new ParameterWhiteList("a"),
+                new AndWhiteList(Arrays.asList(new IpWhiteList("8.8.8.8"), new ParameterWhiteList("b"))),
+                new AndWhiteList(Arrays.asList(new IpWhiteList("8.8.8.9"), new ParameterWhiteList("c")))));
+        assertTrue(wl.getParametersBeforeScan(ev).test("a"));
+        assertTrue(wl.getParametersBeforeScan(ev).test("b"));
+        assertFalse(wl.getParametersBeforeScan(ev).test("c"));
+        assertTrue(new IpWhiteList("8.8.8.8").getParametersBeforeScan(ev) == WhiteList.ALL_PARAMETERS);
+        assertTrue(new IpWhiteList("8.8.8.9").getParametersBeforeScan(ev) == WhiteList.NO_PARAMETERS);
+    }
+
 }